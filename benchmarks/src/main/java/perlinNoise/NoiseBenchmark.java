@@ -0,0 +1,101 @@
+package perlinNoise;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each noise function at a fixed set of points, with seeded
+ * gradients.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoiseBenchmark {
+	
+	/** The number of points sampled per invocation. */
+	private static final int POINTS = 1024;
+	
+	/** The number of gradients along each direction. */
+	private static final int GRID = 100;
+	
+	@Param("42")
+	public long seed;
+	
+	private double[] xs, ys, ts;
+	private Vector2D[] positions;
+	private double[][] pairs;
+	
+	@Setup
+	public void setup() {
+		Noise.seed(seed);
+		PerlinNoise.seed(seed);
+		Noise3D.seed(seed);
+		
+		// Picks the sample points within the gradient grid
+		final Random random = new Random(seed);
+		xs = new double[POINTS];
+		ys = new double[POINTS];
+		ts = new double[POINTS];
+		positions = new Vector2D[POINTS];
+		pairs = new double[POINTS][];
+		for (int i = 0; i < POINTS; i++) {
+			xs[i] = (GRID-1)*random.nextDouble();
+			ys[i] = (GRID-1)*random.nextDouble();
+			ts[i] = 10*random.nextDouble();
+			positions[i] = new Vector2D(xs[i], ys[i]);
+			pairs[i] = new double[] {xs[i], ys[i]};
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double noise() {
+		double sum = 0;
+		for (Vector2D position : positions)
+			sum += Noise.noise(position, GRID);
+		return sum;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double noiseCoordinates() {
+		double sum = 0;
+		for (int i = 0; i < POINTS; i++)
+			sum += Noise.noise(xs[i], ys[i], GRID);
+		return sum;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double perlinNoise() {
+		double sum = 0;
+		for (double[] pair : pairs)
+			sum += PerlinNoise.noise(pair, GRID);
+		return sum;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double noise3D() {
+		double sum = 0;
+		for (int i = 0; i < POINTS; i++)
+			sum += Noise3D.noise(xs[i], ys[i], ts[i], GRID, GRID);
+		return sum;
+	}
+}
@@ -0,0 +1,43 @@
+package rayTracing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lSystem.LSystem;
+
+/**
+ * Measures growing the city's building-count L-System, which is seeded
+ * afresh on every invocation so each one grows the same word.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LSystemBenchmark {
+	
+	@Param({"10"})
+	public int steps;
+	
+	@Param("42")
+	public long seed;
+	
+	@Benchmark
+	public int steps() {
+		final LSystem lSystem = RayTracingMain.cityLSystem(new Random(seed));
+		lSystem.steps(steps);
+		return lSystem.getWord().length;
+	}
+}
@@ -0,0 +1,93 @@
+package rayTracing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import math.MutableVector3D;
+import math.Ray;
+import math.Vector3D;
+import rayTracing.primitives.BVHBuilder;
+import rayTracing.primitives.BoundingBox;
+
+/**
+ * Measures camera rays against the generated city: the full shading of a
+ * sample and the traversal of the original bounding box hierarchy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneBenchmark {
+	
+	/** The number of camera rays traced per invocation. */
+	private static final int SAMPLES = 256;
+	
+	/** The size of the image the samples are taken from. */
+	private static final int SIZE = 700;
+	
+	@Param({"flying", "walking"})
+	public String view;
+	
+	@Param("42")
+	public long seed;
+	
+	private Camera camera;
+	private double[] samples;
+	private Ray[] rays;
+	private BoundingBox root;
+	private final MutableVector3D color = new MutableVector3D();
+	
+	@Setup
+	public void setup() {
+		RayTracingMain.setupScene(seed);
+		root = BVHBuilder.build(RayTracingMain.primitives());
+		camera = view.equals("flying") ? RayTracingMain.FLYING_CAMERA : RayTracingMain.WALKING_CAMERA;
+		
+		// Picks the sample points and their camera rays
+		final Random random = new Random(seed);
+		samples = new double[2*SAMPLES];
+		rays = new Ray[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			final double x = SIZE*random.nextDouble();
+			final double y = SIZE*random.nextDouble();
+			samples[2*i] = x;
+			samples[2*i+1] = y;
+			final double transX = (x-SIZE/2.0)/(SIZE/2);
+			final double transY = (y-SIZE/2.0)/(SIZE/2);
+			final Vector3D direction = camera.direction.add(camera.right.scale(transX)).add(camera.up.scale(transY));
+			rays[i] = new Ray(camera.origin, direction);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public void traceRay(Blackhole blackhole) {
+		for (int i = 0; i < SAMPLES; i++) {
+			RayTracingMain.tracePrimary(camera, samples[2*i], samples[2*i+1], color);
+			blackhole.consume(color.x + color.y + color.z);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public void intersectingNodes(Blackhole blackhole) {
+		for (Ray ray : rays)
+			blackhole.consume(root.intersectingNodes(ray, 0));
+	}
+}
@@ -0,0 +1,127 @@
+package rayTracing.primitives;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Material;
+import rayTracing.Record;
+
+/**
+ * Measures the intersection test of each primitive against a fixed set of
+ * rays aimed near it, about half of which hit. The triangle mesh is a bumpy
+ * grid, tested a lane per child and triangle when the Vector API module is
+ * added as below, or one at a time with -jvmArgsAppend -Dsimd=false.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class IntersectBenchmark {
+	
+	/** The number of rays tested per invocation. */
+	private static final int RAYS = 1024;
+	
+	/** The cells along each side of the triangle mesh's grid. */
+	private static final int MESH_CELLS = 64;
+	
+	private static final Material MATERIAL = new Material(new Vector3D(0.5), new Vector3D(0.5), new Vector3D(0.5), 20);
+	
+	@Param({"Triangle", "Sphere", "Parallelogram", "WindowWall", "TriangleMesh"})
+	public String primitive;
+	
+	@Param("42")
+	public long seed;
+	
+	private Primitive target;
+	private Ray[] rays;
+	private final Record record = new Record();
+	
+	@Setup
+	public void setup() {
+		
+		// Creates the primitive around the origin
+		final Vector3D a = new Vector3D(-1, -1, 0);
+		final Vector3D b = new Vector3D(1, -1, 0);
+		final Vector3D c = new Vector3D(-1, 1, 0);
+		switch (primitive) {
+			case "Triangle": target = new Triangle(a, b, c, MATERIAL); break;
+			case "Sphere": target = new Sphere(1, Vector3D.ZERO, MATERIAL); break;
+			case "Parallelogram": target = new Parallelogram(a, b, c, MATERIAL); break;
+			case "WindowWall": target = new WindowWall(a, b, c, MATERIAL, 3, 5); break;
+			case "TriangleMesh": target = grid(new Random(seed)); break;
+			default: throw new IllegalArgumentException(primitive);
+		}
+		
+		// Aims rays from in front of the primitive at points around it
+		final Random random = new Random(seed);
+		rays = new Ray[RAYS];
+		for (int i = 0; i < RAYS; i++) {
+			final Vector3D origin = new Vector3D(4*random.nextDouble()-2, 4*random.nextDouble()-2, -5);
+			final Vector3D aim = new Vector3D(3*random.nextDouble()-1.5, 3*random.nextDouble()-1.5, 0);
+			rays[i] = new Ray(origin, aim.subtract(origin));
+		}
+	}
+	
+	/**
+	 * Creates a grid of triangles over the same square as the others, each
+	 * vertex pushed a little towards or away from the rays.
+	 */
+	private static TriangleMesh grid(Random random) {
+		final double[] depths = new double[(MESH_CELLS+1)*(MESH_CELLS+1)];
+		for (int i = 0; i < depths.length; i++)
+			depths[i] = 0.05*random.nextDouble();
+		final double[] vertices = new double[18*MESH_CELLS*MESH_CELLS];
+		int v = 0;
+		for (int x = 0; x < MESH_CELLS; x++) {
+			for (int y = 0; y < MESH_CELLS; y++) {
+				for (int corner : new int[] {0, 2, 1, 1, 2, 3}) {
+					final int cx = x + (corner & 1), cy = y + (corner >> 1);
+					vertices[v++] = 2.0*cx/MESH_CELLS - 1;
+					vertices[v++] = 2.0*cy/MESH_CELLS - 1;
+					vertices[v++] = depths[cx*(MESH_CELLS+1) + cy];
+				}
+			}
+		}
+		final Material[] materials = new Material[2*MESH_CELLS*MESH_CELLS];
+		Arrays.fill(materials, MATERIAL);
+		return new TriangleMesh(vertices, materials);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public int intersects() {
+		int hits = 0;
+		for (Ray ray : rays)
+			if (target.intersects(ray, 0, record.reset(Double.POSITIVE_INFINITY)))
+				hits++;
+		return hits;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(RAYS)
+	public int occludes() {
+		int hits = 0;
+		for (Ray ray : rays)
+			if (target.occludes(ray, 0, Double.POSITIVE_INFINITY))
+				hits++;
+		return hits;
+	}
+}
@@ -3,6 +3,7 @@ package lSystem;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
 
 public class LSystem {
 	
@@ -11,6 +12,9 @@ public class LSystem {
 	
 	/** The set of rules. */
 	private final HashMap<Letter, Rule> rules = new HashMap<Letter, Rule>();
+	
+	/** The source of randomness for drawing transforms, or null to use Math.random. */
+	private final Random random;
 
 	/**
 	 * Creates a new L-System.
@@ -19,9 +23,22 @@ public class LSystem {
 	 * @param rules The rules of the L-System.
 	 */
 	public LSystem(Letter[] axiom, Rule[] rules) {
+		this(axiom, rules, null);
+	}
+	
+	/**
+	 * Creates a new L-System that draws its transforms from the given source
+	 * of randomness, so its words can be reproduced.
+	 * 
+	 * @param axiom The axiom of the L-System.
+	 * @param rules The rules of the L-System.
+	 * @param random The source of randomness for drawing transforms.
+	 */
+	public LSystem(Letter[] axiom, Rule[] rules, Random random) {
 		
 		// Stores the given axiom and rules
 		word = axiom;
+		this.random = random;
 		for (Rule rule : rules)
 			this.rules.put(rule.letter, rule);
 		
@@ -48,7 +65,8 @@ public class LSystem {
 		for (Letter l : word) {
 			
 			// Applies the rule at this letter's relative position in the new word
-			final Letter[] transform = rules.get(l).drawTransform();
+			final Rule rule = rules.get(l);
+			final Letter[] transform = random == null ? rule.drawTransform() : rule.drawTransform(random);
 			for (Letter newLetter : transform)
 				newWord.add(newLetter);
 		}
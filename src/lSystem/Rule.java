@@ -1,6 +1,7 @@
 package lSystem;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 public class Rule {
 	
@@ -45,6 +46,16 @@ public class Rule {
 		return transforms.get((int)(transforms.size() * Math.random()));
 	}
 	
+	/**
+	 * @param random The source of randomness.
+	 * 
+	 * @return A transform drawn from a uniform probability distribution of
+	 * 			all the transforms in this rule.
+	 */
+	public Letter[] drawTransform(Random random) {
+		return transforms.get(random.nextInt(transforms.size()));
+	}
+	
 	/**
 	 * Creates a rule that is the identity transform for the given letter.
 	 * 
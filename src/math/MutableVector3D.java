@@ -0,0 +1,175 @@
+package math;
+
+public class MutableVector3D {
+
+	/** The x coordinate. */
+	public double x;
+
+	/** The y coordinate. */
+	public double y;
+
+	/** The z coordinate. */
+	public double z;
+
+	/**
+	 * Creates a mutable 3D vector set to zero. Operations modify this vector
+	 * in place and return it, so scratch vectors can be reused without allocating.
+	 */
+	public MutableVector3D() {}
+
+	/**
+	 * Sets the coordinates of this vector.
+	 *
+	 * @param x The x coordinate.
+	 * @param y The y coordinate.
+	 * @param z The z coordinate.
+	 * @return This vector.
+	 */
+	public MutableVector3D set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+
+	/**
+	 * Copies the coordinates of the given vector.
+	 *
+	 * @param vec The vector to copy.
+	 * @return This vector.
+	 */
+	public MutableVector3D set(Vector3D vec) {
+		return set(vec.x, vec.y, vec.z);
+	}
+
+	/**
+	 * Copies the coordinates of the given vector.
+	 *
+	 * @param vec The vector to copy.
+	 * @return This vector.
+	 */
+	public MutableVector3D set(MutableVector3D vec) {
+		return set(vec.x, vec.y, vec.z);
+	}
+
+	/**
+	 * Scales this vector by the given amount.
+	 *
+	 * @param scalar The amount by which to scale.
+	 * @return This vector.
+	 */
+	public MutableVector3D scale(double scalar) {
+		return set(scalar*x, scalar*y, scalar*z);
+	}
+
+	/**
+	 * Normalizes this vector.
+	 *
+	 * @return This vector.
+	 */
+	public MutableVector3D normalize() {
+		return scale(1/magnitude());
+	}
+
+	/**
+	 * Adds the given vector to this vector.
+	 *
+	 * @param vec The vector to sum.
+	 * @return This vector.
+	 */
+	public MutableVector3D add(MutableVector3D vec) {
+		return set(x+vec.x, y+vec.y, z+vec.z);
+	}
+
+	/**
+	 * Adds the given vector to this vector.
+	 *
+	 * @param vec The vector to sum.
+	 * @return This vector.
+	 */
+	public MutableVector3D add(Vector3D vec) {
+		return set(x+vec.x, y+vec.y, z+vec.z);
+	}
+
+	/**
+	 * Adds the given vector, scaled by the given amount, to this vector.
+	 *
+	 * @param vec The vector to scale and sum.
+	 * @param scalar The amount by which to scale the given vector.
+	 * @return This vector.
+	 */
+	public MutableVector3D addScaled(MutableVector3D vec, double scalar) {
+		return set(x+scalar*vec.x, y+scalar*vec.y, z+scalar*vec.z);
+	}
+
+	/**
+	 * Adds the given vector, scaled by the given amount, to this vector.
+	 *
+	 * @param vec The vector to scale and sum.
+	 * @param scalar The amount by which to scale the given vector.
+	 * @return This vector.
+	 */
+	public MutableVector3D addScaled(Vector3D vec, double scalar) {
+		return set(x+scalar*vec.x, y+scalar*vec.y, z+scalar*vec.z);
+	}
+
+	/**
+	 * Adds the element-wise product of the given vectors, scaled by the given amount, to this vector.
+	 *
+	 * @param vec1 The first vector in the product.
+	 * @param vec2 The second vector in the product.
+	 * @param scalar The amount by which to scale the product.
+	 * @return This vector.
+	 */
+	public MutableVector3D addProduct(MutableVector3D vec1, Vector3D vec2, double scalar) {
+		return set(x+scalar*vec1.x*vec2.x, y+scalar*vec1.y*vec2.y, z+scalar*vec1.z*vec2.z);
+	}
+
+	/**
+	 * Computes the element-wise multiplication with the given vector.
+	 *
+	 * @param vec The vector with which to compute element-wise multiplication.
+	 * @return This vector.
+	 */
+	public MutableVector3D multiply(Vector3D vec) {
+		return set(x*vec.x, y*vec.y, z*vec.z);
+	}
+
+	/**
+	 * Computes the dot product with the given vector.
+	 *
+	 * @param vec The vector with which the product will be computed.
+	 * @return The dot product with the given vector.
+	 */
+	public double dot(MutableVector3D vec) {
+		return x*vec.x + y*vec.y + z*vec.z;
+	}
+
+	/**
+	 * Computes the dot product with the given vector.
+	 *
+	 * @param vec The vector with which the product will be computed.
+	 * @return The dot product with the given vector.
+	 */
+	public double dot(Vector3D vec) {
+		return x*vec.x + y*vec.y + z*vec.z;
+	}
+
+	/**
+	 * @return The magnitude of the vector.
+	 */
+	public double magnitude() {
+		return Math.sqrt(dot(this));
+	}
+
+	/**
+	 * @return An immutable copy of this vector.
+	 */
+	public Vector3D toVector() {
+		return new Vector3D(x, y, z);
+	}
+
+	public String toString() {
+		return "MutableVector3D(x: " + x + ", y: " + y + ", z: " + z + ")";
+	}
+}
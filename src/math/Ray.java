@@ -1,69 +1,172 @@
 package math;
 
 public class Ray {
-	
+
 	/** The origin. */
-	public final Vector3D origin;
-	
+	public final MutableVector3D origin = new MutableVector3D();
+
 	/** The (normalized) direction in which the ray points. */
-	public final Vector3D direction;
-	
+	public final MutableVector3D direction = new MutableVector3D();
+
 	/** The reciprocal of the direction values, with an epsilon offset where applicable. */
-	private final Vector3D oneOverDirection;
+	private double oneOverDirectionX, oneOverDirectionY, oneOverDirectionZ;
 
 	/**
 	 * Creates the specified ray.
-	 * 
+	 *
 	 * @param origin The origin of the ray.
 	 * @param direction The direction in which the ray is pointing.
 	 */
 	public Ray(Vector3D origin, Vector3D direction) {
-		this.origin = origin;
-		this.direction = direction.normalize();
-		oneOverDirection = new Vector3D(
-			this.direction.x == 0 ? 1e4 : 1/this.direction.x,
-			this.direction.y == 0 ? 1e4 : 1/this.direction.y,
-			this.direction.z == 0 ? 1e4 : 1/this.direction.z
-		);
+		set(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
+	}
+
+	/**
+	 * Creates a ray to be set later, so it can be reused across many rays.
+	 */
+	public Ray() {}
+
+	/**
+	 * Points this ray in the given direction from the given origin.
+	 *
+	 * @param ox The x coordinate of the origin.
+	 * @param oy The y coordinate of the origin.
+	 * @param oz The z coordinate of the origin.
+	 * @param dx The x coordinate of the direction.
+	 * @param dy The y coordinate of the direction.
+	 * @param dz The z coordinate of the direction.
+	 * @return This ray.
+	 */
+	public Ray set(double ox, double oy, double oz, double dx, double dy, double dz) {
+		final double scale = 1/Math.sqrt(dx*dx + dy*dy + dz*dz);
+		return setNormalized(ox, oy, oz, scale*dx, scale*dy, scale*dz);
+	}
+
+	/**
+	 * Points this ray in the given direction from the given origin.
+	 *
+	 * @param origin The origin of the ray.
+	 * @param direction The direction in which the ray is pointing.
+	 * @return This ray.
+	 */
+	public Ray set(MutableVector3D origin, MutableVector3D direction) {
+		return set(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
+	}
+
+	/**
+	 * Points this ray in the given direction from the given origin, without
+	 * normalizing a direction that is already normalized.
+	 *
+	 * @param ox The x coordinate of the origin.
+	 * @param oy The y coordinate of the origin.
+	 * @param oz The z coordinate of the origin.
+	 * @param dx The x coordinate of the (normalized) direction.
+	 * @param dy The y coordinate of the (normalized) direction.
+	 * @param dz The z coordinate of the (normalized) direction.
+	 * @return This ray.
+	 */
+	public Ray setNormalized(double ox, double oy, double oz, double dx, double dy, double dz) {
+		origin.set(ox, oy, oz);
+		direction.set(dx, dy, dz);
+		oneOverDirectionX = dx == 0 ? 1e4 : 1/dx;
+		oneOverDirectionY = dy == 0 ? 1e4 : 1/dy;
+		oneOverDirectionZ = dz == 0 ? 1e4 : 1/dz;
+		return this;
+	}
+
+	/**
+	 * Points this ray in the given direction from the given origin, keeping
+	 * the direction's length, so t counts lengths of the given direction
+	 * rather than units of distance. The epsilon offset for a zero direction
+	 * value is scaled by the length, matching that of a normalized direction.
+	 *
+	 * @param ox The x coordinate of the origin.
+	 * @param oy The y coordinate of the origin.
+	 * @param oz The z coordinate of the origin.
+	 * @param dx The x coordinate of the (unnormalized) direction.
+	 * @param dy The y coordinate of the (unnormalized) direction.
+	 * @param dz The z coordinate of the (unnormalized) direction.
+	 * @return This ray.
+	 */
+	public Ray setUnnormalized(double ox, double oy, double oz, double dx, double dy, double dz) {
+		final double zeroReciprocal = 1e4/Math.sqrt(dx*dx + dy*dy + dz*dz);
+		origin.set(ox, oy, oz);
+		direction.set(dx, dy, dz);
+		oneOverDirectionX = dx == 0 ? zeroReciprocal : 1/dx;
+		oneOverDirectionY = dy == 0 ? zeroReciprocal : 1/dy;
+		oneOverDirectionZ = dz == 0 ? zeroReciprocal : 1/dz;
+		return this;
 	}
-	
+
 	/**
 	 * Computes the position of the ray at the given time.
-	 * 
+	 *
 	 * @param t The time at which the ray's position will be calculated.
 	 * @return The position of the ray at the given time.
 	 */
 	public Vector3D at(double t) {
-		return origin.add(direction.scale(t));
+		return at(t, new MutableVector3D()).toVector();
+	}
+
+	/**
+	 * Computes the position of the ray at the given time.
+	 *
+	 * @param t The time at which the ray's position will be calculated.
+	 * @param result The vector in which to store the position.
+	 * @return The given result vector.
+	 */
+	public MutableVector3D at(double t, MutableVector3D result) {
+		return result.set(origin).addScaled(direction, t);
 	}
-	
+
+	/**
+	 * @return The reciprocal of the direction's x value, as tAtX scales by.
+	 */
+	public double oneOverDirectionX() {
+		return oneOverDirectionX;
+	}
+
+	/**
+	 * @return The reciprocal of the direction's y value, as tAtY scales by.
+	 */
+	public double oneOverDirectionY() {
+		return oneOverDirectionY;
+	}
+
+	/**
+	 * @return The reciprocal of the direction's z value, as tAtZ scales by.
+	 */
+	public double oneOverDirectionZ() {
+		return oneOverDirectionZ;
+	}
+
 	/**
 	 * Finds the value of t for the given x-coordinate.
-	 * 
+	 *
 	 * @param x The x-coordinate for which to find the t value.
 	 * @return The t value at the x-coordinate.
 	 */
 	public double tAtX(double x) {
-		return (x-origin.x) * oneOverDirection.x;
+		return (x-origin.x) * oneOverDirectionX;
 	}
-	
+
 	/**
 	 * Finds the value of t for the given y-coordinate.
-	 * 
+	 *
 	 * @param y The y-coordinate for which to find the t value.
 	 * @return The t value at the y-coordinate.
 	 */
 	public double tAtY(double y) {
-		return (y-origin.y) * oneOverDirection.y;
+		return (y-origin.y) * oneOverDirectionY;
 	}
-	
+
 	/**
 	 * Finds the value of t for the given z-coordinate.
-	 * 
+	 *
 	 * @param z The z-coordinate for which to find the t value.
 	 * @return The t value at the z-coordinate.
 	 */
 	public double tAtZ(double z) {
-		return (z-origin.z) * oneOverDirection.z;
+		return (z-origin.z) * oneOverDirectionZ;
 	}
 }
@@ -1,5 +1,7 @@
 package perlinNoise;
 
+import java.util.Random;
+
 public class Noise {
 	
 	/** Stores the gradients. */
@@ -11,6 +13,18 @@ public class Noise {
 			GRADS[i] = new Vector2D(2*Math.random()-1, 2*Math.random()-1);
 	}
 	
+	/**
+	 * Regenerates the gradients from the given seed, so the same noise can be
+	 * reproduced later.
+	 * 
+	 * @param seed The seed of the gradients.
+	 */
+	public static void seed(long seed) {
+		final Random random = new Random(seed);
+		for (int i = 0; i < GRADS.length; i++)
+			GRADS[i] = new Vector2D(2*random.nextDouble()-1, 2*random.nextDouble()-1);
+	}
+	
 	/**
 	 * @param x The x coordinate of the gradient.
 	 * @param y The y coordinate of the gradient.
@@ -19,7 +33,7 @@ public class Noise {
 	 * @return The gradient at the given position.
 	 */
 	private static Vector2D getGrad(int x, int y, int maxX) {
-		return GRADS[(y*maxX + x)%GRADS.length];
+		return GRADS[Math.floorMod(y*maxX + x, GRADS.length)];
 	}
 	
 	/**
@@ -31,10 +45,23 @@ public class Noise {
 	 * @return The noise at the given point.
 	 */
 	public static double noise(Vector2D pos, int maxX) {
+		return noise(pos.x, pos.y, maxX);
+	}
+	
+	/**
+	 * Computes the noise at the given 2D point without allocating.
+	 * 
+	 * @param x The x coordinate at which the interpolation will happen.
+	 * @param y The y coordinate at which the interpolation will happen.
+	 * @param maxX The maximum number of gradients along the x direction.
+	 * 
+	 * @return The noise at the given point.
+	 */
+	public static double noise(double x, double y, int maxX) {
 		
 		// Calculates the integer coordinates
-		final int xInt = (int)pos.x;
-		final int yInt = (int)pos.y;
+		final int xInt = (int)Math.floor(x);
+		final int yInt = (int)Math.floor(y);
 		
 		// Calculates the corner gradients
 		/*  
@@ -47,16 +74,14 @@ public class Noise {
 		final Vector2D g3 = getGrad(xInt, yInt+1, maxX);
 		final Vector2D g4 = getGrad(xInt+1, yInt+1, maxX);
 		
-		// Stores the other relevant vectors
-		final Vector2D g1ToPos = new Vector2D(pos.x-(xInt), pos.y-(yInt));
-		final Vector2D g2ToPos = new Vector2D(pos.x-(xInt+1), pos.y-(yInt));
-		final Vector2D g3ToPos = new Vector2D(pos.x-(xInt), pos.y-(yInt+1));
-		final Vector2D g4ToPos = new Vector2D(pos.x-(xInt+1), pos.y-(yInt+1));
+		// Stores the offsets from the corners
+		final double dx1 = x-(xInt), dx2 = x-(xInt+1);
+		final double dy1 = y-(yInt), dy2 = y-(yInt+1);
 		
 		// Interpolates
-		final double lerp1 = lerp(g1.dot(g1ToPos), g2.dot(g2ToPos), g1ToPos.x);
-		final double lerp2 = lerp(g3.dot(g3ToPos), g4.dot(g4ToPos), g1ToPos.x);
-		return lerp(lerp1, lerp2, g1ToPos.y);
+		final double lerp1 = lerp(g1.x*dx1 + g1.y*dy1, g2.x*dx2 + g2.y*dy1, dx1);
+		final double lerp2 = lerp(g3.x*dx1 + g3.y*dy2, g4.x*dx2 + g4.y*dy2, dx1);
+		return lerp(lerp1, lerp2, dy1);
 	}
 	
 	/**
@@ -1,5 +1,7 @@
 package perlinNoise;
 
+import java.util.Random;
+
 public class Noise3D {
 	
 	/** Stores the gradients. */
@@ -15,6 +17,22 @@ public class Noise3D {
 			};
 	}
 	
+	/**
+	 * Regenerates the gradients from the given seed, so the same noise can be
+	 * reproduced later.
+	 * 
+	 * @param seed The seed of the gradients.
+	 */
+	public static void seed(long seed) {
+		final Random random = new Random(seed);
+		for (int i = 0; i < GRADS.length; i++)
+			GRADS[i] = new double[] {
+				2*random.nextDouble()-1,
+				2*random.nextDouble()-1,
+				2*random.nextDouble()-1
+			};
+	}
+	
 	private static double[] getGrad(int x, int y, int t, int maxX, int maxY) {
 		return GRADS[(t*maxX*maxY + y*maxX + x)%GRADS.length];
 	}
@@ -1,5 +1,7 @@
 package perlinNoise;
 
+import java.util.Random;
+
 public class PerlinNoise {
 	
 	/** Stores the gradients. */
@@ -10,6 +12,18 @@ public class PerlinNoise {
 			GRADS[i] = new double[] {2*Math.random()-1, 2*Math.random()-1};
 	}
 	
+	/**
+	 * Regenerates the gradients from the given seed, so the same noise can be
+	 * reproduced later.
+	 * 
+	 * @param seed The seed of the gradients.
+	 */
+	public static void seed(long seed) {
+		final Random random = new Random(seed);
+		for (int i = 0; i < GRADS.length; i++)
+			GRADS[i] = new double[] {2*random.nextDouble()-1, 2*random.nextDouble()-1};
+	}
+	
 	/**
 	 * @param x The x coordinate of the gradient.
 	 * @param y The y coordinate of the gradient.
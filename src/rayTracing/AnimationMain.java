@@ -0,0 +1,99 @@
+package rayTracing;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import javax.imageio.ImageIO;
+
+import math.Vector3D;
+import perlinNoise.Noise3D;
+import rayTracing.primitives.Instance;
+import rayTracing.primitives.LinearBVH;
+import rayTracing.primitives.Primitive;
+
+/**
+ * Animates a share of a city's buildings, each growing and shrinking with 3D
+ * noise over time, and renders a frame at each step. Between frames the
+ * scene's hierarchy is refit over just the buildings that moved, so each
+ * update costs in proportion to the buildings animated rather than the size
+ * of the city.
+ *
+ * Properties:
+ *   frames   The number of frames to render, default 60.
+ *   size     The blocks along each side of the city, default 20.
+ *   moving   The share of buildings animated, default 0.1.
+ *   speed    The noise periods passed between frames, default 0.1.
+ *   seed     The seed of the city and its animation, default 42.
+ *   threads  The number of threads rendering, default every processor.
+ *   out      The directory of the frames, or none to keep no frames.
+ */
+public class AnimationMain {
+
+	private static final int FRAMES = Integer.getInteger("frames", 60);
+	private static final int SIZE = Integer.getInteger("size", 20);
+	private static final double MOVING = Double.parseDouble(System.getProperty("moving", "0.1"));
+	private static final double SPEED = Double.parseDouble(System.getProperty("speed", "0.1"));
+	private static final long SEED = Long.getLong("seed", 42);
+	private static final int THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+	private static final String OUT = System.getProperty("out");
+
+	/** The least share of its built height a building shrinks to, keeping it upright and its transform invertible. */
+	private static final double MIN_HEIGHT = 0.1;
+
+	public static void main(String[] args) throws IOException {
+		RayTracingMain.setupScene(SEED, SIZE, 2);
+		final LinearBVH bvh = RayTracingMain.bvh();
+		Noise3D.seed(SEED);
+		if (OUT != null)
+			new File(OUT).mkdirs();
+
+		// Picks the buildings to animate, keeping the heights they were built with
+		final SplittableRandom random = new SplittableRandom(SEED);
+		final List<Instance> moving = new ArrayList<Instance>();
+		final List<Vector3D> heights = new ArrayList<Vector3D>();
+		int buildings = 0;
+		for (Primitive primitive : RayTracingMain.primitives()) {
+			if (!(primitive instanceof Instance)) continue;
+			buildings++;
+			if (random.nextDouble() < MOVING) {
+				moving.add((Instance) primitive);
+				heights.add(((Instance) primitive).getYAxis());
+			}
+		}
+
+		final double scale = SIZE/5.0;
+		final Camera camera = new Camera(
+			new Vector3D(-1*scale, 3*scale, -1*scale),
+			new Vector3D(1, -0.8, 1),
+			new Vector3D(-0.8, -1, -0.8)
+		);
+		for (int frame = 0; frame < FRAMES; frame++) {
+			Metrics.reset();
+
+			// Grows or shrinks each animated building with the noise at its corner
+			for (int i = 0; i < moving.size(); i++) {
+				final Instance building = moving.get(i);
+				final double noise = Noise3D.noise(building.getOrigin().x, building.getOrigin().z, SPEED*frame, SIZE+2, SIZE+2);
+				building.moveTo(building.getOrigin(), building.getXAxis(), heights.get(i).scale(Math.max(MIN_HEIGHT, 1 + noise)), building.getZAxis());
+			}
+			bvh.refit(moving);
+
+			// Renders the frame
+			final long start = System.nanoTime();
+			final BufferedImage img = RayTracingMain.renderImage(camera, THREADS);
+			final long frameNanos = System.nanoTime()-start;
+			if (OUT != null)
+				ImageIO.write(img, "png", new File(OUT, String.format("frame%04d.png", frame)));
+
+			System.out.println(String.format(
+				"Frame %d: %d of %d buildings moved, refit %.3fms over %d nodes, %d subtrees rebuilt, render %.1fms",
+				frame, moving.size(), buildings, Metrics.sum(Metrics.REFIT_NANOS)/1e6,
+				Metrics.sum(Metrics.NODES_REFIT), Metrics.sum(Metrics.SUBTREES_REBUILT), frameNanos/1e6
+			));
+		}
+	}
+}
@@ -29,4 +29,17 @@ public class Camera {
 		this.up = up.normalize();
 		right = this.direction.cross(this.up);
 	}
+	
+	/**
+	 * Computes the distance from the eye to the image plane in pixels, as
+	 * primary rays are aimed: the image's half width spans the right vector
+	 * a unit along the direction. The right vector is shorter than a unit
+	 * when up is not perpendicular to the direction, narrowing each pixel.
+	 * 
+	 * @param imageWidth The width of the image in pixels.
+	 * @return The focal length in pixels.
+	 */
+	public double focalLength(int imageWidth) {
+		return imageWidth/2.0/Math.sqrt(right.dot(right));
+	}
 }
@@ -0,0 +1,292 @@
+package rayTracing;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Records finished tiles on disk so an interrupted render can resume where it
+ * stopped. Tiles are compressed and appended by a single background thread,
+ * so rendering threads only copy their pixels and move on. The file starts
+ * with the render's image size, scene seed and a hash of every other setting
+ * its pixels depend on, followed by one record per tile.
+ */
+public class Checkpoint implements Closeable {
+
+	/** Identifies checkpoint files, "RTCK". */
+	private static final int MAGIC = 0x5254434b;
+
+	/** The size of the file's header: magic, width, height, tile size, seed and settings hash. */
+	private static final int HEADER_BYTES = 32;
+
+	/** The size of a record's header: tile, pixel count and compressed length. */
+	private static final int RECORD_BYTES = 12;
+
+	/** The minimum time between forcing records to the disk, in milliseconds. */
+	private static final long FORCE_INTERVAL = 5000;
+
+	/** The file holding the checkpoint. */
+	public final File file;
+
+	/** The channel reading and appending records. */
+	private final FileChannel channel;
+
+	/** The file offset of each finished tile's record, or -1 if the tile is not finished. */
+	private final long[] offsets;
+
+	/** The number of tiles finished before this checkpoint was opened. */
+	private final int restoredTiles;
+
+	/** The thread compressing and appending records. */
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "checkpoint-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/** The compressor of tiles, only used by the writer thread. */
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	/** The end of the file, only used by the writer thread after opening. */
+	private long end;
+
+	/** The time at which records were last forced to the disk. */
+	private long lastForce = System.currentTimeMillis();
+
+	/** The first error hit while writing, rethrown when closing. */
+	private volatile IOException failure;
+
+	/**
+	 * Opens the checkpoint for the given render. Finished tiles are kept if the
+	 * file was written for the same settings and seed, otherwise it starts over.
+	 *
+	 * @param file The file holding the checkpoint.
+	 * @param seed The seed from which the scene was generated.
+	 * @param width The width of the rendered image.
+	 * @param height The height of the rendered image.
+	 * @param tileSize The side length of each square tile.
+	 * @param settings Every other setting the rendered pixels depend on, such as "aa.samples=3,lod.error=0.5".
+	 */
+	public Checkpoint(File file, long seed, int width, int height, int tileSize, String settings) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		offsets = new long[((width+tileSize-1)/tileSize) * ((height+tileSize-1)/tileSize)];
+		Arrays.fill(offsets, -1);
+
+		// Compares the stored settings with the render's
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putInt(width).putInt(height).putInt(tileSize).putLong(seed).putLong(hash(settings)).flip();
+		final ByteBuffer stored = read(0, HEADER_BYTES);
+		if (stored == null || !stored.equals(header)) {
+			channel.truncate(0);
+			channel.write(header, 0);
+			end = HEADER_BYTES;
+			restoredTiles = 0;
+			return;
+		}
+
+		// Indexes the complete records, dropping a record cut off by a crash
+		int restored = 0;
+		end = HEADER_BYTES;
+		for (ByteBuffer record; (record = read(end, RECORD_BYTES)) != null; ) {
+			final int tile = record.getInt();
+			record.getInt();
+			final int length = record.getInt();
+			if (tile < 0 || tile >= offsets.length || length < 0 || end+RECORD_BYTES+length > channel.size())
+				break;
+			if (offsets[tile] < 0)
+				restored++;
+			offsets[tile] = end;
+			end += RECORD_BYTES+length;
+		}
+		channel.truncate(end);
+		restoredTiles = restored;
+	}
+
+	/**
+	 * Reads the scene seed stored in a checkpoint, so a resumed render can
+	 * regenerate the same scene.
+	 *
+	 * @param file The file holding the checkpoint.
+	 *
+	 * @return The stored seed, or null if there is no readable checkpoint.
+	 */
+	public static Long readSeed(File file) {
+		if (!file.isFile())
+			return null;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) >= 0);
+			if (header.hasRemaining() || header.getInt(0) != MAGIC)
+				return null;
+			return header.getLong(16);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Hashes the settings with 64-bit FNV-1a, so a change to any of them is
+	 * all but certain to change the hash.
+	 */
+	private static long hash(String settings) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < settings.length(); i++) {
+			hash ^= settings.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return The number of tiles finished before this checkpoint was opened.
+	 */
+	public int restoredTiles() {
+		return restoredTiles;
+	}
+
+	/**
+	 * Fills in the pixels of a tile finished in an earlier run.
+	 *
+	 * @param tile The index of the tile, in row-major order.
+	 * @param pixels The colors of the tile, packed as 0xRRGGBB, to be filled in.
+	 * @param count The number of pixels in the tile.
+	 *
+	 * @return Whether the tile was finished and restored.
+	 */
+	public boolean restore(int tile, int[] pixels, int count) {
+		final long offset = offsets[tile];
+		if (offset < 0)
+			return false;
+
+		try {
+			// Reads the record
+			final ByteBuffer record = read(offset, RECORD_BYTES);
+			record.getInt();
+			if (record.getInt() != count)
+				return false;
+			final ByteBuffer compressed = read(offset+RECORD_BYTES, record.getInt());
+
+			// Decompresses the colors
+			final byte[] rgb = new byte[3*count];
+			final Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(compressed.array());
+				if (inflater.inflate(rgb) != rgb.length)
+					return false;
+			} finally {
+				inflater.end();
+			}
+			for (int i = 0; i < count; i++)
+				pixels[i] = (rgb[3*i] & 0xff) << 16 | (rgb[3*i+1] & 0xff) << 8 | (rgb[3*i+2] & 0xff);
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (DataFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Queues a finished tile to be appended to the checkpoint, without waiting
+	 * for it to be written.
+	 *
+	 * @param tile The index of the tile, in row-major order.
+	 * @param pixels The colors of the tile, packed as 0xRRGGBB.
+	 * @param count The number of pixels in the tile.
+	 */
+	public void save(int tile, int[] pixels, int count) {
+		final int[] copy = Arrays.copyOf(pixels, count);
+		writer.execute(() -> append(tile, copy));
+	}
+
+	/**
+	 * Compresses and appends a tile's record, called on the writer thread.
+	 */
+	private void append(int tile, int[] pixels) {
+		if (failure != null)
+			return;
+
+		// Compresses the colors
+		final byte[] rgb = new byte[3*pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			rgb[3*i] = (byte) (pixels[i] >> 16);
+			rgb[3*i+1] = (byte) (pixels[i] >> 8);
+			rgb[3*i+2] = (byte) pixels[i];
+		}
+		deflater.reset();
+		deflater.setInput(rgb);
+		deflater.finish();
+		byte[] compressed = new byte[rgb.length/2 + 64];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, 2*compressed.length);
+			length += deflater.deflate(compressed, length, compressed.length-length);
+		}
+
+		try {
+			// Appends the record
+			final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES+length);
+			record.putInt(tile).putInt(pixels.length).putInt(length).put(compressed, 0, length).flip();
+			while (record.hasRemaining())
+				end += channel.write(record, end);
+
+			// Periodically makes sure the records survive a crash
+			final long now = System.currentTimeMillis();
+			if (now-lastForce >= FORCE_INTERVAL) {
+				channel.force(false);
+				lastForce = now;
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Reads the given range of the file.
+	 *
+	 * @return The bytes read, or null if the file ends before the range does.
+	 */
+	private ByteBuffer read(long offset, int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset+buffer.position()) < 0)
+				return null;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Waits for the queued tiles to be written, then closes the file.
+	 */
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		deflater.end();
+		try {
+			if (failure == null)
+				channel.force(false);
+		} finally {
+			channel.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,147 @@
+package rayTracing;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import math.Vector3D;
+
+/**
+ * Measures how the city scales. Generates cities of every combination of the
+ * sizes and densities given, then records the time spent modelling and
+ * building the hierarchy, the time threads spent building hierarchies of
+ * every kind, the heap the scene holds and the speed of a frame
+ * rendered over the whole city. Writes a row per city to "<report>.csv" and a
+ * JSON line per city to "<report>.jsonl".
+ *
+ * Properties:
+ *   sizes      The blocks along each side of the cities, default 5,20,50,100,200.
+ *   densities  The most buildings along each side of a block, default 1,2,3.
+ *   lod        Whether to simplify blocks far from the camera, default false.
+ *   seed       The seed of every city, default 42.
+ *   threads    The number of threads rendering, default every processor.
+ *   report     The report's file name without extension, default "scaling".
+ */
+public class CityScalingMain {
+
+	private static final int[] SIZES = parseInts(System.getProperty("sizes", "5,20,50,100,200"));
+	private static final int[] DENSITIES = parseInts(System.getProperty("densities", "1,2,3"));
+	private static final boolean LOD = Boolean.getBoolean("lod");
+	private static final long SEED = Long.getLong("seed", 42);
+	private static final int THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+	private static final String REPORT = System.getProperty("report", "scaling");
+
+	/** The columns of the CSV report, named as in the JSON lines. */
+	private static final String[] COLUMNS = {
+		"size", "density", "lod", "primitives", "modelMillis", "buildMillis", "hierarchyMillis", "heapBytes",
+		"rays", "raysPerSecond", "frameMillis"
+	};
+
+	private static final MemoryMXBean MEMORY_MX = ManagementFactory.getMemoryMXBean();
+
+	public static void main(String[] args) throws IOException {
+		try (
+			PrintWriter csv = new PrintWriter(new FileWriter(REPORT + ".csv"));
+			PrintWriter json = new PrintWriter(new FileWriter(REPORT + ".jsonl"))
+		) {
+			csv.println(String.join(",", COLUMNS));
+			for (int size : SIZES) {
+				for (int density : DENSITIES) {
+					final Map<String, Object> values = measure(size, density);
+					final StringBuilder row = new StringBuilder();
+					for (String column : COLUMNS)
+						row.append(row.length() == 0 ? "" : ",").append(values.get(column));
+					csv.println(row);
+					csv.flush();
+					json.println(Metrics.toJson(values));
+					json.flush();
+					System.out.println(row);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generates and renders a single city.
+	 *
+	 * @param size The blocks along each side of the city.
+	 * @param density The most buildings along each side of a block.
+	 *
+	 * @return The measurements, in report order.
+	 */
+	private static Map<String, Object> measure(int size, int density) {
+
+		// Frees the last city before measuring the heap
+		RayTracingMain.setupScene(SEED, 0, density);
+		final long heapBefore = usedHeap();
+
+		// Generates the city
+		final Camera camera = overviewCamera(size);
+		Metrics.reset();
+		RayTracingMain.setupScene(SEED, size, density, LOD ? camera.origin : null);
+		final long heap = usedHeap()-heapBefore;
+		final long modelNanos = Metrics.sum(Metrics.MODEL_NANOS);
+		final long buildNanos = Metrics.sum(Metrics.BUILD_NANOS);
+		final long hierarchyNanos = Metrics.sum(Metrics.HIERARCHY_NANOS);
+
+		// Renders a frame looking over the whole city
+		Metrics.resetRender();
+		final long start = System.nanoTime();
+		RayTracingMain.renderImage(camera, THREADS);
+		final long frameNanos = System.nanoTime()-start;
+		Metrics.add(Metrics.RENDER_NANOS, frameNanos);
+		final Map<String, Object> snapshot = Metrics.snapshot();
+
+		final Map<String, Object> values = new LinkedHashMap<String, Object>();
+		values.put("size", size);
+		values.put("density", density);
+		values.put("lod", LOD);
+		values.put("primitives", RayTracingMain.primitives().size());
+		values.put("modelMillis", modelNanos/1e6);
+		values.put("buildMillis", buildNanos/1e6);
+		values.put("hierarchyMillis", hierarchyNanos/1e6);
+		values.put("heapBytes", heap);
+		values.put("rays", snapshot.get("rays"));
+		values.put("raysPerSecond", snapshot.get("raysPerSecond"));
+		values.put("frameMillis", frameNanos/1e6);
+		values.put("nodesPerRay", snapshot.get("nodesPerRay"));
+		values.put("testsPerRay", snapshot.get("testsPerRay"));
+		values.put("seed", SEED);
+		values.put("threads", THREADS);
+		return values;
+	}
+
+	/**
+	 * Places the flying camera's view over a city of the given size, so every
+	 * city fills the frame the way the default city does.
+	 */
+	private static Camera overviewCamera(int size) {
+		final double scale = size/5.0;
+		return new Camera(
+			new Vector3D(-1*scale, 3*scale, -1*scale),
+			new Vector3D(1, -0.8, 1),
+			new Vector3D(-0.8, -1, -0.8)
+		);
+	}
+
+	/**
+	 * @return The bytes of heap in use after collecting garbage.
+	 */
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return MEMORY_MX.getHeapMemoryUsage().getUsed();
+	}
+
+	private static int[] parseInts(String list) {
+		final String[] parts = list.split(",");
+		final int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+}
@@ -0,0 +1,129 @@
+package rayTracing;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Keeps the first samples of the pixels along the edges of tiles, so the
+ * neighbouring tiles that compare against them do not trace them again. A
+ * pixel is kept if it is on the last row or column of its tile before another
+ * tile, or on the first after one. The samples are grouped by band of tiles,
+ * each band holding its own edge columns and the rows on either side of the
+ * edge with the band below it.
+ */
+public class EdgeSamples {
+
+	/** The width of the rendered image. */
+	private final int width;
+
+	/** The height of the rendered image. */
+	private final int height;
+
+	/** The side length of each square tile. */
+	private final int tileSize;
+
+	/** The number of tiles along the x direction. */
+	private final int tilesX;
+
+	/** The samples of each band of tiles still in use, by band. */
+	private final Map<Integer, Band> bands = new ConcurrentHashMap<Integer, Band>();
+
+	/**
+	 * Creates an empty set of samples for a single render.
+	 *
+	 * @param width The width of the rendered image.
+	 * @param height The height of the rendered image.
+	 * @param tileSize The side length of each square tile.
+	 */
+	public EdgeSamples(int width, int height, int tileSize) {
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		tilesX = (width+tileSize-1)/tileSize;
+	}
+
+	/**
+	 * Copies the first sample of a pixel, if a tile has stored it.
+	 *
+	 * @param x The x coordinate of the pixel.
+	 * @param y The y coordinate of the pixel.
+	 * @param samples The array receiving the sample's 3 channels.
+	 * @param i The index of the sample's first channel.
+	 *
+	 * @return Whether the sample had been stored.
+	 */
+	public boolean get(int x, int y, double[] samples, int i) {
+		final int slot = slot(x, y);
+		if (slot < 0) return false;
+		final Band band = bands.get(band(y, slot));
+		if (band == null || band.stored.get(slot) == 0) return false;
+		System.arraycopy(band.samples, 3*slot, samples, i, 3);
+		return true;
+	}
+
+	/**
+	 * Stores the first sample of a pixel, if a neighbouring tile needs it.
+	 * Samples are deterministic, so two tiles storing the same pixel at once
+	 * store the same values.
+	 *
+	 * @param x The x coordinate of the pixel.
+	 * @param y The y coordinate of the pixel.
+	 * @param samples The array holding the sample's 3 channels.
+	 * @param i The index of the sample's first channel.
+	 */
+	public void put(int x, int y, double[] samples, int i) {
+		final int slot = slot(x, y);
+		if (slot < 0) return;
+		final Band band = bands.computeIfAbsent(band(y, slot), key -> new Band());
+		System.arraycopy(samples, i, band.samples, 3*slot, 3);
+		band.stored.set(slot, 1);
+	}
+
+	/**
+	 * Drops the samples of every band whose tiles, and those of the band
+	 * below it, have all been finished.
+	 *
+	 * @param y The y coordinate after the last finished row.
+	 */
+	public void rowsFinished(int y) {
+		bands.keySet().removeIf(band -> (band+2)*tileSize <= y || y >= height);
+	}
+
+	/**
+	 * Finds where a pixel's sample is kept in its band: first the band's last
+	 * row, then the next band's first row, then two columns per tile.
+	 *
+	 * @return The pixel's slot, or -1 if no neighbouring tile needs it.
+	 */
+	private int slot(int x, int y) {
+		if (y%tileSize == tileSize-1 && y+1 < height)
+			return x;
+		if (y%tileSize == 0 && y > 0)
+			return width + x;
+		if (x%tileSize == tileSize-1 && x+1 < width)
+			return 2*width + (2*(x/tileSize) + 1)*tileSize + y%tileSize;
+		if (x%tileSize == 0 && x > 0)
+			return 2*width + 2*(x/tileSize)*tileSize + y%tileSize;
+		return -1;
+	}
+
+	/**
+	 * @return The band keeping the sample in the given slot of a pixel on the given row.
+	 */
+	private int band(int y, int slot) {
+		return slot >= width && slot < 2*width ? y/tileSize - 1 : y/tileSize;
+	}
+
+	/**
+	 * The samples kept for a single band of tiles.
+	 */
+	private class Band {
+
+		/** The 3 channels of the sample in each slot. */
+		private final double[] samples = new double[3*(2*width + 2*tilesX*tileSize)];
+
+		/** Whether each slot's sample has been stored, set after its channels are written. */
+		private final AtomicIntegerArray stored = new AtomicIntegerArray(2*width + 2*tilesX*tileSize);
+	}
+}
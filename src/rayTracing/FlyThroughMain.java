@@ -0,0 +1,74 @@
+package rayTracing;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import javax.imageio.ImageIO;
+
+import math.Vector3D;
+import rayTracing.primitives.ChunkedCity;
+
+/**
+ * Flies the camera in a straight line over an unbounded city, rendering a
+ * frame at each step. Blocks are generated as the frames first see them and
+ * evicted once the camera leaves them behind, so the memory held stays level
+ * however long the flight.
+ *
+ * Properties:
+ *   frames        The number of frames to render, default 120.
+ *   speed         The blocks flown between frames, default 0.5.
+ *   viewDistance  The distance beyond which no blocks are seen, default 30.
+ *   chunks        The most blocks kept generated at once, default 2048.
+ *   lod           Whether to simplify blocks far from the camera, default true.
+ *   seed          The seed of the city, default 42.
+ *   threads       The number of threads rendering, default every processor.
+ *   out           The directory of the frames, or none to keep no frames.
+ */
+public class FlyThroughMain {
+
+	private static final int FRAMES = Integer.getInteger("frames", 120);
+	private static final double SPEED = Double.parseDouble(System.getProperty("speed", "0.5"));
+	private static final double VIEW_DISTANCE = Double.parseDouble(System.getProperty("viewDistance", "30"));
+	private static final int CHUNKS = Integer.getInteger("chunks", 2048);
+	private static final boolean LOD = Boolean.parseBoolean(System.getProperty("lod", "true"));
+	private static final long SEED = Long.getLong("seed", 42);
+	private static final int THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+	private static final String OUT = System.getProperty("out");
+
+	/** The direction of the flight, level with the ground. */
+	private static final Vector3D HEADING = new Vector3D(1, 0, 1).normalize();
+
+	private static final MemoryMXBean MEMORY_MX = ManagementFactory.getMemoryMXBean();
+
+	public static void main(String[] args) throws IOException {
+		final ChunkedCity city = RayTracingMain.setupChunkedScene(SEED, 2, LOD, VIEW_DISTANCE, CHUNKS);
+		if (OUT != null)
+			new File(OUT).mkdirs();
+
+		for (int frame = 0; frame < FRAMES; frame++) {
+
+			// Moves the flying camera along the heading
+			final Vector3D origin = new Vector3D(-1, 3, -1).add(HEADING.scale(SPEED*frame));
+			final Camera camera = new Camera(origin, new Vector3D(1, -0.8, 1), new Vector3D(-0.8, -1, -0.8));
+			city.setViewpoint(origin);
+
+			// Renders the frame
+			Metrics.reset();
+			final long start = System.nanoTime();
+			final BufferedImage img = RayTracingMain.renderImage(camera, THREADS);
+			final long frameNanos = System.nanoTime()-start;
+			if (OUT != null)
+				ImageIO.write(img, "png", new File(OUT, String.format("frame%04d.png", frame)));
+
+			System.out.println(String.format(
+				"Frame %d: %.1fms, %d blocks held, %d generated, %d evicted, %.1fMB heap",
+				frame, frameNanos/1e6, city.generatedBlocks(),
+				Metrics.sum(Metrics.CHUNKS_GENERATED), Metrics.sum(Metrics.CHUNKS_EVICTED),
+				MEMORY_MX.getHeapMemoryUsage().getUsed()/1e6
+			));
+		}
+	}
+}
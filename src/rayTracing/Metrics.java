@@ -0,0 +1,281 @@
+package rayTracing;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters describing the work done by a render. Each thread increments its
+ * own array of counts with plain writes, and the arrays of every thread are
+ * only summed when read, so counting costs no more than a local increment.
+ * Once a thread has finished, its counts are folded into a retired total and
+ * its array dropped, so the pools started for each frame do not pile up.
+ */
+public class Metrics {
+
+	/** The camera rays traced. */
+	public static final int PRIMARY_RAYS = 0;
+
+	/** The rays traced toward lights. */
+	public static final int SHADOW_RAYS = 1;
+
+	/** The rays traced off reflective surfaces. */
+	public static final int REFLECTION_RAYS = 2;
+
+	/** The nodes of every hierarchy visited by traversals. */
+	public static final int NODES_VISITED = 3;
+
+	/** The intersection tests of primitives, including the triangles inside meshes. */
+	public static final int PRIMITIVE_TESTS = 4;
+
+	/** The time spent generating the scene, in nanoseconds. */
+	public static final int MODEL_NANOS = 5;
+
+	/** The time spent building the scene's hierarchy, in nanoseconds. */
+	public static final int BUILD_NANOS = 6;
+
+	/** The time spent rendering, in nanoseconds. */
+	public static final int RENDER_NANOS = 7;
+
+	/** The time spent encoding the image, in nanoseconds. */
+	public static final int ENCODE_NANOS = 8;
+
+	/** The blocks of a chunked city generated on demand. */
+	public static final int CHUNKS_GENERATED = 9;
+
+	/** The blocks of a chunked city evicted to make room. */
+	public static final int CHUNKS_EVICTED = 10;
+
+	/** The time spent building hierarchies of every kind, in nanoseconds summed over the threads building them. */
+	public static final int HIERARCHY_NANOS = 11;
+
+	/** The nodes whose bounds were refit after primitives moved. */
+	public static final int NODES_REFIT = 12;
+
+	/** The subtrees rebuilt by refits because their bounds had grown too much. */
+	public static final int SUBTREES_REBUILT = 13;
+
+	/** The time spent refitting hierarchies, rebuilds included, in nanoseconds. */
+	public static final int REFIT_NANOS = 14;
+
+	/** The names of the fixed counters, as written in reports. */
+	private static final String[] NAMES = {
+		"primaryRays", "shadowRays", "reflectionRays", "nodesVisited", "primitiveTests",
+		"modelNanos", "buildNanos", "renderNanos", "encodeNanos", "chunksGenerated", "chunksEvicted",
+		"hierarchyNanos", "nodesRefit", "subtreesRebuilt", "refitNanos"
+	};
+
+	/** The number of counters each thread holds, fixed counters first and then a pair per primitive class. */
+	private static final int SLOTS = 64;
+
+	/** The counts of every live thread that has counted anything, guarded by the class's lock. */
+	private static final Map<Thread, long[]> THREAD_COUNTS = new HashMap<Thread, long[]>();
+
+	/** The counts of the threads that have finished, summed, guarded by the class's lock. */
+	private static final long[] RETIRED_COUNTS = new long[SLOTS];
+
+	/** The counts of each thread. */
+	private static final ThreadLocal<long[]> COUNTS = ThreadLocal.withInitial(() -> {
+		final long[] counts = new long[SLOTS];
+		synchronized (Metrics.class) {
+			retireFinished();
+			THREAD_COUNTS.put(Thread.currentThread(), counts);
+		}
+		return counts;
+	});
+
+	/** The first of the two slots (tests, hits) counting each primitive class. */
+	private static final Map<Class<?>, Integer> PRIMITIVE_SLOTS = new LinkedHashMap<Class<?>, Integer>();
+
+	private Metrics() {}
+
+	/**
+	 * Gets the counts of the calling thread, which only that thread may
+	 * increment. Hot loops should look this up once and keep it.
+	 *
+	 * @return The counts of the calling thread, indexed by slot.
+	 */
+	public static long[] counts() {
+		return COUNTS.get();
+	}
+
+	/**
+	 * Gets the slot counting the intersection tests of a primitive class. The
+	 * slot after it counts the tests that hit.
+	 *
+	 * @param type The class of the primitive.
+	 *
+	 * @return The slot counting the class's tests.
+	 */
+	public static synchronized int primitiveSlot(Class<?> type) {
+		Integer slot = PRIMITIVE_SLOTS.get(type);
+		if (slot == null) {
+			slot = NAMES.length + 2*PRIMITIVE_SLOTS.size();
+			if (slot+1 >= SLOTS)
+				throw new IllegalStateException("Too many primitive classes to count: " + type.getName());
+			PRIMITIVE_SLOTS.put(type, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds to the calling thread's count in the given slot.
+	 *
+	 * @param slot The slot to add to.
+	 * @param amount The amount to add.
+	 */
+	public static void add(int slot, long amount) {
+		COUNTS.get()[slot] += amount;
+	}
+
+	/**
+	 * Sums the given slot across every thread.
+	 *
+	 * @param slot The slot to sum.
+	 *
+	 * @return The total count.
+	 */
+	public static synchronized long sum(int slot) {
+		retireFinished();
+		long sum = RETIRED_COUNTS[slot];
+		for (long[] counts : THREAD_COUNTS.values())
+			sum += counts[slot];
+		return sum;
+	}
+
+	/**
+	 * Clears every count, which must not happen while threads are counting.
+	 */
+	public static synchronized void reset() {
+		Arrays.fill(RETIRED_COUNTS, 0);
+		for (long[] counts : THREAD_COUNTS.values())
+			Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * Clears every count except the scene's modelling and build times, so the
+	 * next render of the same scene is counted from zero.
+	 */
+	public static synchronized void resetRender() {
+		resetRender(RETIRED_COUNTS);
+		for (long[] counts : THREAD_COUNTS.values())
+			resetRender(counts);
+	}
+
+	/**
+	 * Clears the counts of a single thread, or the retired counts, except the
+	 * scene's modelling and build times.
+	 */
+	private static void resetRender(long[] counts) {
+		final long model = counts[MODEL_NANOS];
+		final long build = counts[BUILD_NANOS];
+		final long hierarchy = counts[HIERARCHY_NANOS];
+		Arrays.fill(counts, 0);
+		counts[MODEL_NANOS] = model;
+		counts[BUILD_NANOS] = build;
+		counts[HIERARCHY_NANOS] = hierarchy;
+	}
+
+	/**
+	 * Folds the counts of every thread that has finished into the retired
+	 * counts and drops their arrays. Seeing a thread has finished makes all of
+	 * its writes visible. Must be called holding the class's lock.
+	 */
+	private static void retireFinished() {
+		for (Iterator<Map.Entry<Thread, long[]>> it = THREAD_COUNTS.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<Thread, long[]> entry = it.next();
+			if (entry.getKey().isAlive()) continue;
+			for (int slot = 0; slot < SLOTS; slot++)
+				RETIRED_COUNTS[slot] += entry.getValue()[slot];
+			it.remove();
+		}
+	}
+
+	/**
+	 * Summarizes the counts, with the rates derived from them.
+	 *
+	 * @return The named values, in report order.
+	 */
+	public static Map<String, Object> snapshot() {
+		final Map<String, Object> values = new LinkedHashMap<String, Object>();
+		for (int slot = 0; slot < NAMES.length; slot++)
+			values.put(NAMES[slot], sum(slot));
+
+		// Derives the per-ray rates
+		final long rays = sum(PRIMARY_RAYS) + sum(SHADOW_RAYS) + sum(REFLECTION_RAYS);
+		final long renderNanos = sum(RENDER_NANOS);
+		values.put("rays", rays);
+		values.put("raysPerSecond", renderNanos == 0 ? 0.0 : rays*1e9/renderNanos);
+		values.put("nodesPerRay", rays == 0 ? 0.0 : (double) sum(NODES_VISITED)/rays);
+		values.put("testsPerRay", rays == 0 ? 0.0 : (double) sum(PRIMITIVE_TESTS)/rays);
+
+		// Stores the tests and hits of each primitive class
+		final Map<String, Object> primitives = new LinkedHashMap<String, Object>();
+		synchronized (Metrics.class) {
+			for (Map.Entry<Class<?>, Integer> entry : PRIMITIVE_SLOTS.entrySet()) {
+				final long tests = sum(entry.getValue());
+				final long hits = sum(entry.getValue()+1);
+				final Map<String, Object> counts = new LinkedHashMap<String, Object>();
+				counts.put("tests", tests);
+				counts.put("hits", hits);
+				counts.put("hitRate", tests == 0 ? 0.0 : (double) hits/tests);
+				primitives.put(entry.getKey().getSimpleName(), counts);
+			}
+		}
+		values.put("primitives", primitives);
+		return values;
+	}
+
+	/**
+	 * Writes the values as a single JSON line, appending it to the file named
+	 * by the "metrics" property, or printing it if there is none.
+	 *
+	 * @param values The named values to write.
+	 */
+	public static void write(Map<String, Object> values) throws IOException {
+		final String line = toJson(values);
+		final String file = System.getProperty("metrics");
+		if (file == null) {
+			System.out.println(line);
+			return;
+		}
+		try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Formats numbers, strings, booleans and nested maps as JSON.
+	 */
+	static String toJson(Object value) {
+		if (value instanceof Map) {
+			final StringBuilder json = new StringBuilder("{");
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (json.length() > 1)
+					json.append(',');
+				json.append(toJson(entry.getKey().toString())).append(':').append(toJson(entry.getValue()));
+			}
+			return json.append('}').toString();
+		}
+		if (value instanceof String) {
+			final StringBuilder json = new StringBuilder("\"");
+			for (char c : ((String) value).toCharArray()) {
+				if (c == '"' || c == '\\')
+					json.append('\\').append(c);
+				else if (c < 0x20)
+					json.append(String.format("\\u%04x", (int) c));
+				else
+					json.append(c);
+			}
+			return json.append('"').toString();
+		}
+		if (value instanceof Double && !Double.isFinite((Double) value))
+			return "null";
+		return String.valueOf(value);
+	}
+}
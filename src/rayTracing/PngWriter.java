@@ -0,0 +1,156 @@
+package rayTracing;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams an 8-bit RGB PNG, compressing rows as they arrive and flushing the
+ * compressed data in IDAT chunks of bounded size.
+ */
+public class PngWriter implements ScanlineWriter {
+	
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	
+	/** The size of the compressed data held before an IDAT chunk is flushed. */
+	private static final int CHUNK_SIZE = 1 << 16;
+	
+	/** The PNG filter type that stores each byte's difference from the pixel to its left. */
+	private static final int FILTER_SUB = 1;
+	
+	/** The stream being written to. */
+	private final DataOutputStream out;
+	
+	/** The width of the image. */
+	private final int width;
+	
+	/** The compressor of the filtered rows. */
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	
+	/** The stream splitting the compressed data into IDAT chunks. */
+	private final ChunkStream chunks = new ChunkStream();
+	
+	/** The stream compressing the filtered rows. */
+	private final DeflaterOutputStream data;
+	
+	/** The filtered bytes of a single row, reused across rows. */
+	private final byte[] row;
+	
+	/**
+	 * Writes the signature and header of the image.
+	 * 
+	 * @param out The stream to write to, which is closed along with this writer.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 */
+	public PngWriter(OutputStream out, int width, int height) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.width = width;
+		row = new byte[1 + 3*width];
+		data = new DeflaterOutputStream(chunks, deflater, CHUNK_SIZE);
+		
+		// Writes the header for 8-bit RGB without interlacing
+		this.out.write(SIGNATURE);
+		final byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8;
+		header[9] = 2;
+		writeChunk("IHDR", header, header.length);
+	}
+	
+	public void write(int[] pixels, int rows) throws IOException {
+		for (int y = 0; y < rows; y++) {
+			
+			// Filters the row, each byte relative to the same channel of the pixel to its left
+			row[0] = FILTER_SUB;
+			int previous = 0;
+			for (int x = 0; x < width; x++) {
+				final int rgb = pixels[y*width + x];
+				row[1+3*x] = (byte) ((rgb >> 16) - (previous >> 16));
+				row[2+3*x] = (byte) ((rgb >> 8) - (previous >> 8));
+				row[3+3*x] = (byte) (rgb - previous);
+				previous = rgb;
+			}
+			data.write(row);
+		}
+	}
+	
+	public void close() throws IOException {
+		data.finish();
+		chunks.flush();
+		deflater.end();
+		writeChunk("IEND", new byte[0], 0);
+		out.close();
+	}
+	
+	/**
+	 * Writes a chunk with its length, type and checksum.
+	 * 
+	 * @param type The four letter type of the chunk.
+	 * @param bytes The chunk's data.
+	 * @param length The number of bytes of data.
+	 */
+	private void writeChunk(String type, byte[] bytes, int length) throws IOException {
+		final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		final CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(bytes, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(bytes, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+	
+	/**
+	 * Stores the int in big-endian order.
+	 */
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset+1] = (byte) (value >>> 16);
+		bytes[offset+2] = (byte) (value >>> 8);
+		bytes[offset+3] = (byte) value;
+	}
+	
+	/**
+	 * Collects compressed data and writes it out as IDAT chunks.
+	 */
+	private class ChunkStream extends OutputStream {
+		
+		/** The compressed data not yet written. */
+		private final byte[] buffer = new byte[CHUNK_SIZE];
+		
+		/** The number of bytes in the buffer. */
+		private int size;
+		
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+		
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				final int copied = Math.min(length, CHUNK_SIZE-size);
+				System.arraycopy(bytes, offset, buffer, size, copied);
+				size += copied;
+				offset += copied;
+				length -= copied;
+				if (size == CHUNK_SIZE)
+					flush();
+			}
+		}
+		
+		public void flush() throws IOException {
+			if (size > 0)
+				writeChunk("IDAT", buffer, size);
+			size = 0;
+		}
+		
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package rayTracing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams an image as a binary PPM (P6), which is cheap to encode and easy for
+ * other tools to post-process.
+ */
+public class PpmWriter implements ScanlineWriter {
+	
+	/** The stream being written to. */
+	private final OutputStream out;
+	
+	/** The width of the image. */
+	private final int width;
+	
+	/** The bytes of a single row, reused across rows. */
+	private final byte[] row;
+	
+	/**
+	 * Writes the header of the image.
+	 * 
+	 * @param out The stream to write to, which is closed along with this writer.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 */
+	public PpmWriter(OutputStream out, int width, int height) throws IOException {
+		this.out = out;
+		this.width = width;
+		row = new byte[3*width];
+		out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+	}
+	
+	public void write(int[] pixels, int rows) throws IOException {
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0; x < width; x++) {
+				final int rgb = pixels[y*width + x];
+				row[3*x] = (byte) (rgb >> 16);
+				row[3*x+1] = (byte) (rgb >> 8);
+				row[3*x+2] = (byte) rgb;
+			}
+			out.write(row);
+		}
+	}
+	
+	public void close() throws IOException {
+		out.close();
+	}
+}
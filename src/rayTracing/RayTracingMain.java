@@ -1,26 +1,40 @@
 package rayTracing;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.text.DecimalFormat;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
-
-import javax.imageio.ImageIO;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import lSystem.LSystem;
 import lSystem.Letter;
 import lSystem.Rule;
+import math.MutableVector3D;
 import math.Ray;
 import math.Vector3D;
 import perlinNoise.Noise;
-import perlinNoise.Vector2D;
 import rayTracing.lights.DirectionalLight;
 import rayTracing.lights.LightSource;
 import rayTracing.lights.PointLight;
-import rayTracing.primitives.BoundingBox;
+import rayTracing.primitives.ChunkedCity;
+import rayTracing.primitives.Instance;
+import rayTracing.primitives.LinearBVH;
+import rayTracing.primitives.MeshBuilder;
+import rayTracing.primitives.MeshImporter;
 import rayTracing.primitives.Parallelogram;
 import rayTracing.primitives.Primitive;
+import rayTracing.primitives.Prototype;
+import rayTracing.primitives.SceneFile;
 import rayTracing.primitives.Sphere;
 import rayTracing.primitives.Triangle;
 import rayTracing.primitives.WindowWall;
@@ -29,9 +43,34 @@ public class RayTracingMain {
 	
 	private static final int WIDTH = 700;
 	private static final int HEIGHT = 700;
+	private static final int TILE_SIZE = 32;
+	private static final int THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+	private static final String FORMAT = System.getProperty("format", "png"); // png or ppm
+	private static final String SCENE = System.getProperty("scene"); // Scene file to load, or to save once generated
+	private static final int MAX_BOUNCES = 4;
+	private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+	
+	// Adaptive anti-aliasing: pixels whose first sample differs from a neighbour's
+	// by at least the threshold in any channel are supersampled with an NxN grid
+	private static final int AA_SAMPLES = Integer.getInteger("aa.samples", 3);
+	private static final double AA_THRESHOLD = Double.parseDouble(System.getProperty("aa.threshold", "0.05"));
 	
 	private static final ArrayList<LightSource> LIGHTS = new ArrayList<LightSource>();
 	private static Camera CAMERA;
+	static final Camera FLYING_CAMERA = new Camera(
+		new Vector3D(-1, 3, -1),
+		new Vector3D(1, -0.8, 1),
+		new Vector3D(-0.8, -1, -0.8)
+	);
+	static final Camera WALKING_CAMERA = new Camera(
+		new Vector3D(2, 0.3, 1.5),
+		new Vector3D(0, 0, 1),
+		new Vector3D(0, -1, 0)
+	);
+	/** The focal length in pixels detail is picked for, the flying camera's, whose orientation every simplified city is seen with. */
+	private static final double FOCAL_LENGTH = FLYING_CAMERA.focalLength(WIDTH);
+	private static long SEED;
+	private static Random RANDOM;
 
 	private static final Letter[] LSYSTEM_AXIOM = {Letter.BLDG, Letter.MOVE};
 	private static final Rule[] LSYSTEM_RULES;
@@ -58,13 +97,33 @@ public class RayTracingMain {
 	private static final Vector3D BACKGROUND_COLOR = new Vector3D(0.54, 0.78, 0.99); // Sky Blue
 	private static final Vector3D AMBIENT_LIGHT = new Vector3D(0.1);
 
-	private static final BoundingBox BOX = new BoundingBox();
-	private static final BoundingBox GRASS_BOX = new BoundingBox();
-	private static final BoundingBox BLDG_BOX = new BoundingBox();
+	private static final ArrayList<Primitive> PRIMITIVES = new ArrayList<Primitive>();
+	private static LinearBVH BVH;
 
+	private static final int CITY_SIZE = 5;
+	private static final int MAX_BLDGS = 2;
 	private static final double BLOCK_SIZE = 1;
+	private static final double CITY_MIN_Y = -0.5; // Below the lowest terrain
+	private static final double CITY_MAX_Y = 2;    // Above the tallest roof
 	private static final double GRASS_BLOCK_SIZE = 16;
 	private static final double GRASS_STEP = BLOCK_SIZE/GRASS_BLOCK_SIZE;
+	
+	/**
+	 * The terrain steps kept along each side of a block at each level of
+	 * detail, finest first. The road's edges at steps 2 and 15 are always kept,
+	 * so no cell is part road and part grass.
+	 */
+	private static final int[][] TERRAIN_LEVELS = {
+		{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16},
+		{0, 2, 4, 6, 8, 10, 12, 14, 15, 16},
+		{0, 2, 5, 8, 11, 15, 16},
+		{0, 2, 15, 16}
+	};
+	private static final double LOD_ERROR_PIXELS = Double.parseDouble(System.getProperty("lod.error", "0.5"));  // Largest terrain error seen
+	private static final double LOD_WINDOW_PIXELS = Double.parseDouble(System.getProperty("lod.window", "1")); // Smallest window kept
+	private static final boolean INSTANCING = Boolean.parseBoolean(System.getProperty("instancing", "true")); // Whether buildings share prototypes
+	private static final String LANDMARK = System.getProperty("landmark"); // OBJ or PLY mesh stood in the middle of the city
+	private static final double LANDMARK_HEIGHT = Double.parseDouble(System.getProperty("landmark.height", "3"));
 
 	private static final Material GRASS = new Material(
 		new Vector3D(0, 1, 0), // Ambient
@@ -78,6 +137,12 @@ public class RayTracingMain {
 		new Vector3D(0),       // Specular
 		20
 	);
+	private static final Material STONE = new Material(
+		new Vector3D(0.75, 0.72, 0.65), // Ambient
+		new Vector3D(0.75, 0.72, 0.65), // Diffuse
+		new Vector3D(0.1),              // Specular
+		20
+	);
 	private static final Material[] WALL_TEXTURES = {
 		new Material(
 			new Vector3D(0, 0, 0.2), // Ambient
@@ -99,6 +164,23 @@ public class RayTracingMain {
 		)
 	};
 	
+	/**
+	 * The prototype of the buildings with each window pattern, indexed by
+	 * windowsH-2 then windowsV-4. Each is a unit building standing on the
+	 * origin, spanning x and z and rising along y, in the first wall texture,
+	 * which every instance replaces with its own.
+	 */
+	private static final Prototype[][] BUILDING_PROTOTYPES = new Prototype[3][3];
+	static {
+		for (int h = 0; h < 3; h++) {
+			for (int v = 0; v < 3; v++) {
+				final List<Primitive> walls = new ArrayList<Primitive>();
+				makeBldg(Vector3D.ZERO, new Vector3D(1, 0, 0), new Vector3D(0, 0, 1), new Vector3D(0, 1, 0), 2+h, 4+v, WALL_TEXTURES[0], walls);
+				BUILDING_PROTOTYPES[h][v] = new Prototype(walls, WALL_TEXTURES[0]);
+			}
+		}
+	}
+	
 	private static void setupMirrorRoom() {
 		
 		// Creates the camera
@@ -109,7 +191,7 @@ public class RayTracingMain {
 		);
 		
 		// Creates the scene nodes
-		BOX.add(new Sphere(1, new Vector3D(0, 0, 0), new Material(
+		PRIMITIVES.add(new Sphere(1, new Vector3D(0, 0, 0), new Material(
 			new Vector3D(1, 0, 0), // Ambient
 			new Vector3D(1, 0, 0), // Diffuse
 			new Vector3D(0),       // Specular
@@ -123,221 +205,462 @@ public class RayTracingMain {
 			20
 		);
 
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(-5, -5, -5),
 			new Vector3D(-5, -5, 5),
 			new Vector3D(5, -5, -5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(5, -5, 5),
 			new Vector3D(5, -5, -5),
 			new Vector3D(-5, -5, 5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(5, 5, 5),
 			new Vector3D(-5, 5, 5),
 			new Vector3D(5, 5, -5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(-5, 5, -5),
 			new Vector3D(5, 5, -5),
 			new Vector3D(-5, 5, 5),
 			mirror
 		));
 
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(-5, -5, -5),
 			new Vector3D(-5, 5, -5),
 			new Vector3D(-5, -5, 5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(-5, 5, 5),
 			new Vector3D(-5, -5, 5),
 			new Vector3D(-5, 5, -5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(5, 5, 5),
 			new Vector3D(5, 5, -5),
 			new Vector3D(5, -5, 5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(5, -5, -5),
 			new Vector3D(5, -5, 5),
 			new Vector3D(5, 5, -5),
 			mirror
 		));
 
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(-5, -5, -5),
 			new Vector3D(5, -5, -5),
 			new Vector3D(-5, 5, -5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(5, 5, -5),
 			new Vector3D(-5, 5, -5),
 			new Vector3D(5, -5, -5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(5, 5, 5),
 			new Vector3D(5, -5, 5),
 			new Vector3D(-5, 5, 5),
 			mirror
 		));
-		BOX.add(new Triangle(
+		PRIMITIVES.add(new Triangle(
 			new Vector3D(-5, -5, 5),
 			new Vector3D(-5, 5, 5),
 			new Vector3D(5, -5, 5),
 			mirror
 		));
 				
+		// Builds the scene hierarchy
+		BVH = new LinearBVH(PRIMITIVES);
+		
 		// Creates the scene lights
 		LIGHTS.add(new PointLight(new Vector3D(4, 3, 4), new Vector3D(1), 0.25));
 	}
 	
 	private static double grassHeight(double x, double y) {
-		return 0.4*Noise.noise(new Vector2D(x, y), 100);
+		return 0.4*Noise.noise(x, y, 100);
 	}
 	
-	private static void makeBlock(int xMin, int zMin, int bldgs) {
+	/**
+	 * Creates the terrain and buildings of a single block. With level of
+	 * detail, the terrain is only as fine as its error, seen from the given
+	 * distance, needs, and buildings whose windows would be too small to see
+	 * become plain boxes of their blended colors, merged into the terrain's
+	 * mesh. The block draws the same randomness at every level of detail, so
+	 * only how it is represented changes.
+	 * 
+	 * @param xMin The x coordinate of the block.
+	 * @param zMin The z coordinate of the block.
+	 * @param bldgs The number of buildings along each side of the block.
+	 * @param random The block's own source of randomness.
+	 * @param lod Whether to simplify the block for the distance.
+	 * @param distance The distance from the camera to the nearest point of the block.
+	 * 
+	 * @return The block's primitives, with the distances its detail suits.
+	 */
+	private static ChunkedCity.Block makeBlock(int xMin, int zMin, int bldgs, SplittableRandom random, boolean lod, double distance) {
+		double nearest = 0;
+		double farthest = Double.POSITIVE_INFINITY;
 		
-		// Prepares the grass bounding boxes
-		final BoundingBox grassBox = new BoundingBox();
-		final BoundingBox[][] subBoxes = new BoundingBox[4][4]; // Depends on GRASS_BLOCK_SIZE
-		for (int i = 0; i < 4; i++)
-			for (int j = 0; j < 4; j++)
-				subBoxes[i][j] = new BoundingBox();
+		// Samples the terrain at every step
+		final int steps = (int)GRASS_BLOCK_SIZE;
+		final double[][] heights = new double[steps+1][steps+1];
+		for (int xStep = 0; xStep <= steps; xStep++)
+			for (int zStep = 0; zStep <= steps; zStep++)
+				heights[xStep][zStep] = grassHeight(xMin*BLOCK_SIZE + GRASS_STEP*xStep, zMin*BLOCK_SIZE + GRASS_STEP*zStep);
+		
+		// Picks the coarsest terrain whose error is too small to see from the distance
+		int[] grid = TERRAIN_LEVELS[0];
+		double terrainError = 0;
+		if (lod) {
+			for (int level = TERRAIN_LEVELS.length-1; level > 0; level--) {
+				final double error = terrainError(heights, TERRAIN_LEVELS[level]);
+				final double needed = lodDistance(error, LOD_ERROR_PIXELS);
+				if (needed <= distance) {
+					grid = TERRAIN_LEVELS[level];
+					terrainError = error;
+					nearest = needed;
+					break;
+				}
+				farthest = Math.min(farthest, needed);
+			}
+		}
+		
+		// Prepares the mesh, a vertex per terrain grid point shared by its cells,
+		// 2 triangles per terrain cell and skirt segment and 10 per building box
+		final int cells = grid.length-1;
+		final MeshBuilder mesh = new MeshBuilder(
+			(cells+1)*(cells+1) + (lod ? 4*(cells+1) : 0) + 8*bldgs*bldgs,
+			2*cells*cells + (lod ? 8*cells : 0) + 10*bldgs*bldgs
+		);
+		
+		// Creates the terrain's vertices
+		final int[][] vertex = new int[cells+1][cells+1];
+		for (int a = 0; a <= cells; a++)
+			for (int b = 0; b <= cells; b++)
+				vertex[a][b] = mesh.addVertex(
+					xMin*BLOCK_SIZE + GRASS_STEP*grid[a],
+					heights[grid[a]][grid[b]],
+					zMin*BLOCK_SIZE + GRASS_STEP*grid[b]
+				);
 		
 		// Creates the grass triangle mesh
-		for (int xStep = 0; xStep < GRASS_BLOCK_SIZE; xStep++) {
-			for (int zStep = 0; zStep < GRASS_BLOCK_SIZE; zStep++) {
-				
-				// Stores the coordinates
-				final double x0 = xMin*BLOCK_SIZE + GRASS_STEP* xStep;
-				final double x1 = xMin*BLOCK_SIZE + GRASS_STEP*(xStep+1);
-				final double z0 = zMin*BLOCK_SIZE + GRASS_STEP* zStep;
-				final double z1 = zMin*BLOCK_SIZE + GRASS_STEP*(zStep+1);
+		for (int a = 0; a < cells; a++) {
+			for (int b = 0; b < cells; b++) {
 				
 				// Computes the proper material
-				final Material material = (Math.abs(xStep-GRASS_BLOCK_SIZE/2.0) < 7
-										&& Math.abs(zStep-GRASS_BLOCK_SIZE/2.0) < 7)
-										? GRASS : ROAD;
+				mesh.setMaterial((isGrassStep(grid[a]) && isGrassStep(grid[a+1]-1)
+								&& isGrassStep(grid[b]) && isGrassStep(grid[b+1]-1))
+								? GRASS : ROAD);
 
-				// Creates the grass triangles at this step
-				subBoxes[xStep/4][zStep/4].add(new Triangle(
-					new Vector3D(x0, grassHeight(x0, z0), z0),
-					new Vector3D(x0, grassHeight(x0, z1), z1),
-					new Vector3D(x1, grassHeight(x1, z0), z0),
-					material
-				));
-				subBoxes[xStep/4][zStep/4].add(new Triangle(
-					new Vector3D(x1, grassHeight(x1, z1), z1),
-					new Vector3D(x1, grassHeight(x1, z0), z0),
-					new Vector3D(x0, grassHeight(x0, z1), z1),
-					material
-				));
+				// Creates the grass triangles at this cell
+				mesh.addTriangle(vertex[a][b], vertex[a][b+1], vertex[a+1][b]);
+				mesh.addTriangle(vertex[a+1][b+1], vertex[a+1][b], vertex[a][b+1]);
 			}
 		}
-
-		// Stores the grass bounding boxes
-		for (int i = 0; i < 4; i++)
-			for (int j = 0; j < 4; j++)
-				grassBox.add(subBoxes[i][j]);
-		GRASS_BOX.add(grassBox);
-		
-		if (bldgs > 0) {
-			// Prepares the building bounding box
-			final BoundingBox bldgBox = new BoundingBox();
-			
-			// Creates the buildings
-			for (int x = 0; x < bldgs; x++) {
-				for (int z = 0; z < bldgs; z++) {
-					
-					// Stores distance values
-					final double size = 11*GRASS_STEP;
-					final double step = size/bldgs;
-					
-					// Stores position/distance values
-					final Vector3D center = new Vector3D(xMin + 3*GRASS_STEP + step*x, -0.3, zMin + 3*GRASS_STEP + step*z);
-					final Vector3D right = new Vector3D(step-GRASS_STEP, 0, 0);
-					final Vector3D back = new Vector3D(0, 0, step-GRASS_STEP);
-					final Vector3D up = new Vector3D(0, 1.5+Math.random()/2, 0);
-					
-					// Creates the building
-					bldgBox.add(makeBldg(
-						center,
-						center.add(right),
-						center.add(back),
-						center.add(up),
-						2+(int)(3*Math.random()),
-						4+(int)(3*Math.random())
-					));
+		
+		// Hangs skirts from the edges, hiding cracks next to blocks of other detail
+		if (lod) {
+			final double depth = terrainError + (distance + 2*BLOCK_SIZE)*LOD_ERROR_PIXELS/FOCAL_LENGTH;
+			mesh.setMaterial(ROAD);
+			final int[] firstColumn = new int[cells+1];
+			final int[] lastColumn = new int[cells+1];
+			for (int c = 0; c <= cells; c++) {
+				firstColumn[c] = vertex[c][0];
+				lastColumn[c] = vertex[c][cells];
+			}
+			putSkirt(mesh, depth, vertex[0]);
+			putSkirt(mesh, depth, vertex[cells]);
+			putSkirt(mesh, depth, firstColumn);
+			putSkirt(mesh, depth, lastColumn);
+		}
+		
+		// Creates the buildings
+		final List<Primitive> buildings = new ArrayList<Primitive>();
+		for (int x = 0; x < bldgs; x++) {
+			for (int z = 0; z < bldgs; z++) {
+				
+				// Stores distance values
+				final double size = 11*GRASS_STEP;
+				final double step = size/bldgs;
+				
+				// Stores position/distance values
+				final Vector3D center = new Vector3D(xMin + 3*GRASS_STEP + step*x, -0.3, zMin + 3*GRASS_STEP + step*z);
+				final Vector3D right = new Vector3D(step-GRASS_STEP, 0, 0);
+				final Vector3D back = new Vector3D(0, 0, step-GRASS_STEP);
+				final Vector3D up = new Vector3D(0, 1.5+random.nextDouble()/2, 0);
+				final int windowsH = 2+random.nextInt(3);
+				final int windowsV = 4+random.nextInt(3);
+				final Material wall = WALL_TEXTURES[random.nextInt(WALL_TEXTURES.length)];
+				
+				// Creates a box once the windows are too small to see, otherwise the building
+				final double windowSize = Math.min(right.x*0.95/windowsH, up.y*0.7/windowsV);
+				final double needed = lodDistance(windowSize, LOD_WINDOW_PIXELS);
+				if (lod && needed <= distance) {
+					nearest = Math.max(nearest, needed);
+					putBox(mesh, center, right, back, up, WindowWall.distantMaterial(wall, windowsH, windowsV), wall);
+				} else {
+					if (lod)
+						farthest = Math.min(farthest, needed);
+					if (INSTANCING)
+						buildings.add(new Instance(BUILDING_PROTOTYPES[windowsH-2][windowsV-4], center, right, up, back, wall));
+					else
+						makeBldg(
+							center,
+							center.add(right),
+							center.add(back),
+							center.add(up),
+							windowsH,
+							windowsV,
+							wall,
+							buildings
+						);
+				}
+			}
+		}
+		
+		final List<Primitive> primitives = new ArrayList<Primitive>();
+		primitives.add(mesh.build());
+		primitives.addAll(buildings);
+		return new ChunkedCity.Block(primitives, nearest, farthest);
+	}
+	
+	/**
+	 * @return Whether the given terrain step of a block is grass rather than road.
+	 */
+	private static boolean isGrassStep(int step) {
+		return Math.abs(step-GRASS_BLOCK_SIZE/2.0) < 7;
+	}
+	
+	/**
+	 * Computes the distance beyond which a feature of the given size projects
+	 * to fewer than the given number of pixels.
+	 */
+	private static double lodDistance(double size, double pixels) {
+		return size*FOCAL_LENGTH/pixels;
+	}
+	
+	/**
+	 * Measures how far the terrain tessellated on the given steps strays from
+	 * the heights sampled at every step.
+	 * 
+	 * @param heights The heights at every step of the block.
+	 * @param grid The steps kept along each side.
+	 * 
+	 * @return The largest difference in height.
+	 */
+	private static double terrainError(double[][] heights, int[] grid) {
+		double error = 0;
+		for (int a = 0; a+1 < grid.length; a++) {
+			for (int b = 0; b+1 < grid.length; b++) {
+				final double h00 = heights[grid[a]][grid[b]];
+				final double h01 = heights[grid[a]][grid[b+1]];
+				final double h10 = heights[grid[a+1]][grid[b]];
+				final double h11 = heights[grid[a+1]][grid[b+1]];
+				
+				// Interpolates the cell's two triangles at every step inside it
+				for (int i = grid[a]; i <= grid[a+1]; i++) {
+					for (int j = grid[b]; j <= grid[b+1]; j++) {
+						final double u = (double)(i-grid[a])/(grid[a+1]-grid[a]);
+						final double v = (double)(j-grid[b])/(grid[b+1]-grid[b]);
+						final double height = u+v <= 1
+							? h00 + u*(h10-h00) + v*(h01-h00)
+							: h11 + (1-u)*(h01-h11) + (1-v)*(h10-h11);
+						error = Math.max(error, Math.abs(heights[i][j]-height));
+					}
 				}
 			}
-			BLDG_BOX.add(bldgBox);
 		}
+		return error;
 	}
 	
-	private static BoundingBox makeBldg(Vector3D centerCorner, Vector3D rightCorner, Vector3D backCorner, Vector3D topCorner, int windowsH, int windowsV) {
+	/**
+	 * Puts a vertical strip of road hanging below an edge of the terrain, two
+	 * triangles per cell along the edge. Neighbouring cells share the vertex
+	 * hung below the terrain vertex between them.
+	 * 
+	 * @param mesh The mesh to put the strip in.
+	 * @param depth How far the strip hangs.
+	 * @param edge The vertices along the edge, in order.
+	 */
+	private static void putSkirt(MeshBuilder mesh, double depth, int[] edge) {
+		int bottom0 = hangVertex(mesh, edge[0], depth);
+		for (int c = 0; c+1 < edge.length; c++) {
+			final int bottom1 = hangVertex(mesh, edge[c+1], depth);
+			mesh.addTriangle(edge[c], edge[c+1], bottom0);
+			mesh.addTriangle(bottom1, bottom0, edge[c+1]);
+			bottom0 = bottom1;
+		}
+	}
+	
+	/**
+	 * Adds a vertex the given depth below another.
+	 * 
+	 * @return The index of the new vertex.
+	 */
+	private static int hangVertex(MeshBuilder mesh, int top, double depth) {
+		return mesh.addVertex(mesh.x(top), mesh.y(top)-depth, mesh.z(top));
+	}
+	
+	/**
+	 * Puts the ten triangles of a building's walls and roof, facing the same
+	 * way as makeBldg's.
+	 */
+	private static void putBox(MeshBuilder mesh, Vector3D center, Vector3D right, Vector3D back, Vector3D up, Material walls, Material roof) {
+		
+		// Adds the corners, bottom then top
+		final int[] corners = new int[8];
+		for (int i = 0; i < 8; i++) {
+			Vector3D corner = center;
+			if ((i & 1) != 0) corner = corner.add(right);
+			if ((i & 2) != 0) corner = corner.add(back);
+			if ((i & 4) != 0) corner = corner.add(up);
+			corners[i] = mesh.addVertex(corner.x, corner.y, corner.z);
+		}
+		final int bottom = 0, bottomRight = 1, bottomBack = 2, bottomFar = 3;
 		
-		// Creates the wall material
-		final Material wall = WALL_TEXTURES[(int)(WALL_TEXTURES.length*Math.random())];
+		// Winds the walls like the WindowWalls they replace
+		mesh.setMaterial(walls);
+		putWall(mesh, corners, bottom, bottomRight);
+		putWall(mesh, corners, bottomBack, bottom);
+		putWall(mesh, corners, bottomRight, bottomFar);
+		putWall(mesh, corners, bottomFar, bottomBack);
+		
+		// Winds the roof like the Parallelogram it replaces
+		mesh.setMaterial(roof);
+		mesh.addTriangle(corners[4], corners[5], corners[6]);
+		mesh.addTriangle(corners[7], corners[6], corners[5]);
+	}
+	
+	/**
+	 * Puts the two triangles of a wall between two bottom corners of a box,
+	 * wound so they face out of the building like a WindowWall with the same
+	 * bottom corners.
+	 * 
+	 * @param corners The box's corners, each top corner 4 after the one below it.
+	 */
+	private static void putWall(MeshBuilder mesh, int[] corners, int bottomLeft, int bottomRight) {
+		mesh.addTriangle(corners[bottomLeft], corners[bottomLeft+4], corners[bottomRight]);
+		mesh.addTriangle(corners[bottomRight+4], corners[bottomRight], corners[bottomLeft+4]);
+	}
+	
+	private static void makeBldg(Vector3D centerCorner, Vector3D rightCorner, Vector3D backCorner, Vector3D topCorner, int windowsH, int windowsV, Material wall, List<Primitive> primitives) {
 		
 		// Stores the directions
 		final Vector3D right = rightCorner.subtract(centerCorner);
 		final Vector3D back = backCorner.subtract(centerCorner);
 		final Vector3D up = topCorner.subtract(centerCorner);
 		
-		final BoundingBox bldgBox = new BoundingBox();
-		bldgBox.add(new WindowWall(
+		primitives.add(new WindowWall(
 			centerCorner,
 			rightCorner,
 			topCorner,
 			wall,
 			windowsH, windowsV
 		));
-		bldgBox.add(new WindowWall(
+		primitives.add(new WindowWall(
 			backCorner,
 			centerCorner,
 			backCorner.add(up),
 			wall,
 			windowsH, windowsV
 		));
-		bldgBox.add(new WindowWall(
+		primitives.add(new WindowWall(
 			rightCorner,
 			rightCorner.add(back),
 			rightCorner.add(up),
 			wall,
 			windowsH, windowsV
 		));
-		bldgBox.add(new WindowWall(
+		primitives.add(new WindowWall(
 			rightCorner.add(back),
 			backCorner,
 			rightCorner.add(back).add(up),
 			wall,
 			windowsH, windowsV
 		));
-		bldgBox.add(new Parallelogram(
+		primitives.add(new Parallelogram(
 			topCorner,
 			topCorner.add(right),
 			topCorner.add(back),
 			wall
 		));
-		
-		return bldgBox;
 	}
 	
-	private static void model() {
+	/**
+	 * Derives the source of randomness of a block from the scene seed and the
+	 * block's coordinates, so each block is the same whichever thread makes it.
+	 * 
+	 * @param x The x coordinate of the block.
+	 * @param z The z coordinate of the block.
+	 * 
+	 * @return The block's own source of randomness.
+	 */
+	private static SplittableRandom blockRandom(int x, int z) {
+		final long key = (long)x << 32 | (z & 0xffffffffL);
+		return new SplittableRandom(new SplittableRandom(SEED ^ key).nextLong());
+	}
+	
+	/**
+	 * Generates a city of size x size blocks, each with up to maxBldgs x
+	 * maxBldgs buildings, then builds its hierarchy. Blocks are generated in
+	 * parallel but added in order, so the seed alone decides the city. With a
+	 * viewpoint, blocks far from it are simplified. The hierarchy is built on
+	 * the same THREADS threads as the blocks.
+	 */
+	private static void model(int size, int maxBldgs, Vector3D viewpoint) {
+		final long start = System.nanoTime();
+		final int[] bldgs = buildingCounts();
+
+		// Sets up the blocks across every thread
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final List<Primitive>[] blocks = new List[size*size];
+		final ForkJoinPool pool = new ForkJoinPool(THREADS);
+		try {
+			pool.invoke(new BlockTask(blocks, bldgs, size, maxBldgs, viewpoint, 0, blocks.length));
+			for (List<Primitive> block : blocks)
+				PRIMITIVES.addAll(block);
+			
+			// Stands the landmark in the middle of the city
+			if (LANDMARK != null) {
+				try {
+					PRIMITIVES.add(MeshImporter.load(new File(LANDMARK), STONE, new Vector3D(size*BLOCK_SIZE/2, 0, size*BLOCK_SIZE/2), LANDMARK_HEIGHT));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			
+			Metrics.add(Metrics.MODEL_NANOS, System.nanoTime()-start);
+			
+			// Builds the scene hierarchy over every primitive, on the same threads
+			final long buildStart = System.nanoTime();
+			BVH = pool.submit(() -> new LinearBVH(PRIMITIVES)).join();
+			Metrics.add(Metrics.BUILD_NANOS, System.nanoTime()-buildStart);
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println("Modeling finished!");
+	}
+	
+	/**
+	 * Draws the building counts of the blocks from the city's L-System.
+	 * 
+	 * @return The number of buildings along each side of successive blocks.
+	 */
+	private static int[] buildingCounts() {
 		
 		// Sets up the building count L-System
-		final LSystem lSystem = new LSystem(LSYSTEM_AXIOM, LSYSTEM_RULES);
+		final LSystem lSystem = cityLSystem(RANDOM);
 		lSystem.steps(10);
 		
 		// Checks how many moves there are
@@ -356,164 +679,542 @@ public class RayTracingMain {
 			}
 			bldgs[index]++;
 		}
-
-		// Sets up the blocks
-		final int size = 5;
-		for (int x = 0; x < size; x++)
-			for (int z = 0; z < size; z++)
-				makeBlock(x, z, Math.min(bldgs[(z+x*size) % bldgs.length], 2)); // Limits # bldgs to 2
-		BOX.add(GRASS_BOX);
-		BOX.add(BLDG_BOX);
-		System.out.println("Modeling finished!");
+		return bldgs;
 	}
 	
-	private static void render(String filename) throws Exception {
+	/**
+	 * Recursively splits a range of blocks so idle threads can steal work.
+	 */
+	private static class BlockTask extends RecursiveAction {
 		
-		// Computes the image individual pixel values
-		double totalTime = 0;
-		final BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < WIDTH;) {
-			final long sTime = System.currentTimeMillis();
-			for (int y = 0; y < HEIGHT; y++) {
-				
-				// Runs 3x3 anti-aliasing averaging filter
-				Vector3D color = Vector3D.ZERO;
-				for (double dx = -0.3; dx <= 0.4; dx += 0.3) {
-					for (double dy = -0.3; dy <= 0.4; dy += 0.3) {
-						
-						// Transforms the coordinates, with anti-aliasing
-						final double transX = (x-WIDTH/2.0+dx)/(WIDTH/2);
-						final double transY = (y-HEIGHT/2.0+dy)/(HEIGHT/2);
-						
-						// Computes the ray
-						final Vector3D rayDirection = CAMERA.direction
-												.add(CAMERA.right.scale(transX))
-												.add(CAMERA.up.scale(transY))
-												.normalize();
-						final Ray ray = new Ray(CAMERA.origin, rayDirection);
-						
-						// Computes the color
-						color = color.add(traceRay(ray, 4));
-					}
+		private static final long serialVersionUID = 1L;
+		
+		/** The primitives of each block, in row-major order, to be filled in. */
+		private final List<Primitive>[] blocks;
+		
+		/** The building counts drawn from the L-System. */
+		private final int[] bldgs;
+		
+		/** The number of blocks along each side of the city. */
+		private final int size;
+		
+		/** The most buildings along each side of a block. */
+		private final int maxBldgs;
+		
+		/** The point from which the level of detail is picked, or null for full detail. */
+		private final Vector3D viewpoint;
+		
+		/** The first block in the range. */
+		private final int start;
+		
+		/** The block after the last block in the range. */
+		private final int end;
+		
+		private BlockTask(List<Primitive>[] blocks, int[] bldgs, int size, int maxBldgs, Vector3D viewpoint, int start, int end) {
+			this.blocks = blocks;
+			this.bldgs = bldgs;
+			this.size = size;
+			this.maxBldgs = maxBldgs;
+			this.viewpoint = viewpoint;
+			this.start = start;
+			this.end = end;
+		}
+		
+		protected void compute() {
+			
+			// Makes a single block, if any
+			if (end-start <= 1) {
+				for (int i = start; i < end; i++) {
+					final int x = i/size;
+					final int z = i%size;
+					blocks[i] = makeBlock(
+						x, z, Math.min(bldgs[(z+x*size) % bldgs.length], maxBldgs), // Limits # bldgs
+						blockRandom(x, z),
+						viewpoint != null, viewpoint == null ? 0 : ChunkedCity.blockDistance(viewpoint, x, z, BLOCK_SIZE, CITY_MIN_Y, CITY_MAX_Y)
+					).primitives;
 				}
-				color = color.scale(1/9.0);
-				
-				// Computes and stores the final color values
-				final int red = Math.min(255, (int)(255*color.x)) << 16;
-				final int green = Math.min(255, (int)(255*color.y)) << 8;
-				final int blue = Math.min(255, (int)(255*color.z));
-				
-				img.setRGB(x, y, 0xff000000 + red+green+blue);
+				return;
+			}
+			
+			// Splits the range in half
+			final int mid = (start+end) >>> 1;
+			invokeAll(
+				new BlockTask(blocks, bldgs, size, maxBldgs, viewpoint, start, mid),
+				new BlockTask(blocks, bldgs, size, maxBldgs, viewpoint, mid, end)
+			);
+		}
+	}
+	
+	private static void render(String filename) throws Exception {
+		
+		// Computes the image individual pixel values across every thread
+		final TileRenderer renderer = new TileRenderer(WIDTH, HEIGHT, TILE_SIZE, THREADS);
+		Metrics.resetRender();
+		final long start = System.nanoTime();
+		final File checkpointFile = new File(filename + ".ckpt");
+		try (Checkpoint checkpoint = new Checkpoint(checkpointFile, SEED, WIDTH, HEIGHT, TILE_SIZE, renderSettings())) {
+			if (checkpoint.restoredTiles() > 0)
+				System.out.println("Resuming with " + checkpoint.restoredTiles() + " finished tiles");
+			
+			// Closes the stream even if the writer fails to start or finish the image
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+				ScanlineWriter writer = filename.endsWith(".ppm") ? new PpmWriter(out, WIDTH, HEIGHT) : new PngWriter(out, WIDTH, HEIGHT)) {
+				renderer.render(new AdaptiveShader(), writer, checkpoint);
 			}
-			final double dt = (System.currentTimeMillis()-sTime)*1e-3;
-			totalTime += dt;
-			x++;
-			System.out.println("Rendering: " + new DecimalFormat("0.000").format(100.0*x/WIDTH) + "%...");
-			System.out.println("Estimated Time Left: " + new DecimalFormat("0.000").format(totalTime*(WIDTH-x)/x) + "s");
-			System.out.println("Step Time Elapsed: " + new DecimalFormat("0.000").format(dt) + "s");
-			System.out.println("Total Time Elapsed: " + new DecimalFormat("0.000").format(totalTime) + "s");
-			System.out.println();
 		}
-		ImageIO.write(img, "png", new File(filename));
+		Metrics.add(Metrics.RENDER_NANOS, System.nanoTime()-start);
+		
+		// Reports the render's metrics
+		final Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("image", filename);
+		metrics.put("seed", SEED);
+		metrics.put("width", WIDTH);
+		metrics.put("height", HEIGHT);
+		metrics.put("threads", THREADS);
+		metrics.putAll(Metrics.snapshot());
+		final long rays = (Long) metrics.get("rays");
+		metrics.put("primaryRaysPerPixel", (double) Metrics.sum(Metrics.PRIMARY_RAYS)/(WIDTH*HEIGHT));
+		metrics.put("allocatedBytesPerRay", rays == 0 ? 0.0 : (double) renderer.allocatedBytes()/rays);
+		Metrics.write(metrics);
 		System.out.println("Finished!");
 	}
 	
-	public static void main(String[] args) throws Exception {
+	/**
+	 * Shades a tile adaptively, taking the first samples of the 1 pixel border
+	 * and of the tile's own edges from the neighbouring tiles that traced them.
+	 */
+	private static void shadeTile(EdgeSamples edges, int xMin, int yMin, int xMax, int yMax, int[] pixels) {
+		final Scratch scratch = SCRATCH.get();
+		final MutableVector3D color = scratch.color;
 		
-		// Sets up the light
-		LIGHTS.add(new DirectionalLight(new Vector3D(-1, -5, 1), new Vector3D(0.3)));
-
+		// Takes a first sample at the center of each pixel, including a 1 pixel border
+		final int stride = xMax-xMin+2;
+		final double[] first = scratch.firstSamples;
+		for (int y = yMin-1; y <= yMax; y++) {
+			for (int x = xMin-1; x <= xMax; x++) {
+				if (x < 0 || x >= WIDTH || y < 0 || y >= HEIGHT) continue;
+				final int i = 3*((y-yMin+1)*stride + x-xMin+1);
+				if (edges.get(x, y, first, i)) continue;
+				sample(x, y, scratch, color);
+				first[i] = color.x;
+				first[i+1] = color.y;
+				first[i+2] = color.z;
+				edges.put(x, y, first, i);
+			}
+		}
+		
+		// Supersamples only the pixels that contrast with a neighbour
+		int p = 0;
+		for (int y = yMin; y < yMax; y++) {
+			for (int x = xMin; x < xMax; x++) {
+				final int i = 3*((y-yMin+1)*stride + x-xMin+1);
+				color.set(first[i], first[i+1], first[i+2]);
+				if (contrast(first, i, x, y, stride) >= AA_THRESHOLD)
+					supersample(x, y, scratch, color);
+				pixels[p++] = toRGB(color);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the largest difference in any color channel between a pixel's
+	 * first sample and those of its 8 neighbours.
+	 */
+	private static double contrast(double[] first, int i, int x, int y, int stride) {
+		double contrast = 0;
+		for (int dy = -1; dy <= 1; dy++) {
+			for (int dx = -1; dx <= 1; dx++) {
+				if (x+dx < 0 || x+dx >= WIDTH || y+dy < 0 || y+dy >= HEIGHT) continue;
+				final int j = i + 3*(dy*stride + dx);
+				for (int c = 0; c < 3; c++)
+					contrast = Math.max(contrast, Math.abs(first[i+c]-first[j+c]));
+			}
+		}
+		return contrast;
+	}
+	
+	/**
+	 * Averages an AA_SAMPLES x AA_SAMPLES grid of samples over the pixel,
+	 * reusing the first sample at the center when the grid includes it.
+	 */
+	private static void supersample(int x, int y, Scratch scratch, MutableVector3D color) {
+		final MutableVector3D total = scratch.total.set(0, 0, 0);
+		final double spacing = 0.9/AA_SAMPLES;
+		for (int i = 0; i < AA_SAMPLES; i++) {
+			for (int j = 0; j < AA_SAMPLES; j++) {
+				final double dx = (i - (AA_SAMPLES-1)/2.0)*spacing;
+				final double dy = (j - (AA_SAMPLES-1)/2.0)*spacing;
+				if (dx == 0 && dy == 0) {
+					total.add(color);
+				} else {
+					sample(x+dx, y+dy, scratch, scratch.sample);
+					total.add(scratch.sample);
+				}
+			}
+		}
+		color.set(total).scale(1.0/(AA_SAMPLES*AA_SAMPLES));
+	}
+	
+	/**
+	 * Traces a single camera ray through the given point of the image.
+	 */
+	private static void sample(double x, double y, Scratch scratch, MutableVector3D color) {
+		scratch.counts[Metrics.PRIMARY_RAYS]++;
+		
+		// Transforms the coordinates
+		final double transX = (x-WIDTH/2.0)/(WIDTH/2);
+		final double transY = (y-HEIGHT/2.0)/(HEIGHT/2);
+		
+		// Computes the ray
+		final Ray ray = scratch.cameraRay.set(
+			CAMERA.origin.x, CAMERA.origin.y, CAMERA.origin.z,
+			CAMERA.direction.x + CAMERA.right.x*transX + CAMERA.up.x*transY,
+			CAMERA.direction.y + CAMERA.right.y*transX + CAMERA.up.y*transY,
+			CAMERA.direction.z + CAMERA.right.z*transX + CAMERA.up.z*transY
+		);
+		
+		// Computes the color
+		traceRay(ray, MAX_BOUNCES, scratch.frames, color);
+	}
+	
+	/**
+	 * Packs the color into 0xRRGGBB, clamping each channel.
+	 */
+	private static int toRGB(MutableVector3D color) {
+		final int red = Math.min(255, (int)(255*color.x)) << 16;
+		final int green = Math.min(255, (int)(255*color.y)) << 8;
+		final int blue = Math.min(255, (int)(255*color.z));
+		return red+green+blue;
+	}
+	
+	public static void main(String[] args) throws Exception {
 		for (int i = 4; i < 5; i++) {
-			model();
+			
+			// Loads the scene file, or generates the scene reusing the seed of an interrupted render if there is one
+			final String flying = "final-renders/flying" + i + "." + FORMAT;
+			final String walking = "final-renders/walking" + i + "." + FORMAT;
+			Metrics.reset();
+			if (SCENE != null && new File(SCENE).exists()) {
+				loadScene(new File(SCENE));
+			} else {
+				setupScene(sceneSeed(flying, walking));
+				if (SCENE != null)
+					SceneFile.save(new File(SCENE), SEED, BVH);
+			}
+			System.out.println("Scene seed: " + SEED);
 			
 			// Renders the flying perspective
-			CAMERA = new Camera(
-				new Vector3D(-1, 3, -1),
-				new Vector3D(1, -0.8, 1),
-				new Vector3D(-0.8, -1, -0.8)
-			);
-			render("final-renders/flying" + i + ".png");
+			CAMERA = FLYING_CAMERA;
+			render(flying);
 			
 			// Renders the walking perspective
-			CAMERA = new Camera(
-				new Vector3D(2, 0.3, 1.5),
-				new Vector3D(0, 0, 1),
-				new Vector3D(0, -1, 0)
-			);
-			render("final-renders/walking" + i + ".png");
+			CAMERA = WALKING_CAMERA;
+			render(walking);
 			
-			// Resets the scene
-			BOX.reset();
+			// Drops the checkpoints now that every render of the scene is done
+			new File(flying + ".ckpt").delete();
+			new File(walking + ".ckpt").delete();
 		}
 	}
 	
-	private static Vector3D traceRay(Ray ray, int bounces) {
+	/**
+	 * Replaces the scene with the city generated from the given seed, lit by
+	 * the sun. The same seed always generates the same city.
+	 * 
+	 * @param seed The seed of the city.
+	 */
+	static void setupScene(long seed) {
+		setupScene(seed, CITY_SIZE, MAX_BLDGS);
+	}
+	
+	/**
+	 * Replaces the scene with a city of the given size generated from the
+	 * given seed, lit by the sun.
+	 * 
+	 * @param seed The seed of the city.
+	 * @param size The number of blocks along each side of the city.
+	 * @param maxBldgs The most buildings along each side of a block.
+	 */
+	static void setupScene(long seed, int size, int maxBldgs) {
+		setupScene(seed, size, maxBldgs, null);
+	}
+	
+	/**
+	 * Replaces the scene with a city of the given size generated from the
+	 * given seed, simplifying the blocks far from the viewpoint.
+	 * 
+	 * @param seed The seed of the city.
+	 * @param size The number of blocks along each side of the city.
+	 * @param maxBldgs The most buildings along each side of a block.
+	 * @param viewpoint The point from which the city will be seen, or null for full detail.
+	 */
+	static void setupScene(long seed, int size, int maxBldgs, Vector3D viewpoint) {
+		SEED = seed;
+		RANDOM = new Random(seed);
+		Noise.seed(seed);
+		PRIMITIVES.clear();
+		BVH = null;
+		LIGHTS.clear();
+		LIGHTS.add(new DirectionalLight(new Vector3D(-1, -5, 1), new Vector3D(0.3)));
+		model(size, maxBldgs, viewpoint);
+	}
+	
+	/**
+	 * Replaces the scene with the one stored in a scene file, lit by the sun.
+	 * The file is mapped rather than read, so the scene is shared with every
+	 * other process rendering the same file.
+	 * 
+	 * @param file The scene file.
+	 * 
+	 * @throws IOException If the file cannot be loaded.
+	 */
+	static void loadScene(File file) throws IOException {
+		final long start = System.nanoTime();
+		final SceneFile scene = SceneFile.load(file);
+		SEED = scene.seed;
+		RANDOM = new Random(SEED);
+		Noise.seed(SEED);
+		PRIMITIVES.clear();
+		PRIMITIVES.addAll(scene.primitives);
+		BVH = scene.bvh;
+		LIGHTS.clear();
+		LIGHTS.add(new DirectionalLight(new Vector3D(-1, -5, 1), new Vector3D(0.3)));
+		Metrics.add(Metrics.MODEL_NANOS, System.nanoTime()-start);
+		System.out.println("Loaded scene " + file);
+	}
+	
+	/**
+	 * Replaces the scene with an unbounded city generated from the given seed,
+	 * whose blocks are only made once rays reach them. With level of detail,
+	 * blocks are simplified for their distance from the city's viewpoint.
+	 * 
+	 * @param seed The seed of the city.
+	 * @param maxBldgs The most buildings along each side of a block.
+	 * @param lod Whether to simplify blocks far from the viewpoint.
+	 * @param viewDistance The distance beyond which no blocks are seen.
+	 * @param capacity The most blocks kept generated at once.
+	 * 
+	 * @return The city, to follow how many blocks it holds.
+	 */
+	static ChunkedCity setupChunkedScene(long seed, int maxBldgs, boolean lod, double viewDistance, int capacity) {
+		SEED = seed;
+		RANDOM = new Random(seed);
+		Noise.seed(seed);
+		PRIMITIVES.clear();
+		BVH = null;
+		LIGHTS.clear();
+		LIGHTS.add(new DirectionalLight(new Vector3D(-1, -5, 1), new Vector3D(0.3)));
 		
-		// Checks if even in bounding box
-		final ArrayList<Primitive> nodes = BOX.intersectingNodes(ray, 0);
+		// Hashes each block onto the L-System's building counts
+		final int[] bldgs = buildingCounts();
+		final ChunkedCity city = new ChunkedCity(BLOCK_SIZE, CITY_MIN_Y, CITY_MAX_Y, viewDistance, capacity, (x, z, distance) -> {
+			final long hash = ((long)x << 32 | (z & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+			return makeBlock(x, z, Math.min(bldgs[Math.floorMod(Long.hashCode(hash), bldgs.length)], maxBldgs), blockRandom(x, z), lod, distance);
+		});
+		PRIMITIVES.add(city);
+		BVH = new LinearBVH(PRIMITIVES);
+		return city;
+	}
+	
+	/**
+	 * Renders the current scene from the given camera into memory.
+	 * 
+	 * @param camera The camera from which to render.
+	 * @param threads The number of threads rendering tiles.
+	 * 
+	 * @return The rendered image.
+	 */
+	static BufferedImage renderImage(Camera camera, int threads) {
+		CAMERA = camera;
+		return new TileRenderer(WIDTH, HEIGHT, TILE_SIZE, threads).render(new AdaptiveShader());
+	}
+	
+	/**
+	 * @return The primitives of the current scene.
+	 */
+	static List<Primitive> primitives() {
+		return PRIMITIVES;
+	}
+	
+	/**
+	 * @return The hierarchy over the primitives of the current scene.
+	 */
+	static LinearBVH bvh() {
+		return BVH;
+	}
+	
+	/**
+	 * Creates the L-System that decides how many buildings each block gets.
+	 * 
+	 * @param random The source of randomness for the L-System.
+	 * 
+	 * @return The L-System, before any steps.
+	 */
+	static LSystem cityLSystem(Random random) {
+		return new LSystem(LSYSTEM_AXIOM, LSYSTEM_RULES, random);
+	}
+	
+	/**
+	 * Traces a single camera ray through the given point of the image, using
+	 * the calling thread's scratch objects.
+	 * 
+	 * @param camera The camera from which to trace.
+	 * @param x The x coordinate of the point.
+	 * @param y The y coordinate of the point.
+	 * @param color The vector in which to store the color.
+	 */
+	static void tracePrimary(Camera camera, double x, double y, MutableVector3D color) {
+		CAMERA = camera;
+		sample(x, y, SCRATCH.get(), color);
+	}
+	
+	/**
+	 * Lists the settings, other than the seed and image size, that decide the
+	 * rendered pixels, so a checkpoint left by a render with different ones is
+	 * not resumed.
+	 */
+	private static String renderSettings() {
+		return "aa.samples=" + AA_SAMPLES + ",aa.threshold=" + AA_THRESHOLD
+			+ ",lod.error=" + LOD_ERROR_PIXELS + ",lod.window=" + LOD_WINDOW_PIXELS
+			+ ",instancing=" + INSTANCING + ",landmark=" + LANDMARK + ",landmark.height=" + LANDMARK_HEIGHT
+			+ ",size=" + CITY_SIZE + ",bldgs=" + MAX_BLDGS + ",scene=" + SCENE;
+	}
+	
+	/**
+	 * Chooses the seed of the scene: the "seed" property if set, otherwise the
+	 * seed of a checkpoint left by an interrupted render, otherwise a new one.
+	 */
+	private static long sceneSeed(String... filenames) {
+		final Long seed = Long.getLong("seed");
+		if (seed != null)
+			return seed;
+		for (String filename : filenames) {
+			final Long checkpointSeed = Checkpoint.readSeed(new File(filename + ".ckpt"));
+			if (checkpointSeed != null)
+				return checkpointSeed;
+		}
+		return new Random().nextLong();
+	}
+	
+	private static void traceRay(Ray ray, int bounces, Frame[] frames, MutableVector3D color) {
 		
-		// Checks for an intersection with each primitive
-		final Record record = new Record();
-		for (Primitive node : nodes)
-			node.intersects(ray, 0, record);
+		// Finds the closest intersection
+		final Frame frame = frames[bounces];
+		final Record record = frame.record.reset(Double.POSITIVE_INFINITY);
+		BVH.closestHit(ray, record);
 		
 		// Checks if an intersection happened
-		if (record.missed())
-			return BACKGROUND_COLOR;
+		if (record.missed()) {
+			color.set(BACKGROUND_COLOR);
+			return;
+		}
 		
 		// Stores relevant values
-		final Vector3D intersectionPoint = ray.at(record.getT());
+		final MutableVector3D intersectionPoint = ray.at(record.getT(), frame.point);
 		final Material material = record.getMaterial();
-		final Vector3D normal = record.getNormal();
+		final MutableVector3D normal = record.getNormal();
+		
+		// Stores the origin of secondary rays, offset off the surface
+		final double originX = intersectionPoint.x + 1e-3*normal.x;
+		final double originY = intersectionPoint.y + 1e-3*normal.y;
+		final double originZ = intersectionPoint.z + 1e-3*normal.z;
 		
 		// Computes the diffuse & specular color for each light
-		final Vector3D eyeReflection = ray.direction.add(normal.scale(-2*normal.dot(ray.direction)));
-		Vector3D diffuseColor = Vector3D.ZERO;
-		Vector3D specularColor = Vector3D.ZERO;
-		for (LightSource light : LIGHTS) {
+		final MutableVector3D eyeReflection = frame.reflection.set(ray.direction).addScaled(normal, -2*normal.dot(ray.direction));
+		color.set(0, 0, 0);
+		for (int i = 0; i < LIGHTS.size(); i++) {
+			final LightSource light = LIGHTS.get(i);
 			
 			// Computes relevant values from the light
 			final double distanceToLight = light.distanceFrom(intersectionPoint);
-			final Vector3D lightDirection = light.directionFrom(intersectionPoint);
-			final Vector3D intensity = light.intensity(intersectionPoint);
-			
-			// Checks for shadows
-			final Record shadowRecord = new Record(distanceToLight);
-			final Ray rayToLight = new Ray(intersectionPoint.add(normal.scale(1e-3)), lightDirection);
-			final ArrayList<Primitive> shadowNodes = BOX.intersectingNodes(rayToLight, 0);
-			for (Primitive node : shadowNodes)
-				if (node.intersects(rayToLight, 0, shadowRecord))
-					break;
+			final MutableVector3D lightDirection = light.directionFrom(intersectionPoint, frame.lightDirection);
+			final MutableVector3D intensity = light.intensity(intersectionPoint, frame.intensity);
 			
 			// Skips lighting for this light if the node is in under a shadow
-			if (shadowRecord.getT() < distanceToLight)
+			frame.counts[Metrics.SHADOW_RAYS]++;
+			final Ray rayToLight = frame.shadowRay.setNormalized(
+				originX, originY, originZ,
+				lightDirection.x, lightDirection.y, lightDirection.z
+			);
+			if (BVH.occluded(rayToLight, distanceToLight))
 				continue;
 			
 			// Computes the diffuse color
 			final double clampDiffuse = Math.max(0, lightDirection.dot(normal));
-			final Vector3D diffuseIntensity = intensity.multiply(material.diffuseColor).scale(clampDiffuse);
-			diffuseColor = diffuseColor.add(diffuseIntensity);
+			color.addProduct(intensity, material.diffuseColor, clampDiffuse);
 			
 			// Computes the specular color
 			final double clampSpecular = Math.pow(Math.max(0, lightDirection.dot(eyeReflection)), material.shininess);
-			final Vector3D specularIntensity = intensity.multiply(material.specularColor).scale(clampSpecular);
-			specularColor = specularColor.add(specularIntensity);
+			color.addProduct(intensity, material.specularColor, clampSpecular);
 		}
 		
 		// Computes the ambient color
-		final Vector3D ambientColor = AMBIENT_LIGHT.multiply(material.ambientColor);
-		
-		// Computes the direct color
-		Vector3D totalColor = diffuseColor.add(specularColor).add(ambientColor);
+		color.set(
+			color.x + AMBIENT_LIGHT.x*material.ambientColor.x,
+			color.y + AMBIENT_LIGHT.y*material.ambientColor.y,
+			color.z + AMBIENT_LIGHT.z*material.ambientColor.z
+		);
 		
 		// Computes the indirect color, if applicable
 		if (bounces > 0 && !material.specularColor.equals(Vector3D.ZERO)) {
-			final Ray reflectRay = new Ray(intersectionPoint.add(normal.scale(1e-3)), eyeReflection);
-			final Vector3D indirectColor = traceRay(reflectRay, bounces-1).multiply(material.specularColor);
-			totalColor = totalColor.add(indirectColor);
+			frame.counts[Metrics.REFLECTION_RAYS]++;
+			final Ray reflectRay = frame.reflectRay.set(
+				originX, originY, originZ,
+				eyeReflection.x, eyeReflection.y, eyeReflection.z
+			);
+			traceRay(reflectRay, bounces-1, frames, frame.indirectColor);
+			color.addProduct(frame.indirectColor, material.specularColor, 1);
+		}
+	}
+	
+	/**
+	 * The scratch objects used while tracing a single bounce of a ray.
+	 */
+	private static class Frame {
+		final Record record = new Record();
+		final Ray shadowRay = new Ray();
+		final Ray reflectRay = new Ray();
+		final MutableVector3D point = new MutableVector3D();
+		final MutableVector3D reflection = new MutableVector3D();
+		final MutableVector3D lightDirection = new MutableVector3D();
+		final MutableVector3D intensity = new MutableVector3D();
+		final MutableVector3D indirectColor = new MutableVector3D();
+		final long[] counts = Metrics.counts();
+	}
+	
+	/**
+	 * Shades the tiles of a single render, sharing the first samples along
+	 * tile edges between neighbouring tiles.
+	 */
+	private static class AdaptiveShader implements TileRenderer.TileShader {
+		
+		/** The first samples along tile edges, kept for the neighbouring tiles. */
+		private final EdgeSamples edges = new EdgeSamples(WIDTH, HEIGHT, TILE_SIZE);
+		
+		public void shade(int xMin, int yMin, int xMax, int yMax, int[] pixels) {
+			shadeTile(edges, xMin, yMin, xMax, yMax, pixels);
 		}
 		
-		return totalColor;
+		public void rowsFinished(int y) {
+			edges.rowsFinished(y);
+		}
 	}
 	
+	/**
+	 * The scratch objects used by a single rendering thread, reused across pixels.
+	 */
+	private static class Scratch {
+		final Frame[] frames = new Frame[MAX_BOUNCES+1];
+		final Ray cameraRay = new Ray();
+		final MutableVector3D sample = new MutableVector3D();
+		final MutableVector3D color = new MutableVector3D();
+		final MutableVector3D total = new MutableVector3D();
+		final double[] firstSamples = new double[3*(TILE_SIZE+2)*(TILE_SIZE+2)];
+		final long[] counts = Metrics.counts();
+		
+		Scratch() {
+			for (int i = 0; i < frames.length; i++)
+				frames[i] = new Frame();
+		}
+	}
 }
@@ -1,16 +1,31 @@
 package rayTracing;
 
+import math.MutableVector3D;
+import math.Ray;
 import math.Vector3D;
+import rayTracing.primitives.Primitive;
 
 public class Record {
 
 	/** The closest intersection's t. */
 	private double t = Double.POSITIVE_INFINITY;
 	
-	/** The normal from the closest intersection. */
-	private Vector3D normal = Vector3D.ZERO;
+	/** The primitive of the closest intersection. */
+	private Primitive primitive = null;
 	
-	/** The material of the closest intersection. */
+	/** The surface coordinates of the closest intersection on its primitive. */
+	private double u, v;
+	
+	/** The index of the closest intersection's element within its primitive, such as a mesh's triangle. */
+	private int index;
+	
+	/** The primitive hit within the closest intersection's instance, or null if the hit is not in an instance. */
+	private Primitive instanced = null;
+	
+	/** The (normalized) normal from the closest intersection, set once the hit is resolved. */
+	private final MutableVector3D normal = new MutableVector3D();
+	
+	/** The material of the closest intersection, set once the hit is resolved. */
 	private Material material = null;
 	
 	/**
@@ -26,24 +41,106 @@ public class Record {
 	public Record() {}
 	
 	/**
-	 * Updates the record if the given t is better.
+	 * Updates the record if the given t is better. Only the hit itself is
+	 * stored; its normal and material are found by resolve() once the closest
+	 * hit is known.
 	 * 
 	 * @param t The intersection's t.
-	 * @param normal The normal from the intersection.
-	 * @param material The material from the intersection.
+	 * @param primitive The primitive hit.
 	 * 
 	 * @return Whether a new closest intersection happened.
 	 */
-	public boolean update(double t, Vector3D normal, Material material) {
+	public boolean update(double t, Primitive primitive) {
+		return update(t, primitive, 0, 0, 0);
+	}
+	
+	/**
+	 * Updates the record if the given t is better. Only the hit itself is
+	 * stored; its normal and material are found by resolve() once the closest
+	 * hit is known.
+	 * 
+	 * @param t The intersection's t.
+	 * @param primitive The primitive hit.
+	 * @param u The first surface coordinate of the hit.
+	 * @param v The second surface coordinate of the hit.
+	 * @param index The index of the element hit within the primitive.
+	 * 
+	 * @return Whether a new closest intersection happened.
+	 */
+	public boolean update(double t, Primitive primitive, double u, double v, int index) {
 		if (t < this.t) {
 			this.t = t;
-			this.normal = normal.normalize();
-			this.material = material;
+			this.primitive = primitive;
+			this.u = u;
+			this.v = v;
+			this.index = index;
+			instanced = null;
 			return true;
 		}
 		return false;
 	}
 	
+	/**
+	 * Marks the closest intersection, just found on a primitive of an
+	 * instance's prototype, as a hit on the instance, which then resolves it.
+	 * 
+	 * @param instance The instance whose prototype was hit.
+	 */
+	public void hitInstance(Primitive instance) {
+		instanced = primitive;
+		primitive = instance;
+	}
+	
+	/**
+	 * Computes the normal and material of the closest intersection.
+	 * 
+	 * @param ray The ray whose closest intersection is recorded.
+	 */
+	public void resolve(Ray ray) {
+		if (primitive != null)
+			primitive.resolve(ray, this);
+	}
+	
+	/**
+	 * Stores the surface of the closest intersection, called by the primitive hit.
+	 * 
+	 * @param nx The x coordinate of the normal from the intersection.
+	 * @param ny The y coordinate of the normal from the intersection.
+	 * @param nz The z coordinate of the normal from the intersection.
+	 * @param material The material from the intersection.
+	 */
+	public void setSurface(double nx, double ny, double nz, Material material) {
+		normal.set(nx, ny, nz).normalize();
+		this.material = material;
+	}
+	
+	/**
+	 * Stores the surface of the closest intersection, called by the primitive hit.
+	 * 
+	 * @param normal The normal from the intersection.
+	 * @param material The material from the intersection.
+	 */
+	public void setSurface(Vector3D normal, Material material) {
+		setSurface(normal.x, normal.y, normal.z, material);
+	}
+	
+	/**
+	 * Clears the record so it can be reused for another ray.
+	 * 
+	 * @param startingT The starting value for t.
+	 * @return This record.
+	 */
+	public Record reset(double startingT) {
+		t = startingT;
+		primitive = null;
+		u = v = 0;
+		index = 0;
+		instanced = null;
+		normal.set(0, 0, 0);
+		material = null;
+		return this;
+	}
+	
 	/**
 	 * @return The t at which the closest intersection happens.
 	 */
@@ -51,10 +148,38 @@ public class Record {
 		return t;
 	}
 	
+	/**
+	 * @return The first surface coordinate of the closest intersection.
+	 */
+	public double getU() {
+		return u;
+	}
+	
+	/**
+	 * @return The second surface coordinate of the closest intersection.
+	 */
+	public double getV() {
+		return v;
+	}
+	
+	/**
+	 * @return The index of the element hit within the closest intersection's primitive.
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * @return The primitive hit within the closest intersection's instance, or null if the hit is not in an instance.
+	 */
+	public Primitive getInstanced() {
+		return instanced;
+	}
+	
 	/**
 	 * @return The (normalized) normal from the closest intersection.
 	 */
-	public Vector3D getNormal() {
+	public MutableVector3D getNormal() {
 		return normal;
 	}
 	
@@ -69,6 +194,6 @@ public class Record {
 	 * @return Whether the ray missed every primitive.
 	 */
 	public boolean missed() {
-		return material == null;
+		return primitive == null;
 	}
 }
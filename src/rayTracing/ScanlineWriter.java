@@ -0,0 +1,19 @@
+package rayTracing;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Encodes an image to a stream as its rows are finished, so the whole image
+ * never has to be held in memory.
+ */
+public interface ScanlineWriter extends Closeable {
+	
+	/**
+	 * Writes the next rows of the image.
+	 * 
+	 * @param pixels The colors of the rows in row-major order, packed as 0xRRGGBB.
+	 * @param rows The number of rows to write.
+	 */
+	public abstract void write(int[] pixels, int rows) throws IOException;
+}
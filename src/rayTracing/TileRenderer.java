@@ -0,0 +1,338 @@
+package rayTracing;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.management.ThreadMXBean;
+
+public class TileRenderer {
+
+	/**
+	 * Computes the color of a single pixel.
+	 */
+	public static interface PixelShader {
+
+		/**
+		 * Computes the color of the given pixel.
+		 *
+		 * @param x The x coordinate of the pixel.
+		 * @param y The y coordinate of the pixel.
+		 *
+		 * @return The pixel's color, packed as 0xRRGGBB.
+		 */
+		public abstract int shade(int x, int y);
+	}
+
+	/**
+	 * Computes the colors of a whole tile at once, so a shader can share work
+	 * between neighbouring pixels.
+	 */
+	public static interface TileShader {
+
+		/**
+		 * Computes the colors of the pixels in the given range.
+		 *
+		 * @param xMin The first x coordinate of the tile.
+		 * @param yMin The first y coordinate of the tile.
+		 * @param xMax The x coordinate after the last one in the tile.
+		 * @param yMax The y coordinate after the last one in the tile.
+		 * @param pixels The colors of the tile in row-major order, packed as 0xRRGGBB, to be filled in.
+		 */
+		public abstract void shade(int xMin, int yMin, int xMax, int yMax, int[] pixels);
+
+		/**
+		 * Tells the shader that every tile above the given row has been
+		 * finished, so it can drop anything it kept for them. Renders holding
+		 * the whole image may never call this.
+		 *
+		 * @param y The y coordinate after the last finished row.
+		 */
+		public default void rowsFinished(int y) {}
+	}
+
+	/** The number of bands rendering at once while an earlier one is written. */
+	private static final int BANDS_AHEAD = 2;
+
+	/** The width of the rendered image. */
+	public final int width;
+
+	/** The height of the rendered image. */
+	public final int height;
+
+	/** The side length of each square tile. */
+	public final int tileSize;
+
+	/** The number of threads rendering tiles. */
+	public final int threads;
+
+	/** The number of tiles along the x direction. */
+	private final int tilesX;
+
+	/** The number of tiles along the y direction. */
+	private final int tilesY;
+
+	/** The pixels of the tile each thread is rendering, reused across tiles. */
+	private final ThreadLocal<int[]> tilePixels;
+
+	/** The bytes allocated by the rendering threads during the last render. */
+	private final LongAdder allocatedBytes = new LongAdder();
+
+	/** Measures the bytes allocated by each thread. */
+	private static final ThreadMXBean THREAD_MX = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Creates a renderer that splits the image into square tiles.
+	 *
+	 * @param width The width of the rendered image.
+	 * @param height The height of the rendered image.
+	 * @param tileSize The side length of each square tile.
+	 * @param threads The number of threads rendering tiles.
+	 */
+	public TileRenderer(int width, int height, int tileSize, int threads) {
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		this.threads = threads;
+		tilesX = (width+tileSize-1)/tileSize;
+		tilesY = (height+tileSize-1)/tileSize;
+		tilePixels = ThreadLocal.withInitial(() -> new int[tileSize*tileSize]);
+	}
+
+	/**
+	 * Renders every pixel of the image in parallel.
+	 *
+	 * @param shader The shader computing each pixel's color.
+	 *
+	 * @return The rendered image.
+	 */
+	public BufferedImage render(PixelShader shader) {
+		return render((xMin, yMin, xMax, yMax, pixels) -> {
+			int i = 0;
+			for (int y = yMin; y < yMax; y++)
+				for (int x = xMin; x < xMax; x++)
+					pixels[i++] = shader.shade(x, y);
+		});
+	}
+
+	/**
+	 * Renders every tile of the image in parallel.
+	 *
+	 * @param shader The shader computing each tile's colors.
+	 *
+	 * @return The rendered image.
+	 */
+	public BufferedImage render(TileShader shader) {
+
+		// Tiles write straight into the image's backing array
+		final BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final int[] raster = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+		// Renders the tiles with work stealing
+		allocatedBytes.reset();
+		final Progress progress = new Progress(tilesX*tilesY);
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new TileTask(shader, raster, 0, null, progress, 0, tilesX*tilesY));
+		} finally {
+			pool.shutdown();
+		}
+
+		return img;
+	}
+
+	/**
+	 * Renders the image in parallel one band of tiles at a time, writing each
+	 * band in order while the next BANDS_AHEAD bands render. Only that many
+	 * bands and the one being written are held in memory, no matter the size
+	 * of the image, and threads move on to the next band without waiting for
+	 * the slowest tile of the current one.
+	 *
+	 * @param shader The shader computing each tile's colors.
+	 * @param writer The writer encoding the finished rows.
+	 */
+	public void render(TileShader shader, ScanlineWriter writer) throws IOException {
+		render(shader, writer, null);
+	}
+
+	/**
+	 * Renders the image like render(shader, writer), restoring tiles finished
+	 * in an earlier run from the checkpoint and saving newly finished ones to it.
+	 *
+	 * @param shader The shader computing each tile's colors.
+	 * @param writer The writer encoding the finished rows.
+	 * @param checkpoint The checkpoint of finished tiles, or null to keep none.
+	 */
+	public void render(TileShader shader, ScanlineWriter writer, Checkpoint checkpoint) throws IOException {
+		final int[][] bands = new int[BANDS_AHEAD+1][width*tileSize];
+		final Deque<ForkJoinTask<Void>> pending = new ArrayDeque<ForkJoinTask<Void>>();
+
+		// Starts rendering the first bands
+		allocatedBytes.reset();
+		final Progress progress = new Progress(tilesX*tilesY);
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (int bandY = 0; bandY < Math.min(BANDS_AHEAD, tilesY); bandY++)
+				pending.add(submitBand(pool, shader, bands, bandY, checkpoint, progress));
+			for (int bandY = 0; bandY < tilesY; bandY++) {
+				pending.remove().join();
+				shader.rowsFinished(Math.min(height, (bandY+1)*tileSize));
+
+				// Starts rendering another band, into the one written last, before writing this one
+				if (bandY+BANDS_AHEAD < tilesY)
+					pending.add(submitBand(pool, shader, bands, bandY+BANDS_AHEAD, checkpoint, progress));
+				final long encodeStart = System.nanoTime();
+				writer.write(bands[bandY%bands.length], Math.min(tileSize, height - bandY*tileSize));
+				Metrics.add(Metrics.ENCODE_NANOS, System.nanoTime()-encodeStart);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Starts rendering a band of tiles into its raster, which each band shares
+	 * with those a multiple of BANDS_AHEAD+1 bands away.
+	 *
+	 * @return The task rendering the band.
+	 */
+	private ForkJoinTask<Void> submitBand(ForkJoinPool pool, TileShader shader, int[][] bands, int bandY, Checkpoint checkpoint, Progress progress) {
+		return pool.submit(new TileTask(shader, bands[bandY%bands.length], bandY*tileSize, checkpoint, progress, bandY*tilesX, (bandY+1)*tilesX));
+	}
+
+	/**
+	 * @return The bytes allocated by the rendering threads during the last render.
+	 */
+	public long allocatedBytes() {
+		return allocatedBytes.sum();
+	}
+
+	/**
+	 * Renders the pixels of a single tile into the raster.
+	 *
+	 * @param tile The index of the tile, in row-major order.
+	 * @param shader The shader computing each tile's colors.
+	 * @param raster The image's backing array, or a band of it.
+	 * @param rasterY The y coordinate of the raster's first row.
+	 * @param checkpoint The checkpoint of finished tiles, or null to keep none.
+	 */
+	private void renderTile(int tile, TileShader shader, int[] raster, int rasterY, Checkpoint checkpoint) {
+
+		// Computes the tile's pixel range
+		final int xMin = (tile%tilesX)*tileSize;
+		final int yMin = (tile/tilesX)*tileSize;
+		final int xMax = Math.min(width, xMin+tileSize);
+		final int yMax = Math.min(height, yMin+tileSize);
+
+		// Shades the tile, then copies it into the raster
+		final long startBytes = THREAD_MX.getCurrentThreadAllocatedBytes();
+		final int[] pixels = tilePixels.get();
+		final int tileWidth = xMax-xMin;
+		final int count = tileWidth*(yMax-yMin);
+		if (checkpoint == null) {
+			shader.shade(xMin, yMin, xMax, yMax, pixels);
+		} else if (!checkpoint.restore(tile, pixels, count)) {
+			shader.shade(xMin, yMin, xMax, yMax, pixels);
+			checkpoint.save(tile, pixels, count);
+		}
+		for (int y = yMin; y < yMax; y++)
+			System.arraycopy(pixels, (y-yMin)*tileWidth, raster, (y-rasterY)*width + xMin, tileWidth);
+		allocatedBytes.add(THREAD_MX.getCurrentThreadAllocatedBytes()-startBytes);
+	}
+
+	/**
+	 * Recursively splits a range of tiles so idle threads can steal work.
+	 */
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final TileShader shader;
+		private final int[] raster;
+
+		/** The y coordinate of the raster's first row. */
+		private final int rasterY;
+
+		/** The checkpoint of finished tiles, or null to keep none. */
+		private final Checkpoint checkpoint;
+
+		private final Progress progress;
+
+		/** The first tile in the range. */
+		private final int start;
+
+		/** The tile after the last tile in the range. */
+		private final int end;
+
+		private TileTask(TileShader shader, int[] raster, int rasterY, Checkpoint checkpoint, Progress progress, int start, int end) {
+			this.shader = shader;
+			this.raster = raster;
+			this.rasterY = rasterY;
+			this.checkpoint = checkpoint;
+			this.progress = progress;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+
+			// Renders a single tile
+			if (end-start == 1) {
+				renderTile(start, shader, raster, rasterY, checkpoint);
+				progress.tileFinished();
+				return;
+			}
+
+			// Splits the range in half
+			final int mid = (start+end) >>> 1;
+			invokeAll(
+				new TileTask(shader, raster, rasterY, checkpoint, progress, start, mid),
+				new TileTask(shader, raster, rasterY, checkpoint, progress, mid, end)
+			);
+		}
+	}
+
+	/**
+	 * Counts finished tiles and reports the render's progress, once per
+	 * whole percent of the tiles so printing stays out of the render's time.
+	 */
+	private static class Progress {
+
+		/** The total number of tiles. */
+		private final int total;
+
+		/** The number of tiles finished so far. */
+		private final AtomicInteger finished = new AtomicInteger();
+
+		/** The time at which rendering started. */
+		private final long startTime = System.currentTimeMillis();
+
+		private Progress(int total) {
+			this.total = total;
+		}
+
+		/**
+		 * Records that a tile finished, printing the progress if the tile
+		 * completes another whole percent.
+		 */
+		private void tileFinished() {
+			final int done = finished.incrementAndGet();
+			if ((long) 100*done/total == (long) 100*(done-1)/total)
+				return;
+			final double totalTime = (System.currentTimeMillis()-startTime)*1e-3;
+			final String report = String.format(
+				"Rendering: %.3f%%...%nEstimated Time Left: %.3fs%nTotal Time Elapsed: %.3fs%n",
+				100.0*done/total, totalTime*(total-done)/done, totalTime
+			);
+			System.out.println(report);
+		}
+	}
+}
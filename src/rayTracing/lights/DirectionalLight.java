@@ -1,5 +1,6 @@
 package rayTracing.lights;
 
+import math.MutableVector3D;
 import math.Vector3D;
 
 public class DirectionalLight implements LightSource {
@@ -21,19 +22,19 @@ public class DirectionalLight implements LightSource {
 		this.color = color;
 	}
 	
-	public Vector3D intensity(Vector3D point) {
-		return color;
+	public MutableVector3D intensity(MutableVector3D point, MutableVector3D result) {
+		return result.set(color);
 	}
 
 	public LightType type() {
 		return LightType.DIRECTIONAL;
 	}
 
-	public double distanceFrom(Vector3D point) {
+	public double distanceFrom(MutableVector3D point) {
 		return Double.POSITIVE_INFINITY;
 	}
 
-	public Vector3D directionFrom(Vector3D point) {
-		return direction.flip();
+	public MutableVector3D directionFrom(MutableVector3D point, MutableVector3D result) {
+		return result.set(direction).scale(-1);
 	}
 }
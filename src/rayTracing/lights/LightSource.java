@@ -1,6 +1,6 @@
 package rayTracing.lights;
 
-import math.Vector3D;
+import math.MutableVector3D;
 
 public abstract interface LightSource {
 	
@@ -8,10 +8,11 @@ public abstract interface LightSource {
 	 * Calculates the intensity of the light at the given point.
 	 * 
 	 * @param point The point at which intensity will be calculated.
+	 * @param result The vector in which to store the intensity.
 	 * 
-	 * @return The intensity of the light at the given point.
+	 * @return The given result vector, holding the intensity of the light at the given point.
 	 */
-	public abstract Vector3D intensity(Vector3D point);
+	public abstract MutableVector3D intensity(MutableVector3D point, MutableVector3D result);
 
 	/**
 	 * Calculates the distance from the given point to the light.
@@ -20,16 +21,17 @@ public abstract interface LightSource {
 	 * 
 	 * @return The distance from the point to the light.
 	 */
-	public abstract double distanceFrom(Vector3D point);
+	public abstract double distanceFrom(MutableVector3D point);
 
 	/**
 	 * Calculates the direction from the given point to the light.
 	 * 
 	 * @param point The point to which the direction will be calculated.
+	 * @param result The vector in which to store the direction.
 	 * 
-	 * @return The (normalized) direction from the point to the light.
+	 * @return The given result vector, holding the (normalized) direction from the point to the light.
 	 */
-	public abstract Vector3D directionFrom(Vector3D point);
+	public abstract MutableVector3D directionFrom(MutableVector3D point, MutableVector3D result);
 	
 	/**
 	 * @return The light type of this light.
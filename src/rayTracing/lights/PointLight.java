@@ -1,5 +1,6 @@
 package rayTracing.lights;
 
+import math.MutableVector3D;
 import math.Vector3D;
 
 public class PointLight implements LightSource {
@@ -25,20 +26,23 @@ public class PointLight implements LightSource {
 		this.attenuation = attenuation;
 	}
 	
-	public Vector3D intensity(Vector3D point) {
-		final double distance = position.subtract(point).magnitude();
-		return color.scale(1/(attenuation*distance*distance));
+	public MutableVector3D intensity(MutableVector3D point, MutableVector3D result) {
+		final double distance = distanceFrom(point);
+		return result.set(color).scale(1/(attenuation*distance*distance));
 	}
 
 	public LightType type() {
 		return LightType.POINT;
 	}
 
-	public double distanceFrom(Vector3D point) {
-		return position.subtract(point).magnitude();
+	public double distanceFrom(MutableVector3D point) {
+		final double dx = position.x-point.x;
+		final double dy = position.y-point.y;
+		final double dz = position.z-point.z;
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
 	}
 
-	public Vector3D directionFrom(Vector3D point) {
-		return position.subtract(point).normalize();
+	public MutableVector3D directionFrom(MutableVector3D point, MutableVector3D result) {
+		return result.set(position.x-point.x, position.y-point.y, position.z-point.z).normalize();
 	}
 }
@@ -0,0 +1,695 @@
+package rayTracing.primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import math.Vector3D;
+import rayTracing.Metrics;
+
+/**
+ * Builds bounding volume hierarchies, splitting nodes according to the
+ * surface area heuristic over binned centroids. Ranges above a size
+ * threshold are binned by parallel tasks and their two halves built
+ * concurrently, in the fork-join pool of the calling thread, or the common
+ * pool from any other thread. The subtrees are stitched back in the order a
+ * single thread lays them out, so the hierarchy is the same however many
+ * threads build it.
+ */
+public class BVHBuilder {
+
+	/** The number of bins used to approximate the surface area heuristic along each axis. */
+	private static final int BINS = 16;
+
+	/** The number of primitives at or below which a node always becomes a leaf. */
+	private static final int MIN_SPLIT_SIZE = 2;
+
+	/** The number of primitives above which a node is always split, if possible. */
+	private static final int MAX_LEAF_SIZE = 8;
+
+	/** The cost of traversing a node, relative to testing a primitive. */
+	private static final double TRAVERSAL_COST = 1;
+
+	/** The number of items above which a range is binned and built by parallel tasks. */
+	private static final int PARALLEL_SIZE = 4096;
+
+	/** The bounds of each item, stored as (minX, minY, minZ, maxX, maxY, maxZ). */
+	private final double[] bounds;
+
+	/** The centroid of each item, stored as (x, y, z). */
+	private final double[] centroids;
+
+	/** The item indices, partitioned in place while building. */
+	private final int[] order;
+
+	/**
+	 * Prepares the bounds of the given items for building.
+	 *
+	 * @param bounds The bounds of each item, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	private BVHBuilder(double[] bounds) {
+		final int count = bounds.length/6;
+		this.bounds = bounds;
+		centroids = new double[3*count];
+		order = new int[count];
+		for (int i = 0; i < count; i++) {
+			for (int axis = 0; axis < 3; axis++)
+				centroids[3*i+axis] = (bounds[6*i+axis]+bounds[6*i+axis+3])/2;
+			order[i] = i;
+		}
+	}
+
+	/**
+	 * Builds a tree of bounding boxes over the given primitives, splitting
+	 * nodes according to the surface area heuristic. Renders lay hierarchies
+	 * out straight from buildFlat instead, through LinearBVH.
+	 *
+	 * @param primitives The primitives to be built into the hierarchy.
+	 *
+	 * @return The root bounding box of the hierarchy.
+	 */
+	public static BoundingBox build(List<Primitive> primitives) {
+
+		// Separates the primitives without finite bounds, which cannot be split
+		final BoundingBox root = new BoundingBox();
+		final ArrayList<Primitive> bounded = new ArrayList<Primitive>();
+		for (Primitive primitive : primitives) {
+			if (isBounded(primitive))
+				bounded.add(primitive);
+			else
+				root.add(primitive);
+		}
+		if (bounded.isEmpty())
+			return root;
+
+		// Builds the hierarchy under the root
+		root.add(toBoxes(buildFlat(bounds(bounded)), 0, bounded));
+		return root;
+	}
+
+	/**
+	 * Stores the bounds of each of the given primitives.
+	 *
+	 * @param primitives The primitives, each with finite bounds.
+	 *
+	 * @return The bounds of each primitive, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	static double[] bounds(List<Primitive> primitives) {
+		final double[] bounds = new double[6*primitives.size()];
+		for (int i = 0; i < primitives.size(); i++) {
+			final Vector3D min = primitives.get(i).minBounds();
+			final Vector3D max = primitives.get(i).maxBounds();
+			bounds[6*i]   = min.x;
+			bounds[6*i+1] = min.y;
+			bounds[6*i+2] = min.z;
+			bounds[6*i+3] = max.x;
+			bounds[6*i+4] = max.y;
+			bounds[6*i+5] = max.z;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Builds a flattened bounding volume hierarchy over items with the given
+	 * bounds, splitting nodes according to the surface area heuristic. The
+	 * time taken is added to the building thread's Metrics.HIERARCHY_NANOS.
+	 *
+	 * @param bounds The bounds of each item, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 *
+	 * @return The flattened hierarchy, with the root stored at index 0.
+	 */
+	static FlatTree buildFlat(double[] bounds) {
+		final long start = System.nanoTime();
+		final BVHBuilder builder = new BVHBuilder(bounds);
+		final int count = builder.order.length;
+
+		// Builds small hierarchies on this thread, and large ones as a tree of tasks
+		final Layout layout;
+		if (count <= PARALLEL_SIZE) {
+			layout = builder.new Layout(count);
+			layout.flatten(0, 0, count, 0);
+		} else {
+			final Subtree root = builder.new SubtreeTask(0, count).invoke();
+			layout = builder.new Layout(root.nodeCount);
+			root.place(layout, 0, 0);
+		}
+
+		final FlatTree tree = new FlatTree(
+			Arrays.copyOf(layout.nodeBounds, 6*layout.nodeCount),
+			Arrays.copyOf(layout.nodes, 2*layout.nodeCount),
+			builder.order,
+			layout.depth
+		);
+		Metrics.add(Metrics.HIERARCHY_NANOS, System.nanoTime()-start);
+		return tree;
+	}
+
+	/**
+	 * Recursively creates the bounding boxes of a flattened hierarchy.
+	 *
+	 * @param tree The flattened hierarchy.
+	 * @param node The index of the node to create.
+	 * @param primitives The primitives indexed by the hierarchy's order.
+	 *
+	 * @return The bounding box of the node.
+	 */
+	private static BoundingBox toBoxes(FlatTree tree, int node, List<Primitive> primitives) {
+		final BoundingBox box = new BoundingBox();
+		final int first = tree.nodes[2*node];
+		final int count = tree.nodes[2*node+1];
+		if (count > 0) {
+			for (int i = first; i < first+count; i++)
+				box.add(primitives.get(tree.order[i]));
+		} else {
+			box.add(toBoxes(tree, first, primitives));
+			box.add(toBoxes(tree, first+1, primitives));
+		}
+		return box;
+	}
+
+	/**
+	 * Measures a range of items, growing the bounds of their centroids and of
+	 * the items themselves.
+	 *
+	 * @param start The first index of the range in the order.
+	 * @param end The index after the last index of the range in the order.
+	 * @param centroidBounds The bounds of the centroids, to be grown.
+	 * @param rangeBounds The bounds of the items, to be grown.
+	 */
+	private void measure(int start, int end, double[] centroidBounds, double[] rangeBounds) {
+		for (int i = start; i < end; i++) {
+			final int p = order[i];
+			for (int axis = 0; axis < 3; axis++) {
+				centroidBounds[axis] = Math.min(centroidBounds[axis], centroids[3*p+axis]);
+				centroidBounds[axis+3] = Math.max(centroidBounds[axis+3], centroids[3*p+axis]);
+			}
+			growBounds(rangeBounds, 0, bounds, 6*p);
+		}
+	}
+
+	/**
+	 * Bins a range of items by centroid along every axis the centroids spread over.
+	 *
+	 * @param start The first index of the range in the order.
+	 * @param end The index after the last index of the range in the order.
+	 * @param centroidBounds The bounds of the centroids of the node being split.
+	 * @param binCounts The items in each axis's bins, to be added to.
+	 * @param binBounds The bounds of each axis's bins, to be grown.
+	 */
+	private void binRange(int start, int end, double[] centroidBounds, int[] binCounts, double[] binBounds) {
+		for (int axis = 0; axis < 3; axis++) {
+			final double cMin = centroidBounds[axis];
+			final double extent = centroidBounds[axis+3]-cMin;
+			if (extent <= 0) continue;
+			for (int i = start; i < end; i++) {
+				final int p = order[i];
+				final int b = axis*BINS + bin(centroids[3*p+axis], cMin, extent);
+				binCounts[b]++;
+				growBounds(binBounds, 6*b, bounds, 6*p);
+			}
+		}
+	}
+
+	/**
+	 * Finds the bin boundary with the lowest surface area heuristic cost.
+	 *
+	 * @param count The number of items in the node.
+	 * @param centroidBounds The bounds of the node's centroids.
+	 * @param rangeBounds The bounds of the node.
+	 * @param binCounts The items in each axis's bins.
+	 * @param binBounds The bounds of each axis's bins.
+	 * @param rightAreas Room for the area right of each bin boundary.
+	 *
+	 * @return The chosen axis times BINS plus the last bin left of the boundary, or -1 if the node should be a leaf.
+	 */
+	private static int chooseSplit(int count, double[] centroidBounds, double[] rangeBounds, int[] binCounts, double[] binBounds, double[] rightAreas) {
+		int best = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		final double[] sweep = new double[6];
+		for (int axis = 0; axis < 3; axis++) {
+			if (centroidBounds[axis+3]-centroidBounds[axis] <= 0) continue;
+
+			// Sweeps from the right to store the right side areas
+			resetBounds(sweep, 0);
+			for (int b = BINS-1; b > 0; b--) {
+				growBounds(sweep, 0, binBounds, 6*(axis*BINS + b));
+				rightAreas[b] = area(sweep);
+			}
+
+			// Sweeps from the left to evaluate each split
+			resetBounds(sweep, 0);
+			int leftCount = 0;
+			for (int b = 0; b < BINS-1; b++) {
+				growBounds(sweep, 0, binBounds, 6*(axis*BINS + b));
+				leftCount += binCounts[axis*BINS + b];
+				final int rightCount = count-leftCount;
+				if (leftCount == 0 || rightCount == 0) continue;
+				final double cost = area(sweep)*leftCount + rightAreas[b+1]*rightCount;
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = axis*BINS + b;
+				}
+			}
+		}
+
+		// Checks whether splitting beats testing every primitive
+		if (best < 0) return -1;
+		final double nodeArea = area(rangeBounds);
+		final double splitCost = TRAVERSAL_COST + (nodeArea > 0 ? bestCost/nodeArea : 0);
+		if (count <= MAX_LEAF_SIZE && splitCost >= count) return -1;
+		return best;
+	}
+
+	/**
+	 * Partitions a range around a bin boundary.
+	 *
+	 * @param start The first index of the range in the order.
+	 * @param end The index after the last index of the range in the order.
+	 * @param centroidBounds The bounds of the range's centroids.
+	 * @param split The axis times BINS plus the last bin left of the boundary.
+	 *
+	 * @return The index at which the range was split.
+	 */
+	private int partition(int start, int end, double[] centroidBounds, int split) {
+		final int axis = split/BINS;
+		final int lastBin = split%BINS;
+		final double cMin = centroidBounds[axis];
+		final double extent = centroidBounds[axis+3]-cMin;
+		int mid = start;
+		for (int i = start; i < end; i++) {
+			final int p = order[i];
+			if (bin(centroids[3*p+axis], cMin, extent) <= lastBin) {
+				order[i] = order[mid];
+				order[mid++] = p;
+			}
+		}
+		return mid;
+	}
+
+	/**
+	 * The flattened nodes laid out by a single thread, with the scratch space
+	 * its splits reuse.
+	 */
+	private class Layout {
+
+		/** The bounds of each node, stored as (minX, minY, minZ, maxX, maxY, maxZ). */
+		double[] nodeBounds;
+
+		/** The (offset, item count) pair of each node. */
+		int[] nodes;
+
+		/** The number of nodes laid out so far, the root included. */
+		int nodeCount = 1;
+
+		/** The deepest level reached by the nodes. */
+		int depth;
+
+		/** The bounds of the centroids of the range being split. */
+		private final double[] centroidBounds = new double[6];
+
+		/** The bounds of the range being split. */
+		private final double[] rangeBounds = new double[6];
+
+		/** The items in each axis's bins. */
+		private final int[] binCounts = new int[3*BINS];
+
+		/** The bounds of each axis's bins. */
+		private final double[] binBounds = new double[3*BINS*6];
+
+		/** The area right of each bin boundary. */
+		private final double[] rightAreas = new double[BINS];
+
+		/**
+		 * Makes room for the given number of nodes, growing if more are needed.
+		 */
+		Layout(int capacity) {
+			capacity = Math.max(3, capacity);
+			nodeBounds = new double[6*capacity];
+			nodes = new int[2*capacity];
+		}
+
+		/**
+		 * Recursively lays out the flattened node holding the given range of items.
+		 * The children of a node are stored next to each other.
+		 *
+		 * @param node The index of the node being laid out.
+		 * @param start The first index of the range in the order.
+		 * @param end The index after the last index of the range in the order.
+		 * @param level The depth of the node in the tree.
+		 */
+		void flatten(int node, int start, int end, int level) {
+			depth = Math.max(depth, level);
+
+			// Stores the node's bounds
+			resetBounds(centroidBounds, 0);
+			resetBounds(rangeBounds, 0);
+			measure(start, end, centroidBounds, rangeBounds);
+			System.arraycopy(rangeBounds, 0, nodeBounds, 6*node, 6);
+
+			// Splits the range, if worthwhile
+			final int mid = split(start, end);
+			if (mid < 0) {
+				nodes[2*node] = start;
+				nodes[2*node+1] = end-start;
+			} else {
+				final int children = nodeCount;
+				nodeCount += 2;
+				if (2*nodeCount > nodes.length) {
+					final int capacity = nodeCount + nodeCount/2;
+					nodeBounds = Arrays.copyOf(nodeBounds, 6*capacity);
+					nodes = Arrays.copyOf(nodes, 2*capacity);
+				}
+				nodes[2*node] = children;
+				nodes[2*node+1] = 0;
+				flatten(children, start, mid, level+1);
+				flatten(children+1, mid, end, level+1);
+			}
+		}
+
+		/**
+		 * Partitions the measured range along the split with the lowest
+		 * surface area heuristic cost.
+		 *
+		 * @param start The first index of the range in the order.
+		 * @param end The index after the last index of the range in the order.
+		 *
+		 * @return The index at which the range was split, or -1 if it should be a leaf.
+		 */
+		private int split(int start, int end) {
+			if (end-start <= MIN_SPLIT_SIZE) return -1;
+
+			// Bins the range and picks the cheapest boundary
+			Arrays.fill(binCounts, 0);
+			for (int b = 0; b < 3*BINS; b++)
+				resetBounds(binBounds, 6*b);
+			binRange(start, end, centroidBounds, binCounts, binBounds);
+			final int split = chooseSplit(end-start, centroidBounds, rangeBounds, binCounts, binBounds, rightAreas);
+			return split < 0 ? -1 : partition(start, end, centroidBounds, split);
+		}
+	}
+
+	/**
+	 * A subtree built by a task: either a layout of its own, whose root
+	 * stands for the subtree, or a node split into two subtrees.
+	 */
+	private static class Subtree {
+
+		/** The layout of a subtree built by a single thread, or null if split by tasks. */
+		private final Layout layout;
+
+		/** The bounds of a node split by tasks. */
+		private final double[] bounds;
+
+		/** The children of a node split by tasks. */
+		private final Subtree left, right;
+
+		/** The number of nodes in the subtree. */
+		final int nodeCount;
+
+		Subtree(Layout layout) {
+			this.layout = layout;
+			bounds = null;
+			left = right = null;
+			nodeCount = layout.nodeCount;
+		}
+
+		Subtree(double[] bounds, Subtree left, Subtree right) {
+			layout = null;
+			this.bounds = bounds;
+			this.left = left;
+			this.right = right;
+			nodeCount = 1 + left.nodeCount + right.nodeCount;
+		}
+
+		/**
+		 * Recursively copies the subtree into a layout, numbering its nodes as
+		 * a single thread laying out the whole tree would.
+		 *
+		 * @param out The layout to copy into, with room for every node.
+		 * @param node The index already given to the subtree's root.
+		 * @param level The depth of the subtree's root in the tree.
+		 */
+		void place(Layout out, int node, int level) {
+			out.depth = Math.max(out.depth, level);
+			if (layout == null) {
+				final int children = out.nodeCount;
+				out.nodeCount += 2;
+				System.arraycopy(bounds, 0, out.nodeBounds, 6*node, 6);
+				out.nodes[2*node] = children;
+				out.nodes[2*node+1] = 0;
+				left.place(out, children, level+1);
+				right.place(out, children+1, level+1);
+				return;
+			}
+
+			// Moves every node after the root by the nodes already laid out
+			final int shift = out.nodeCount-1;
+			for (int i = 0; i < layout.nodeCount; i++) {
+				final int target = i == 0 ? node : i+shift;
+				System.arraycopy(layout.nodeBounds, 6*i, out.nodeBounds, 6*target, 6);
+				final boolean inner = layout.nodes[2*i+1] == 0;
+				out.nodes[2*target] = inner ? layout.nodes[2*i]+shift : layout.nodes[2*i];
+				out.nodes[2*target+1] = layout.nodes[2*i+1];
+			}
+			out.nodeCount += layout.nodeCount-1;
+			out.depth = Math.max(out.depth, level+layout.depth);
+		}
+	}
+
+	/**
+	 * Builds the subtree over a range of items, binning large ranges and
+	 * building their halves in parallel.
+	 */
+	private class SubtreeTask extends RecursiveTask<Subtree> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The first index of the range in the order. */
+		private final int start;
+
+		/** The index after the last index of the range in the order. */
+		private final int end;
+
+		SubtreeTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected Subtree compute() {
+
+			// Lays out small ranges on this thread
+			if (end-start <= PARALLEL_SIZE)
+				return single();
+
+			// Measures and bins the range in parallel
+			final double[] measured = new MeasureTask(start, end).invoke();
+			final double[] centroidBounds = Arrays.copyOfRange(measured, 0, 6);
+			final double[] rangeBounds = Arrays.copyOfRange(measured, 6, 12);
+			final Bins bins = new BinTask(start, end, centroidBounds).invoke();
+			final int split = chooseSplit(end-start, centroidBounds, rangeBounds, bins.counts, bins.bounds, new double[BINS]);
+			if (split < 0)
+				return single();
+
+			// Builds the halves in parallel
+			final int mid = partition(start, end, centroidBounds, split);
+			final SubtreeTask left = new SubtreeTask(start, mid);
+			left.fork();
+			final Subtree right = new SubtreeTask(mid, end).compute();
+			return new Subtree(rangeBounds, left.join(), right);
+		}
+
+		/**
+		 * @return The subtree laid out by this thread alone.
+		 */
+		private Subtree single() {
+			final Layout layout = new Layout(end-start);
+			layout.flatten(0, start, end, 0);
+			return new Subtree(layout);
+		}
+	}
+
+	/**
+	 * Measures a range of items in parallel, returning the bounds of their
+	 * centroids followed by their own bounds.
+	 */
+	private class MeasureTask extends RecursiveTask<double[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The first index of the range in the order. */
+		private final int start;
+
+		/** The index after the last index of the range in the order. */
+		private final int end;
+
+		MeasureTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		protected double[] compute() {
+			if (end-start <= PARALLEL_SIZE) {
+				final double[] centroidBounds = emptyBounds();
+				final double[] rangeBounds = emptyBounds();
+				measure(start, end, centroidBounds, rangeBounds);
+				final double[] measured = Arrays.copyOf(centroidBounds, 12);
+				System.arraycopy(rangeBounds, 0, measured, 6, 6);
+				return measured;
+			}
+			final int mid = (start+end) >>> 1;
+			final MeasureTask left = new MeasureTask(start, mid);
+			left.fork();
+			final double[] measured = new MeasureTask(mid, end).compute();
+			final double[] leftMeasured = left.join();
+			growBounds(measured, 0, leftMeasured, 0);
+			growBounds(measured, 6, leftMeasured, 6);
+			return measured;
+		}
+	}
+
+	/**
+	 * The items counted in each axis's bins and the bounds of each bin.
+	 */
+	private static class Bins {
+
+		/** The items in each axis's bins. */
+		final int[] counts = new int[3*BINS];
+
+		/** The bounds of each axis's bins. */
+		final double[] bounds = new double[3*BINS*6];
+
+		Bins() {
+			for (int b = 0; b < 3*BINS; b++)
+				resetBounds(bounds, 6*b);
+		}
+	}
+
+	/**
+	 * Bins a range of items in parallel.
+	 */
+	private class BinTask extends RecursiveTask<Bins> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The first index of the range in the order. */
+		private final int start;
+
+		/** The index after the last index of the range in the order. */
+		private final int end;
+
+		/** The bounds of the centroids of the node being split. */
+		private final double[] centroidBounds;
+
+		BinTask(int start, int end, double[] centroidBounds) {
+			this.start = start;
+			this.end = end;
+			this.centroidBounds = centroidBounds;
+		}
+
+		protected Bins compute() {
+			if (end-start <= PARALLEL_SIZE) {
+				final Bins bins = new Bins();
+				binRange(start, end, centroidBounds, bins.counts, bins.bounds);
+				return bins;
+			}
+			final int mid = (start+end) >>> 1;
+			final BinTask left = new BinTask(start, mid, centroidBounds);
+			left.fork();
+			final Bins bins = new BinTask(mid, end, centroidBounds).compute();
+			final Bins leftBins = left.join();
+			for (int b = 0; b < 3*BINS; b++) {
+				bins.counts[b] += leftBins.counts[b];
+				growBounds(bins.bounds, 6*b, leftBins.bounds, 6*b);
+			}
+			return bins;
+		}
+	}
+
+	/**
+	 * Computes the bin into which the given centroid coordinate falls.
+	 */
+	private static int bin(double centroid, double cMin, double extent) {
+		return Math.min(BINS-1, (int)(BINS*(centroid-cMin)/extent));
+	}
+
+	/**
+	 * @return A box, as (minX, minY, minZ, maxX, maxY, maxZ), containing nothing.
+	 */
+	private static double[] emptyBounds() {
+		final double[] box = new double[6];
+		resetBounds(box, 0);
+		return box;
+	}
+
+	/**
+	 * Empties the box stored at the given offset.
+	 */
+	private static void resetBounds(double[] box, int offset) {
+		for (int axis = 0; axis < 3; axis++) {
+			box[offset+axis] = Double.POSITIVE_INFINITY;
+			box[offset+axis+3] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Grows the box at the given offset to contain the other box.
+	 */
+	private static void growBounds(double[] box, int offset, double[] other, int otherOffset) {
+		for (int axis = 0; axis < 3; axis++) {
+			box[offset+axis] = Math.min(box[offset+axis], other[otherOffset+axis]);
+			box[offset+axis+3] = Math.max(box[offset+axis+3], other[otherOffset+axis+3]);
+		}
+	}
+
+	/**
+	 * @return The surface area of the box at the start of the array.
+	 */
+	private static double area(double[] box) {
+		final double dx = box[3]-box[0];
+		final double dy = box[4]-box[1];
+		final double dz = box[5]-box[2];
+		return dx < 0 ? 0 : 2*(dx*dy + dy*dz + dz*dx);
+	}
+
+	/**
+	 * A flattened binary hierarchy over indexed items. Inner nodes store the
+	 * index of their first child, with the second child right after it, and
+	 * an item count of 0. Leaves store the offset of their items in the order.
+	 */
+	static class FlatTree {
+
+		/** The bounds of each node, stored as (minX, minY, minZ, maxX, maxY, maxZ). */
+		final double[] bounds;
+
+		/** The (offset, item count) pair of each node. */
+		final int[] nodes;
+
+		/** The item indices, in leaf order. */
+		final int[] order;
+
+		/** The depth of the deepest leaf. */
+		final int depth;
+
+		private FlatTree(double[] bounds, int[] nodes, int[] order, int depth) {
+			this.bounds = bounds;
+			this.nodes = nodes;
+			this.order = order;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * @return Whether the primitive's bounds are finite, so it can be split from others.
+	 */
+	static boolean isBounded(Primitive primitive) {
+		return isFinite(primitive.minBounds()) && isFinite(primitive.maxBounds());
+	}
+
+	/**
+	 * @return Whether every coordinate of the vector is finite.
+	 */
+	private static boolean isFinite(Vector3D vec) {
+		return Double.isFinite(vec.x) && Double.isFinite(vec.y) && Double.isFinite(vec.z);
+	}
+}
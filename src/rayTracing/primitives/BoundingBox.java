@@ -7,17 +7,23 @@ import math.Vector3D;
 
 public class BoundingBox {
 
-	/** The starting coordinates. Has start <= end, element-wise. */
-	private Vector3D start = Vector3D.ZERO;
+	/** The starting coordinates of an empty bounding box. */
+	private static final Vector3D EMPTY_START = new Vector3D(Double.POSITIVE_INFINITY);
 
-	/** The end coordinates. Has start <= end, element-wise. */
-	private Vector3D end = Vector3D.ZERO;
+	/** The end coordinates of an empty bounding box. */
+	private static final Vector3D EMPTY_END = new Vector3D(Double.NEGATIVE_INFINITY);
+
+	/** The starting coordinates. Has start <= end, element-wise, unless empty. */
+	Vector3D start = EMPTY_START;
+
+	/** The end coordinates. Has start <= end, element-wise, unless empty. */
+	Vector3D end = EMPTY_END;
 	
 	/** The primitives contained in this bounding box. */
-	private final ArrayList<Primitive> primitives = new ArrayList<Primitive>();
+	final ArrayList<Primitive> primitives = new ArrayList<Primitive>();
 	
 	/** The bounding boxed recursively contained in this bounding box. */
-	private final ArrayList<BoundingBox> boxes = new ArrayList<BoundingBox>();
+	final ArrayList<BoundingBox> boxes = new ArrayList<BoundingBox>();
 
 	/**
 	 * Creates a new bounding box that can hold different
@@ -58,6 +64,9 @@ public class BoundingBox {
 	 */
 	public boolean intersects(Ray ray, double tMin) {
 		
+		// Checks for an empty bounding box
+		if (start.x > end.x) return false;
+		
 		// Computes the start t values
 		final double tStartX = ray.tAtX(start.x);
 		final double tStartY = ray.tAtY(start.y);
@@ -139,6 +148,7 @@ public class BoundingBox {
 			box.reset();
 		boxes.clear();
 		primitives.clear();
-		start = end = Vector3D.ZERO;
+		start = EMPTY_START;
+		end = EMPTY_END;
 	}
 }
@@ -0,0 +1,372 @@
+package rayTracing.primitives;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Metrics;
+import rayTracing.Record;
+
+/**
+ * An unbounded grid of blocks, each generated the first time a ray reaches
+ * it. Rays step through the grid cell by cell, nearest first, so only the
+ * blocks a ray actually passes are generated and tested. Generated blocks are
+ * cached up to a fixed number, evicting the least recently used ones, so the
+ * memory held stays the same however far the camera travels.
+ *
+ * Blocks are generated for their distance from the viewpoint, so the
+ * generator can simplify far blocks. A block is generated again once the
+ * viewpoint moves outside the range of distances its detail suits.
+ *
+ * Every primitive of a block must lie inside the block's cell of the grid,
+ * and between the city's minimum and maximum heights.
+ */
+public class ChunkedCity implements Primitive {
+
+	/**
+	 * Generates the primitives of a single block.
+	 */
+	public static interface BlockGenerator {
+
+		/**
+		 * Generates the primitives of the given block. Must give the same
+		 * primitives whenever it is called for the same block and distance.
+		 *
+		 * @param x The x coordinate of the block.
+		 * @param z The z coordinate of the block.
+		 * @param distance The distance from the viewpoint to the nearest point of the block.
+		 *
+		 * @return The primitives of the block, with the distances their detail suits.
+		 */
+		public abstract Block generate(int x, int z, double distance);
+	}
+
+	/**
+	 * The primitives of a generated block.
+	 */
+	public static class Block {
+
+		/** The primitives of the block. */
+		public final List<Primitive> primitives;
+
+		/** The nearest distance at which the block's detail is fine enough. */
+		public final double nearest;
+
+		/** The distance from which coarser detail would do. */
+		public final double farthest;
+
+		/**
+		 * @param primitives The primitives of the block.
+		 * @param nearest The nearest distance at which the block's detail is fine enough.
+		 * @param farthest The distance from which coarser detail would do.
+		 */
+		public Block(List<Primitive> primitives, double nearest, double farthest) {
+			this.primitives = primitives;
+			this.nearest = nearest;
+			this.farthest = farthest;
+		}
+	}
+
+	/**
+	 * A generated block, with the hierarchy over its primitives.
+	 */
+	private static class Chunk {
+
+		/** The hierarchy over the block's primitives. */
+		private final LinearBVH bvh;
+
+		/** The nearest distance at which the block's detail is fine enough. */
+		private final double nearest;
+
+		/** The distance from which coarser detail would do. */
+		private final double farthest;
+
+		/** The eviction tick at which the block was last used. */
+		private volatile long lastUsed;
+
+		private Chunk(Block block, long lastUsed) {
+			bvh = new LinearBVH(block.primitives);
+			nearest = block.nearest;
+			farthest = block.farthest;
+			this.lastUsed = lastUsed;
+		}
+
+		/**
+		 * @return Whether the block's detail suits the given distance.
+		 */
+		private boolean suits(double distance) {
+			return distance >= nearest && distance < farthest;
+		}
+	}
+
+	/** The side length of each block's cell. */
+	public final double blockSize;
+
+	/** The lowest height of any block's primitives. */
+	public final double minY;
+
+	/** The highest height of any block's primitives. */
+	public final double maxY;
+
+	/** The distance beyond which rays no longer look for blocks. */
+	public final double viewDistance;
+
+	/** The most blocks kept generated at once. */
+	public final int capacity;
+
+	/** The generator of each block's primitives. */
+	private final BlockGenerator generator;
+
+	/** The generated blocks and those being generated, keyed by their packed (x, z) coordinates. */
+	private final ConcurrentHashMap<Long, CompletableFuture<Chunk>> chunks = new ConcurrentHashMap<Long, CompletableFuture<Chunk>>();
+
+	/** The point from which distances to blocks are measured, or null to measure none. */
+	private volatile Vector3D viewpoint;
+
+	/** Advances with each viewpoint set and each block generated, dating each block's last use. */
+	private final AtomicLong tick = new AtomicLong();
+
+	/** The minimum bounds of the city. */
+	private final Vector3D min;
+
+	/** The maximum bounds of the city. */
+	private final Vector3D max;
+
+	/**
+	 * Creates an empty city whose blocks are generated on demand.
+	 *
+	 * @param blockSize The side length of each block's cell.
+	 * @param minY The lowest height of any block's primitives.
+	 * @param maxY The highest height of any block's primitives.
+	 * @param viewDistance The distance beyond which rays no longer look for blocks.
+	 * @param capacity The most blocks kept generated at once.
+	 * @param generator The generator of each block's primitives.
+	 */
+	public ChunkedCity(double blockSize, double minY, double maxY, double viewDistance, int capacity, BlockGenerator generator) {
+		this.blockSize = blockSize;
+		this.minY = minY;
+		this.maxY = maxY;
+		this.viewDistance = viewDistance;
+		this.capacity = capacity;
+		this.generator = generator;
+		min = new Vector3D(Double.NEGATIVE_INFINITY, minY, Double.NEGATIVE_INFINITY);
+		max = new Vector3D(Double.POSITIVE_INFINITY, maxY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Moves the point from which distances to blocks are measured, such as
+	 * the camera's origin before rendering a frame. Blocks used from then on
+	 * count as used after every block used before.
+	 *
+	 * @param viewpoint The point, or null to measure every distance as 0.
+	 */
+	public void setViewpoint(Vector3D viewpoint) {
+		this.viewpoint = viewpoint;
+		tick.incrementAndGet();
+	}
+
+	/**
+	 * @return The number of blocks currently generated or being generated.
+	 */
+	public int generatedBlocks() {
+		return chunks.size();
+	}
+
+	public boolean intersects(Ray ray, double tMin, Record record) {
+		return march(ray, tMin, record.getT(), record);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
+		return march(ray, tMin, tMax, null);
+	}
+
+	public void resolve(Ray ray, Record record) {
+		// Hits are recorded against the blocks' own primitives, which resolve them
+		record.resolve(ray);
+	}
+
+	/**
+	 * Steps the ray through the cells of the grid it passes, nearest first,
+	 * testing each cell's block.
+	 *
+	 * @param ray The ray to step.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The t before which an intersection must happen.
+	 * @param record The record of the closest intersection so far, or null to only check for blockers.
+	 *
+	 * @return Whether a new closest intersection happens, or whether the ray is blocked.
+	 */
+	private boolean march(Ray ray, double tMin, double tMax, Record record) {
+
+		// Clips the ray to the city's heights and the view distance
+		final double ty1 = ray.tAtY(minY);
+		final double ty2 = ray.tAtY(maxY);
+		final double tStart = Math.max(tMin, Math.min(ty1, ty2));
+		final double tEnd = Math.min(Math.min(tMax, viewDistance), Math.max(ty1, ty2));
+		if (!(tStart <= tEnd)) return false;
+
+		// Finds the first cell and the steps to the next ones
+		final double dx = ray.direction.x, dz = ray.direction.z;
+		final double startX = ray.origin.x + dx*tStart;
+		final double startZ = ray.origin.z + dz*tStart;
+		int cellX = (int)Math.floor(startX/blockSize);
+		int cellZ = (int)Math.floor(startZ/blockSize);
+		final int stepX = dx > 0 ? 1 : -1;
+		final int stepZ = dz > 0 ? 1 : -1;
+		final double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : blockSize/Math.abs(dx);
+		final double deltaZ = dz == 0 ? Double.POSITIVE_INFINITY : blockSize/Math.abs(dz);
+		double nextX = dx == 0 ? Double.POSITIVE_INFINITY : ray.tAtX((cellX + (dx > 0 ? 1 : 0))*blockSize);
+		double nextZ = dz == 0 ? Double.POSITIVE_INFINITY : ray.tAtZ((cellZ + (dz > 0 ? 1 : 0))*blockSize);
+
+		boolean hit = false;
+		while (true) {
+
+			// Tests the cell's block
+			final double cellEnd = Math.min(nextX, nextZ);
+			final LinearBVH bvh = chunk(cellX, cellZ).bvh;
+			if (record == null) {
+				if (bvh.occluded(ray, tMin, tMax))
+					return true;
+			} else if (bvh.findClosest(ray, tMin, record)) {
+				hit = true;
+			}
+
+			// Stops once the closest hit is inside the cell, or the ray leaves the range
+			if (cellEnd >= tEnd || (record != null && record.getT() <= cellEnd))
+				return hit;
+
+			// Steps to the next cell
+			if (nextX < nextZ) {
+				cellX += stepX;
+				nextX += deltaX;
+			} else {
+				cellZ += stepZ;
+				nextZ += deltaZ;
+			}
+		}
+	}
+
+	/**
+	 * Gets the given block, generating it if it is not cached with detail
+	 * suiting its distance. The block is generated outside the map, under a
+	 * future claiming its key, so other threads wanting the same block wait
+	 * for it while those wanting other blocks carry on.
+	 *
+	 * @param x The x coordinate of the block.
+	 * @param z The z coordinate of the block.
+	 *
+	 * @return The block.
+	 */
+	private Chunk chunk(int x, int z) {
+		final Long key = (long)x << 32 | (z & 0xffffffffL);
+		final double distance = distance(x, z);
+		Chunk chunk;
+		while (true) {
+
+			// Uses the cached block, waiting for it if another thread is generating it
+			final CompletableFuture<Chunk> cached = chunks.get(key);
+			chunk = cached == null ? null : cached.join();
+			if (chunk != null && chunk.suits(distance))
+				break;
+
+			// Claims the key, then generates the block, unless another thread claimed it first
+			final CompletableFuture<Chunk> claim = new CompletableFuture<Chunk>();
+			if (cached == null ? chunks.putIfAbsent(key, claim) != null : !chunks.replace(key, cached, claim))
+				continue;
+			try {
+				chunk = generate(x, z, distance);
+			} catch (RuntimeException | Error e) {
+
+				// Gives up the key, sending any waiting threads to generate the block themselves
+				chunks.remove(key, claim);
+				claim.complete(null);
+				throw e;
+			}
+			claim.complete(chunk);
+			if (chunks.size() > capacity)
+				evict();
+			break;
+		}
+
+		// Dates the use, only writing when the date changes
+		final long now = tick.get();
+		if (chunk.lastUsed != now)
+			chunk.lastUsed = now;
+		return chunk;
+	}
+
+	/**
+	 * Computes the distance from the viewpoint to the nearest point of a block.
+	 *
+	 * @return The distance to the block, 0 from inside it or without a viewpoint.
+	 */
+	private double distance(int x, int z) {
+		final Vector3D point = viewpoint;
+		return point == null ? 0 : blockDistance(point, x, z, blockSize, minY, maxY);
+	}
+
+	/**
+	 * Computes the distance from a point to the nearest point of a block's
+	 * cell, between the given heights.
+	 *
+	 * @param point The point from which the block is seen.
+	 * @param x The x coordinate of the block.
+	 * @param z The z coordinate of the block.
+	 * @param blockSize The side length of each block's cell.
+	 * @param minY The lowest height of the block's primitives.
+	 * @param maxY The highest height of the block's primitives.
+	 *
+	 * @return The distance to the block, 0 from inside it.
+	 */
+	public static double blockDistance(Vector3D point, int x, int z, double blockSize, double minY, double maxY) {
+		final double dx = Math.max(0, Math.max(x*blockSize - point.x, point.x - (x+1)*blockSize));
+		final double dy = Math.max(0, Math.max(minY - point.y, point.y - maxY));
+		final double dz = Math.max(0, Math.max(z*blockSize - point.z, point.z - (z+1)*blockSize));
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	/**
+	 * Generates a block and the hierarchy over its primitives.
+	 */
+	private Chunk generate(int x, int z, double distance) {
+		final Chunk chunk = new Chunk(generator.generate(x, z, distance), tick.incrementAndGet());
+		Metrics.add(Metrics.CHUNKS_GENERATED, 1);
+		return chunk;
+	}
+
+	/**
+	 * Evicts the least recently used blocks, down to seven eighths of the
+	 * capacity so evictions happen in batches. Blocks still being generated
+	 * are kept.
+	 */
+	private synchronized void evict() {
+		final int excess = chunks.size() - (capacity - capacity/8);
+		if (chunks.size() <= capacity || excess <= 0)
+			return;
+
+		// Removes the blocks used longest ago
+		final List<Map.Entry<Long, Chunk>> entries = new ArrayList<Map.Entry<Long, Chunk>>();
+		for (Map.Entry<Long, CompletableFuture<Chunk>> entry : chunks.entrySet()) {
+			final Chunk chunk = entry.getValue().getNow(null);
+			if (chunk != null)
+				entries.add(Map.entry(entry.getKey(), chunk));
+		}
+		entries.sort((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed));
+		int evicted = 0;
+		for (int i = 0; i < excess && i < entries.size(); i++) {
+			final Long key = entries.get(i).getKey();
+			final CompletableFuture<Chunk> cached = chunks.get(key);
+			if (cached != null && cached.getNow(null) == entries.get(i).getValue() && chunks.remove(key, cached))
+				evicted++;
+		}
+		Metrics.add(Metrics.CHUNKS_EVICTED, evicted);
+	}
+
+	public Vector3D minBounds() {return min;}
+	public Vector3D maxBounds() {return max;}
+}
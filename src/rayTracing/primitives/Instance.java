@@ -0,0 +1,196 @@
+package rayTracing.primitives;
+
+import math.MutableVector3D;
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Material;
+import rayTracing.Record;
+
+/**
+ * A prototype placed in the scene by an affine transform, taking a material
+ * of its own. The scene's hierarchy holds the instances, each prototype's
+ * own hierarchy holds its primitives, and rays reaching an instance are
+ * carried into its prototype's object space to be traced there. An instance
+ * stores only its transform and bounds, so its memory is the same however
+ * many primitives its prototype holds.
+ *
+ * The object space ray keeps the transform's scale rather than being
+ * normalized, so t is the same in both spaces, and the prototype's
+ * primitives must not assume a normalized direction, which Prototype checks.
+ * The tests of triangles, meshes and quads for rays parallel to them compare
+ * against absolute epsilons, which the shorter object space direction of an
+ * instance scaled up by s meets at up to s times the world space angle.
+ *
+ * An instance can be moved between frames, after which the hierarchies
+ * holding it must be refit before rays are traced again.
+ */
+public class Instance implements Primitive {
+
+	/** The ray carried into object space on each thread, reused across rays. */
+	private static final ThreadLocal<Ray> OBJECT_RAYS = ThreadLocal.withInitial(Ray::new);
+
+	/** The prototype placed. */
+	public final Prototype prototype;
+
+	/** The material replacing the prototype's own. */
+	public final Material material;
+
+	/** Where the transform takes the object space origin. */
+	private Vector3D origin;
+
+	/** Where the transform takes each object space axis, relative to the origin. */
+	private Vector3D xAxis, yAxis, zAxis;
+
+	/** The rows of the inverse transform's linear part, the dual vectors of the axes. */
+	private double xx, xy, xz, yx, yy, yz, zx, zy, zz;
+
+	/** The object space coordinates of the world origin. */
+	private double xOffset, yOffset, zOffset;
+
+	/** The minimum bounds of the instance. */
+	private Vector3D min;
+
+	/** The maximum bounds of the instance. */
+	private Vector3D max;
+
+	/**
+	 * Places a prototype so each object space point (x, y, z) lands at
+	 * origin + x*xAxis + y*yAxis + z*zAxis.
+	 *
+	 * @param prototype The prototype to place.
+	 * @param origin Where the transform takes the object space origin.
+	 * @param xAxis Where the transform takes the x axis, relative to the origin.
+	 * @param yAxis Where the transform takes the y axis, relative to the origin.
+	 * @param zAxis Where the transform takes the z axis, relative to the origin.
+	 * @param material The material replacing the prototype's own.
+	 *
+	 * @throws IllegalArgumentException If the axes are not independent.
+	 */
+	public Instance(Prototype prototype, Vector3D origin, Vector3D xAxis, Vector3D yAxis, Vector3D zAxis, Material material) {
+		this.prototype = prototype;
+		this.material = material;
+		moveTo(origin, xAxis, yAxis, zAxis);
+	}
+
+	/**
+	 * Moves the instance so each object space point (x, y, z) lands at
+	 * origin + x*xAxis + y*yAxis + z*zAxis. The hierarchies holding the
+	 * instance must be refit before rays are traced again.
+	 *
+	 * @param origin Where the transform takes the object space origin.
+	 * @param xAxis Where the transform takes the x axis, relative to the origin.
+	 * @param yAxis Where the transform takes the y axis, relative to the origin.
+	 * @param zAxis Where the transform takes the z axis, relative to the origin.
+	 *
+	 * @throws IllegalArgumentException If the axes are not independent.
+	 */
+	public void moveTo(Vector3D origin, Vector3D xAxis, Vector3D yAxis, Vector3D zAxis) {
+
+		// Stores the dual basis, so (p-origin) . dual gives each coordinate
+		final double determinant = xAxis.dot(yAxis.cross(zAxis));
+		if (determinant == 0)
+			throw new IllegalArgumentException("Instance axes are not independent");
+		final Vector3D xDual = yAxis.cross(zAxis).scale(1/determinant);
+		final Vector3D yDual = zAxis.cross(xAxis).scale(1/determinant);
+		final Vector3D zDual = xAxis.cross(yAxis).scale(1/determinant);
+		xx = xDual.x; xy = xDual.y; xz = xDual.z;
+		yx = yDual.x; yy = yDual.y; yz = yDual.z;
+		zx = zDual.x; zy = zDual.y; zz = zDual.z;
+		xOffset = -xDual.dot(origin);
+		yOffset = -yDual.dot(origin);
+		zOffset = -zDual.dot(origin);
+		this.origin = origin;
+		this.xAxis = xAxis;
+		this.yAxis = yAxis;
+		this.zAxis = zAxis;
+
+		// Stores the bounds of the prototype's transformed corners
+		Vector3D min = null, max = null;
+		for (int i = 0; i < 8; i++) {
+			final Vector3D corner = origin
+				.add(xAxis.scale((i & 1) != 0 ? prototype.max.x : prototype.min.x))
+				.add(yAxis.scale((i & 2) != 0 ? prototype.max.y : prototype.min.y))
+				.add(zAxis.scale((i & 4) != 0 ? prototype.max.z : prototype.min.z));
+			min = min == null ? corner : Vector3D.min(min, corner);
+			max = max == null ? corner : Vector3D.max(max, corner);
+		}
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * @return Where the transform takes the object space origin.
+	 */
+	public Vector3D getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return Where the transform takes the object space x axis, relative to the origin.
+	 */
+	public Vector3D getXAxis() {
+		return xAxis;
+	}
+
+	/**
+	 * @return Where the transform takes the object space y axis, relative to the origin.
+	 */
+	public Vector3D getYAxis() {
+		return yAxis;
+	}
+
+	/**
+	 * @return Where the transform takes the object space z axis, relative to the origin.
+	 */
+	public Vector3D getZAxis() {
+		return zAxis;
+	}
+
+	public boolean intersects(Ray ray, double tMin, Record record) {
+		if (!prototype.bvh.findClosest(toObject(ray), tMin, record))
+			return false;
+		record.hitInstance(this);
+		return true;
+	}
+
+	public void resolve(Ray ray, Record record) {
+
+		// Resolves the hit in object space
+		record.getInstanced().resolve(toObject(ray), record);
+
+		// Carries the normal back by the inverse transpose
+		final MutableVector3D normal = record.getNormal();
+		final double nx = xx*normal.x + yx*normal.y + zx*normal.z;
+		final double ny = xy*normal.x + yy*normal.y + zy*normal.z;
+		final double nz = xz*normal.x + yz*normal.y + zz*normal.z;
+		final Material hitMaterial = record.getMaterial();
+		record.setSurface(nx, ny, nz, hitMaterial == prototype.material ? material : hitMaterial);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
+		return prototype.bvh.occluded(toObject(ray), tMin, tMax);
+	}
+
+	/**
+	 * Carries a ray into object space, in the calling thread's object ray.
+	 *
+	 * @param ray The ray in world space.
+	 *
+	 * @return The ray in object space, with a direction scaled by the transform.
+	 */
+	private Ray toObject(Ray ray) {
+		final MutableVector3D o = ray.origin;
+		final MutableVector3D d = ray.direction;
+		return OBJECT_RAYS.get().setUnnormalized(
+			xx*o.x + xy*o.y + xz*o.z + xOffset,
+			yx*o.x + yy*o.y + yz*o.z + yOffset,
+			zx*o.x + zy*o.y + zz*o.z + zOffset,
+			xx*d.x + xy*d.y + xz*d.z,
+			yx*d.x + yy*d.y + yz*d.z,
+			zx*d.x + zy*d.y + zz*d.z
+		);
+	}
+
+	public Vector3D minBounds() {return min;}
+	public Vector3D maxBounds() {return max;}
+}
@@ -0,0 +1,825 @@
+package rayTracing.primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Metrics;
+import rayTracing.Record;
+
+public class LinearBVH {
+
+	/** The number of ints stored per node. */
+	private static final int NODE_INTS = 4;
+
+	/** The offset of a node's first child index. */
+	private static final int FIRST_CHILD = 0;
+
+	/** The offset of a node's child count. */
+	private static final int CHILD_COUNT = 1;
+
+	/** The offset of a node's first primitive index. */
+	private static final int FIRST_PRIMITIVE = 2;
+
+	/** The offset of a node's primitive count. */
+	private static final int PRIMITIVE_COUNT = 3;
+
+	/** The growth in a refit subtree's surface area, since it was built, past which it is rebuilt. */
+	private static final double REBUILD_GROWTH = 2;
+
+	/** The bounds of each node, stored as (minX, minY, minZ, maxX, maxY, maxZ), then spare room. */
+	double[] bounds;
+
+	/** The child and primitive ranges of each node, then spare room. Children of a node are stored contiguously. */
+	int[] nodes;
+
+	/** The primitives, ordered so each node's primitives are contiguous, then spare room. */
+	Primitive[] primitives;
+
+	/** The metrics slot counting the tests of each primitive's class. */
+	private int[] testSlots;
+
+	/** The number of nodes laid out, including those left unreachable by rebuilds. */
+	private int nodeCount;
+
+	/** The number of primitives laid out, including those left unreachable by rebuilds. */
+	private int primitiveCount;
+
+	/** The number of nodes left unreachable by rebuilds. */
+	private int garbageNodes;
+
+	/** The most stack entries a traversal can need. */
+	private int stackSize;
+
+	/** What refitting needs to find the nodes above each primitive, made by the first refit. */
+	private RefitState refitState;
+
+	/**
+	 * Builds a hierarchy over the given primitives, with the root stored at
+	 * index 0.
+	 *
+	 * @param primitives The primitives to be built into the hierarchy.
+	 */
+	public LinearBVH(List<Primitive> primitives) {
+		bounds = new double[0];
+		nodes = new int[0];
+		this.primitives = new Primitive[0];
+		testSlots = new int[0];
+		nodeCount = 1;
+		layOut(primitives, 0);
+
+		// Sizes the traversal stacks for the worst path through the tree
+		stackSize = stackNeeded(0);
+	}
+
+	/**
+	 * Checks that each node's children come after it and its child and
+	 * primitive ranges lie within the hierarchy, as they do in every layout
+	 * built or compacted here.
+	 *
+	 * @param nodes The child and primitive ranges of each node.
+	 * @param primitiveCount The number of primitives.
+	 *
+	 * @return The first node breaking the layout, or -1 if none does.
+	 */
+	static int invalidNode(int[] nodes, int primitiveCount) {
+		final int nodeCount = nodes.length/NODE_INTS;
+		for (int node = 0; node < nodeCount; node++) {
+			final long firstChild = nodes[NODE_INTS*node + FIRST_CHILD];
+			final long childCount = nodes[NODE_INTS*node + CHILD_COUNT];
+			final long firstPrimitive = nodes[NODE_INTS*node + FIRST_PRIMITIVE];
+			final long count = nodes[NODE_INTS*node + PRIMITIVE_COUNT];
+			if (childCount < 0 || (childCount > 0 && (firstChild <= node || firstChild + childCount > nodeCount))
+				|| count < 0 || firstPrimitive < 0 || firstPrimitive + count > primitiveCount)
+				return node;
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates a hierarchy from arrays already laid out by another, such as
+	 * those read from a scene file.
+	 *
+	 * @param bounds The bounds of each node, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 * @param nodes The child and primitive ranges of each node.
+	 * @param primitives The primitives, ordered so each node's primitives are contiguous.
+	 */
+	LinearBVH(double[] bounds, int[] nodes, Primitive[] primitives) {
+		this.bounds = bounds;
+		this.nodes = nodes;
+		this.primitives = primitives;
+		nodeCount = bounds.length/6;
+		primitiveCount = primitives.length;
+		testSlots = new int[primitives.length];
+		for (int i = 0; i < primitives.length; i++)
+			testSlots[i] = Metrics.primitiveSlot(primitives[i].getClass());
+		stackSize = stackNeeded(0);
+	}
+
+	/**
+	 * Builds a hierarchy over the given primitives with BVHBuilder and lays it
+	 * out in place of the given node, appending its descendants and primitives
+	 * after those already laid out. Primitives without finite bounds are kept
+	 * at the root.
+	 *
+	 * @param subtree The primitives to be built into the hierarchy.
+	 * @param rootNode The index of the node the root replaces.
+	 */
+	private void layOut(List<Primitive> subtree, int rootNode) {
+
+		// Separates the primitives without finite bounds, which cannot be split
+		final ArrayList<Primitive> bounded = new ArrayList<Primitive>();
+		final ArrayList<Primitive> unbounded = new ArrayList<Primitive>();
+		for (Primitive primitive : subtree) {
+			if (BVHBuilder.isBounded(primitive))
+				bounded.add(primitive);
+			else
+				unbounded.add(primitive);
+		}
+		final BVHBuilder.FlatTree tree = bounded.isEmpty() ? null : BVHBuilder.buildFlat(BVHBuilder.bounds(bounded));
+		final int treeNodes = tree == null ? 1 : tree.nodes.length/2;
+
+		// Orders the built nodes breadth first, keeping siblings next to each other
+		final int[] order = new int[treeNodes];
+		final int[] firstChild = new int[treeNodes];
+		int ordered = 1;
+		for (int i = 0; i < ordered; i++) {
+			firstChild[i] = ordered;
+			if (tree != null && tree.nodes[2*order[i]+1] == 0) {
+				order[ordered++] = tree.nodes[2*order[i]];
+				order[ordered++] = tree.nodes[2*order[i]]+1;
+			}
+		}
+
+		// Makes room for every node but the root, which takes the given node's place
+		final int base = nodeCount-1;
+		ensureCapacity(nodeCount + treeNodes-1, primitiveCount + subtree.size());
+
+		// Stores each node's bounds and ranges, the root also holding the unbounded primitives
+		for (int i = 0; i < treeNodes; i++) {
+			final int node = i == 0 ? rootNode : base+i;
+			final int flat = order[i];
+			final boolean leaf = tree == null || tree.nodes[2*flat+1] > 0;
+			if (tree != null) {
+				System.arraycopy(tree.bounds, 6*flat, bounds, 6*node, 6);
+			} else {
+				for (int axis = 0; axis < 3; axis++) {
+					bounds[6*node+axis] = Double.POSITIVE_INFINITY;
+					bounds[6*node+axis+3] = Double.NEGATIVE_INFINITY;
+				}
+			}
+			nodes[NODE_INTS*node + FIRST_CHILD] = base+firstChild[i];
+			nodes[NODE_INTS*node + CHILD_COUNT] = leaf ? 0 : 2;
+			nodes[NODE_INTS*node + FIRST_PRIMITIVE] = primitiveCount;
+			if (tree != null && leaf) {
+				for (int j = tree.nodes[2*flat]; j < tree.nodes[2*flat] + tree.nodes[2*flat+1]; j++)
+					append(bounded.get(tree.order[j]));
+			}
+			if (i == 0) {
+				for (Primitive primitive : unbounded) {
+					append(primitive);
+					growBounds(node, primitive);
+				}
+			}
+			nodes[NODE_INTS*node + PRIMITIVE_COUNT] = primitiveCount - nodes[NODE_INTS*node + FIRST_PRIMITIVE];
+		}
+		nodeCount += treeNodes-1;
+	}
+
+	/**
+	 * Adds a primitive after those already laid out.
+	 */
+	private void append(Primitive primitive) {
+		primitives[primitiveCount] = primitive;
+		testSlots[primitiveCount++] = Metrics.primitiveSlot(primitive.getClass());
+	}
+
+	/**
+	 * Grows the arrays to hold at least the given numbers of nodes and
+	 * primitives, by half again if they must grow at all.
+	 */
+	private void ensureCapacity(int nodesNeeded, int primitivesNeeded) {
+		final int nodeCapacity = bounds.length/6;
+		if (nodesNeeded > nodeCapacity) {
+			final int capacity = nodeCapacity == 0 ? nodesNeeded : Math.max(nodesNeeded, nodeCapacity + nodeCapacity/2);
+			bounds = Arrays.copyOf(bounds, 6*capacity);
+			nodes = Arrays.copyOf(nodes, NODE_INTS*capacity);
+		}
+		if (primitivesNeeded > primitives.length) {
+			final int capacity = primitives.length == 0 ? primitivesNeeded : Math.max(primitivesNeeded, primitives.length + primitives.length/2);
+			primitives = Arrays.copyOf(primitives, capacity);
+			testSlots = Arrays.copyOf(testSlots, capacity);
+		}
+	}
+
+	/**
+	 * @return The number of nodes in the hierarchy, including any left unreachable by rebuilds.
+	 */
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Finds the closest intersection of the ray with the primitives.
+	 *
+	 * @param ray The ray to intersect.
+	 * @param record The record of the closest intersection so far, to be modified.
+	 *
+	 * @return Whether a new closest intersection happens.
+	 */
+	public boolean closestHit(Ray ray, Record record) {
+		return closestHit(ray, 0, record);
+	}
+
+	/**
+	 * Finds the closest intersection of the ray with the primitives, visiting
+	 * children front-to-back and skipping nodes beyond the closest hit so far.
+	 * The normal and material are only resolved for the final closest hit.
+	 *
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param record The record of the closest intersection so far, to be modified.
+	 *
+	 * @return Whether a new closest intersection happens.
+	 */
+	public boolean closestHit(Ray ray, double tMin, Record record) {
+		if (!findClosest(ray, tMin, record))
+			return false;
+		record.resolve(ray);
+		return true;
+	}
+
+	/**
+	 * Finds the closest intersection of the ray with the primitives like
+	 * closestHit, but leaves the hit unresolved, for hierarchies nested inside
+	 * a primitive whose own caller resolves the final hit.
+	 *
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param record The record of the closest intersection so far, to be modified.
+	 *
+	 * @return Whether a new closest intersection happens.
+	 */
+	public boolean findClosest(Ray ray, double tMin, Record record) {
+
+		// Checks the root
+		final double rootEntry = entry(0, ray, tMin, record.getT());
+		if (rootEntry == Double.POSITIVE_INFINITY) return false;
+
+		// Prepares the stack
+		final TraversalStack stack = TraversalStack.acquire(stackSize);
+		final int[] nodeStack = stack.nodes;
+		final double[] entryStack = stack.entries;
+		final long[] counts = stack.counts;
+		nodeStack[0] = 0;
+		entryStack[0] = rootEntry;
+		int top = 1;
+
+		boolean hit = false;
+		int visited = 0, tests = 0;
+		try {
+			while (top > 0) {
+
+				// Skips nodes entered beyond the closest hit
+				top--;
+				if (entryStack[top] > record.getT()) continue;
+				final int node = NODE_INTS*nodeStack[top];
+				visited++;
+
+				// Tests the node's primitives
+				final int firstPrimitive = nodes[node + FIRST_PRIMITIVE];
+				final int lastPrimitive = firstPrimitive + nodes[node + PRIMITIVE_COUNT];
+				tests += lastPrimitive-firstPrimitive;
+				for (int i = firstPrimitive; i < lastPrimitive; i++) {
+					counts[testSlots[i]]++;
+					if (primitives[i].intersects(ray, tMin, record)) {
+						counts[testSlots[i]+1]++;
+						hit = true;
+					}
+				}
+
+				// Pushes the intersected children, nearest on top
+				final int firstChild = nodes[node + FIRST_CHILD];
+				final int childCount = nodes[node + CHILD_COUNT];
+				if (childCount == 2) {
+					final double entry1 = entry(firstChild, ray, tMin, record.getT());
+					final double entry2 = entry(firstChild+1, ray, tMin, record.getT());
+					final boolean firstNearer = entry1 <= entry2;
+					final double farEntry = firstNearer ? entry2 : entry1;
+					final double nearEntry = firstNearer ? entry1 : entry2;
+					if (farEntry != Double.POSITIVE_INFINITY) {
+						nodeStack[top] = firstNearer ? firstChild+1 : firstChild;
+						entryStack[top++] = farEntry;
+					}
+					if (nearEntry != Double.POSITIVE_INFINITY) {
+						nodeStack[top] = firstNearer ? firstChild : firstChild+1;
+						entryStack[top++] = nearEntry;
+					}
+				} else {
+					for (int child = firstChild+childCount-1; child >= firstChild; child--) {
+						final double entry = entry(child, ray, tMin, record.getT());
+						if (entry != Double.POSITIVE_INFINITY) {
+							nodeStack[top] = child;
+							entryStack[top++] = entry;
+						}
+					}
+				}
+			}
+		} finally {
+			stack.release();
+		}
+		counts[Metrics.NODES_VISITED] += visited;
+		counts[Metrics.PRIMITIVE_TESTS] += tests;
+		return hit;
+	}
+
+	/**
+	 * Checks whether any primitive blocks the ray before the given t.
+	 *
+	 * @param ray The ray to check.
+	 * @param maxT The t before which a blocking intersection must happen.
+	 *
+	 * @return Whether the ray is blocked.
+	 */
+	public boolean occluded(Ray ray, double maxT) {
+		return occluded(ray, 0, maxT);
+	}
+
+	/**
+	 * Checks whether any primitive blocks the ray within the given range,
+	 * stopping at the first blocker found.
+	 *
+	 * @param ray The ray to check.
+	 * @param tMin The minimum t for a blocking intersection.
+	 * @param maxT The t before which a blocking intersection must happen.
+	 *
+	 * @return Whether the ray is blocked.
+	 */
+	public boolean occluded(Ray ray, double tMin, double maxT) {
+
+		// Checks the root
+		if (entry(0, ray, tMin, maxT) == Double.POSITIVE_INFINITY) return false;
+
+		// Prepares the stack
+		final TraversalStack stack = TraversalStack.acquire(stackSize);
+		final int[] nodeStack = stack.nodes;
+		final long[] counts = stack.counts;
+		nodeStack[0] = 0;
+		int top = 1;
+
+		int visited = 0, tests = 0;
+		boolean blocked = false;
+		try {
+			search:
+			while (top > 0) {
+				final int node = NODE_INTS*nodeStack[--top];
+				visited++;
+
+				// Tests the node's primitives
+				final int firstPrimitive = nodes[node + FIRST_PRIMITIVE];
+				final int lastPrimitive = firstPrimitive + nodes[node + PRIMITIVE_COUNT];
+				for (int i = firstPrimitive; i < lastPrimitive; i++) {
+					tests++;
+					counts[testSlots[i]]++;
+					if (primitives[i].occludes(ray, tMin, maxT)) {
+						counts[testSlots[i]+1]++;
+						blocked = true;
+						break search;
+					}
+				}
+
+				// Pushes the intersected children
+				final int firstChild = nodes[node + FIRST_CHILD];
+				for (int child = firstChild+nodes[node + CHILD_COUNT]-1; child >= firstChild; child--)
+					if (entry(child, ray, tMin, maxT) != Double.POSITIVE_INFINITY)
+						nodeStack[top++] = child;
+			}
+		} finally {
+			stack.release();
+		}
+		counts[Metrics.NODES_VISITED] += visited;
+		counts[Metrics.PRIMITIVE_TESTS] += tests;
+		return blocked;
+	}
+
+	/**
+	 * Updates the hierarchy after the given primitives have moved, refitting
+	 * the bounds of only the nodes above them, from the bottom up. Any subtree
+	 * whose surface area has grown past REBUILD_GROWTH times what it was when
+	 * built is then rebuilt, its new nodes appended after the others, and the
+	 * arrays are compacted once unreachable nodes outnumber reachable ones.
+	 * The work done is proportional to the primitives moved, the depth of the
+	 * hierarchy and the subtrees rebuilt, not to the size of the scene.
+	 *
+	 * Rays must not be traced through the hierarchy while it is refit.
+	 *
+	 * @param moved The primitives whose bounds have changed.
+	 *
+	 * @throws IllegalArgumentException If a primitive is not in the hierarchy.
+	 */
+	public void refit(Collection<? extends Primitive> moved) {
+		final long start = System.nanoTime();
+		if (refitState == null)
+			refitState = new RefitState(null, null);
+		final RefitState state = refitState;
+
+		// Marks the nodes above the moved primitives
+		final int epoch = ++state.epoch;
+		int[] dirty = new int[16];
+		int dirtyCount = 0;
+		for (Primitive primitive : moved) {
+			final Integer slot = state.slots.get(primitive);
+			if (slot == null)
+				throw new IllegalArgumentException("Primitive not in the hierarchy: " + primitive);
+			for (int node = state.leafOf[slot]; node >= 0 && state.marks[node] != epoch; node = state.parents[node]) {
+				state.marks[node] = epoch;
+				if (dirtyCount == dirty.length)
+					dirty = Arrays.copyOf(dirty, 2*dirtyCount);
+				dirty[dirtyCount++] = node;
+			}
+		}
+
+		// Refits the marked nodes, children before their parents
+		Arrays.sort(dirty, 0, dirtyCount);
+		for (int i = dirtyCount-1; i >= 0; i--)
+			refitNode(dirty[i]);
+
+		// Rebuilds the highest subtrees that have grown too much
+		int rebuilt = 0;
+		for (int i = 0; i < dirtyCount; i++) {
+			final int node = dirty[i];
+			if (nodes[NODE_INTS*node + CHILD_COUNT] > 0 && area(node) > REBUILD_GROWTH*state.builtAreas[node]
+				&& !insideRebuilt(node, epoch)) {
+				rebuild(node);
+				state.marks[node] = -epoch;
+				rebuilt++;
+			}
+		}
+		if (garbageNodes > nodeCount-garbageNodes)
+			compact();
+
+		final long[] counts = Metrics.counts();
+		counts[Metrics.NODES_REFIT] += dirtyCount;
+		counts[Metrics.SUBTREES_REBUILT] += rebuilt;
+		counts[Metrics.REFIT_NANOS] += System.nanoTime()-start;
+	}
+
+	/**
+	 * Lays the reachable nodes out again with nothing between them, in the
+	 * same order a new hierarchy over them would have, and trims the arrays.
+	 */
+	public void compact() {
+		if (garbageNodes == 0 && bounds.length == 6*nodeCount && primitives.length == primitiveCount)
+			return;
+
+		// Orders the reachable nodes, keeping siblings next to each other
+		final int reachable = nodeCount-garbageNodes;
+		final int[] order = new int[reachable];
+		final int[] firstChild = new int[reachable];
+		int ordered = 1;
+		for (int i = 0; i < ordered; i++) {
+			firstChild[i] = ordered;
+			final int node = NODE_INTS*order[i];
+			for (int c = 0; c < nodes[node + CHILD_COUNT]; c++)
+				order[ordered++] = nodes[node + FIRST_CHILD]+c;
+		}
+
+		// Copies each node's bounds, ranges and primitives
+		final double[] newBounds = new double[6*reachable];
+		final int[] newNodes = new int[NODE_INTS*reachable];
+		final Primitive[] newPrimitives = new Primitive[primitiveCount];
+		final int[] newSlots = new int[primitiveCount];
+		int newPrimitiveCount = 0;
+		for (int i = 0; i < reachable; i++) {
+			final int node = NODE_INTS*order[i];
+			System.arraycopy(bounds, 6*order[i], newBounds, 6*i, 6);
+			newNodes[NODE_INTS*i + FIRST_CHILD] = firstChild[i];
+			newNodes[NODE_INTS*i + CHILD_COUNT] = nodes[node + CHILD_COUNT];
+			newNodes[NODE_INTS*i + FIRST_PRIMITIVE] = newPrimitiveCount;
+			newNodes[NODE_INTS*i + PRIMITIVE_COUNT] = nodes[node + PRIMITIVE_COUNT];
+			System.arraycopy(primitives, nodes[node + FIRST_PRIMITIVE], newPrimitives, newPrimitiveCount, nodes[node + PRIMITIVE_COUNT]);
+			System.arraycopy(testSlots, nodes[node + FIRST_PRIMITIVE], newSlots, newPrimitiveCount, nodes[node + PRIMITIVE_COUNT]);
+			newPrimitiveCount += nodes[node + PRIMITIVE_COUNT];
+		}
+		bounds = newBounds;
+		nodes = newNodes;
+		primitives = Arrays.copyOf(newPrimitives, newPrimitiveCount);
+		testSlots = Arrays.copyOf(newSlots, newPrimitiveCount);
+		nodeCount = reachable;
+		primitiveCount = newPrimitiveCount;
+		garbageNodes = 0;
+
+		// Keeps the areas the nodes were built with
+		if (refitState != null)
+			refitState = new RefitState(refitState.builtAreas, order);
+	}
+
+	/**
+	 * Recomputes a node's bounds from its primitives and children.
+	 */
+	private void refitNode(int node) {
+		final int b = 6*node;
+		for (int axis = 0; axis < 3; axis++) {
+			bounds[b+axis] = Double.POSITIVE_INFINITY;
+			bounds[b+axis+3] = Double.NEGATIVE_INFINITY;
+		}
+		final int firstPrimitive = nodes[NODE_INTS*node + FIRST_PRIMITIVE];
+		for (int i = firstPrimitive; i < firstPrimitive + nodes[NODE_INTS*node + PRIMITIVE_COUNT]; i++)
+			growBounds(node, primitives[i]);
+		final int firstChild = nodes[NODE_INTS*node + FIRST_CHILD];
+		for (int child = firstChild; child < firstChild + nodes[NODE_INTS*node + CHILD_COUNT]; child++) {
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[b+axis] = Math.min(bounds[b+axis], bounds[6*child+axis]);
+				bounds[b+axis+3] = Math.max(bounds[b+axis+3], bounds[6*child+axis+3]);
+			}
+		}
+	}
+
+	/**
+	 * Grows a node's bounds to contain the given primitive.
+	 */
+	private void growBounds(int node, Primitive primitive) {
+		final int b = 6*node;
+		final Vector3D min = primitive.minBounds();
+		final Vector3D max = primitive.maxBounds();
+		bounds[b]   = Math.min(bounds[b], min.x);
+		bounds[b+1] = Math.min(bounds[b+1], min.y);
+		bounds[b+2] = Math.min(bounds[b+2], min.z);
+		bounds[b+3] = Math.max(bounds[b+3], max.x);
+		bounds[b+4] = Math.max(bounds[b+4], max.y);
+		bounds[b+5] = Math.max(bounds[b+5], max.z);
+	}
+
+	/**
+	 * Rebuilds the subtree under a node from scratch, laying its new
+	 * descendants out after every other node and leaving the old ones
+	 * unreachable.
+	 *
+	 * @param node The index of the subtree's root, which keeps its index.
+	 */
+	private void rebuild(int node) {
+		final RefitState state = refitState;
+
+		// Gathers the subtree's primitives, counting the nodes left behind
+		final ArrayList<Primitive> subtree = new ArrayList<Primitive>();
+		final int[] pending = new int[nodeCount-node];
+		int top = 0;
+		pending[top++] = node;
+		while (top > 0) {
+			final int n = NODE_INTS*pending[--top];
+			for (int i = nodes[n + FIRST_PRIMITIVE]; i < nodes[n + FIRST_PRIMITIVE] + nodes[n + PRIMITIVE_COUNT]; i++)
+				subtree.add(primitives[i]);
+			for (int c = 0; c < nodes[n + CHILD_COUNT]; c++)
+				pending[top++] = nodes[n + FIRST_CHILD]+c;
+			if (n != NODE_INTS*node)
+				garbageNodes++;
+		}
+
+		// Builds the subtree again
+		final int firstNew = nodeCount;
+		layOut(subtree, node);
+
+		// Records where the new nodes and primitives are
+		state.ensureCapacity();
+		for (int n = firstNew-1; n < nodeCount; n++) {
+			final int current = n < firstNew ? node : n;
+			final int firstChild = nodes[NODE_INTS*current + FIRST_CHILD];
+			for (int child = firstChild; child < firstChild + nodes[NODE_INTS*current + CHILD_COUNT]; child++)
+				state.parents[child] = current;
+			final int firstPrimitive = nodes[NODE_INTS*current + FIRST_PRIMITIVE];
+			for (int i = firstPrimitive; i < firstPrimitive + nodes[NODE_INTS*current + PRIMITIVE_COUNT]; i++) {
+				state.leafOf[i] = current;
+				state.slots.put(primitives[i], i);
+			}
+			state.builtAreas[current] = area(current);
+		}
+
+		// Makes sure traversals ask for stacks that fit the deepest path through the new subtree
+		int needed = stackNeeded(node);
+		for (int n = node; state.parents[n] >= 0; n = state.parents[n])
+			needed += nodes[NODE_INTS*state.parents[n] + CHILD_COUNT]-1;
+		stackSize = Math.max(stackSize, needed);
+	}
+
+	/**
+	 * @return Whether a node is below a subtree already rebuilt in the given refit.
+	 */
+	private boolean insideRebuilt(int node, int epoch) {
+		for (int n = refitState.parents[node]; n >= 0; n = refitState.parents[n])
+			if (refitState.marks[n] == -epoch)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return The surface area of the given node.
+	 */
+	private double area(int node) {
+		final int b = 6*node;
+		final double dx = bounds[b+3]-bounds[b];
+		final double dy = bounds[b+4]-bounds[b+1];
+		final double dz = bounds[b+5]-bounds[b+2];
+		return dx < 0 ? 0 : 2*(dx*dy + dy*dz + dz*dx);
+	}
+
+	/**
+	 * Computes where the ray enters the given node within the range of t.
+	 *
+	 * @param node The index of the node.
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The maximum t for an intersection.
+	 *
+	 * @return The t at which the ray enters the node, or Double.POSITIVE_INFINITY on a miss.
+	 */
+	private double entry(int node, Ray ray, double tMin, double tMax) {
+		return entry(bounds, node, ray, tMin, tMax);
+	}
+
+	/**
+	 * Computes where the ray enters a box within the range of t.
+	 *
+	 * @param bounds The boxes, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 * @param box The index of the box.
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The maximum t for an intersection.
+	 *
+	 * @return The t at which the ray enters the box, or Double.POSITIVE_INFINITY on a miss.
+	 */
+	static double entry(double[] bounds, int box, Ray ray, double tMin, double tMax) {
+		final int b = 6*box;
+
+		// Computes the slab t values
+		final double tx1 = ray.tAtX(bounds[b]);
+		final double tx2 = ray.tAtX(bounds[b+3]);
+		final double ty1 = ray.tAtY(bounds[b+1]);
+		final double ty2 = ray.tAtY(bounds[b+4]);
+		final double tz1 = ray.tAtZ(bounds[b+2]);
+		final double tz2 = ray.tAtZ(bounds[b+5]);
+
+		// Intersects the slabs
+		final double tStart = Math.max(Math.max(Math.min(tx1, tx2), Math.min(ty1, ty2)), Math.min(tz1, tz2));
+		final double tEnd = Math.min(Math.min(Math.max(tx1, tx2), Math.max(ty1, ty2)), Math.max(tz1, tz2));
+
+		// Checks for misses
+		if (tStart > tEnd || tEnd < tMin || tStart > tMax || bounds[b] > bounds[b+3])
+			return Double.POSITIVE_INFINITY;
+		return tStart;
+	}
+
+	/**
+	 * Computes the most stack entries a traversal below the given node can hold at once.
+	 *
+	 * @param node The index of the node.
+	 *
+	 * @return The stack entries needed, including the node's own.
+	 */
+	private int stackNeeded(int node) {
+		final int firstChild = nodes[NODE_INTS*node + FIRST_CHILD];
+		final int childCount = nodes[NODE_INTS*node + CHILD_COUNT];
+		int needed = 1;
+		for (int child = firstChild; child < firstChild+childCount; child++)
+			needed = Math.max(needed, childCount-1 + stackNeeded(child));
+		return needed;
+	}
+
+	/**
+	 * The parent of each node and the leaf holding each primitive, so a refit
+	 * can walk up from the primitives moved, and the area each node had when
+	 * built, to tell when it has grown too much.
+	 */
+	private class RefitState {
+
+		/** The parent of each node, or -1 for the root and unreachable nodes. */
+		int[] parents;
+
+		/** The leaf holding each primitive slot. */
+		int[] leafOf;
+
+		/** The slot of each reachable primitive. */
+		final Map<Primitive, Integer> slots = new IdentityHashMap<Primitive, Integer>();
+
+		/** The surface area of each node when it was built. */
+		double[] builtAreas;
+
+		/** The refit in which each node was last marked, negated if rebuilt by it. */
+		int[] marks;
+
+		/** The number of refits so far. */
+		int epoch;
+
+		/**
+		 * Walks the reachable nodes to find each one's parent and primitives.
+		 *
+		 * @param oldAreas The areas each node was built with before compaction, or null to take the current areas.
+		 * @param oldIndices The index each node had before compaction, if oldAreas is given.
+		 */
+		RefitState(double[] oldAreas, int[] oldIndices) {
+			parents = new int[bounds.length/6];
+			leafOf = new int[primitives.length];
+			builtAreas = new double[bounds.length/6];
+			marks = new int[bounds.length/6];
+			Arrays.fill(parents, -1);
+			for (int node = 0; node < nodeCount; node++) {
+				if (node > 0 && parents[node] < 0) continue;
+				final int firstChild = nodes[NODE_INTS*node + FIRST_CHILD];
+				for (int child = firstChild; child < firstChild + nodes[NODE_INTS*node + CHILD_COUNT]; child++)
+					parents[child] = node;
+				final int firstPrimitive = nodes[NODE_INTS*node + FIRST_PRIMITIVE];
+				for (int i = firstPrimitive; i < firstPrimitive + nodes[NODE_INTS*node + PRIMITIVE_COUNT]; i++) {
+					leafOf[i] = node;
+					slots.put(primitives[i], i);
+				}
+				builtAreas[node] = oldAreas == null ? area(node) : oldAreas[oldIndices[node]];
+			}
+		}
+
+		/**
+		 * Grows the arrays to cover every node and primitive slot laid out.
+		 */
+		void ensureCapacity() {
+			if (parents.length < bounds.length/6) {
+				final int oldLength = parents.length;
+				parents = Arrays.copyOf(parents, bounds.length/6);
+				Arrays.fill(parents, oldLength, parents.length, -1);
+				builtAreas = Arrays.copyOf(builtAreas, bounds.length/6);
+				marks = Arrays.copyOf(marks, bounds.length/6);
+			}
+			if (leafOf.length < primitives.length)
+				leafOf = Arrays.copyOf(leafOf, primitives.length);
+		}
+	}
+
+	/**
+	 * A stack of nodes waiting to be visited. Each thread has one stack for
+	 * its outermost traversals, shared by every hierarchy and mesh, and one
+	 * more for each level of traversals nested inside the primitives of
+	 * another, such as those of an instance's prototype. Stacks grow to fit
+	 * the largest traversal that takes them.
+	 */
+	static class TraversalStack {
+
+		/** The stack of each thread's outermost traversals. */
+		private static final ThreadLocal<TraversalStack> STACKS = ThreadLocal.withInitial(TraversalStack::new);
+
+		/** The indices of the nodes to visit. */
+		int[] nodes = new int[0];
+
+		/** The t at which the ray enters each node to visit. */
+		double[] entries = new double[0];
+
+		/** The entries of a WideBVH node's children, filled in by WideTests. */
+		final double[] wideEntries = new double[WideBVH.WIDTH];
+
+		/** Room for WideTests to gather a lane of floats per triangle. */
+		final float[] wideLanes = new float[WideBVH.WIDTH];
+
+		/** The t of the last hit found by WideTests.closestTriangle. */
+		double hitT;
+
+		/** The metrics counts of the thread owning the stack. */
+		final long[] counts = Metrics.counts();
+
+		/** Whether a traversal holds the stack. */
+		private boolean taken;
+
+		/** The stack for traversals nested inside those holding this one, made when first needed. */
+		private TraversalStack nested;
+
+		/**
+		 * Takes the calling thread's stack for a traversal, the first not held
+		 * by the traversals it is nested in, grown to the given size if smaller.
+		 *
+		 * @param size The most entries the traversal can need.
+		 *
+		 * @return The stack, to be released in a finally block when the traversal ends.
+		 */
+		static TraversalStack acquire(int size) {
+			TraversalStack stack = STACKS.get();
+			while (stack.taken) {
+				if (stack.nested == null)
+					stack.nested = new TraversalStack();
+				stack = stack.nested;
+			}
+			if (stack.nodes.length < size) {
+				stack.nodes = new int[size];
+				stack.entries = new double[size];
+			}
+			stack.taken = true;
+			return stack;
+		}
+
+		/**
+		 * Gives the stack back once its traversal ends.
+		 */
+		void release() {
+			taken = false;
+		}
+	}
+}
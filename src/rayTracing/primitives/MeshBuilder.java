@@ -0,0 +1,141 @@
+package rayTracing.primitives;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rayTracing.Material;
+
+/**
+ * Collects the shared vertices of a triangle mesh and the triangles that
+ * index them, in flat arrays grown as needed. A vertex used by several
+ * triangles is stored once, and each triangle takes the material last set.
+ */
+public class MeshBuilder {
+
+	/** The (x, y, z) coordinates of each vertex. */
+	float[] positions;
+
+	/** The number of vertices added. */
+	int vertices;
+
+	/** The indices of each triangle's three vertices. */
+	int[] indices;
+
+	/** The index of each triangle's material in the material table. */
+	private int[] materialIndices;
+
+	/** The number of triangles added. */
+	int triangles;
+
+	/** The index of each distinct material in the material table. */
+	private final Map<Material, Integer> materials = new IdentityHashMap<Material, Integer>();
+
+	/** The distinct materials, in the order they were first set. */
+	private final List<Material> materialTable = new ArrayList<Material>();
+
+	/** The index of the material of the triangles being added. */
+	private int material = -1;
+
+	/**
+	 * Creates a builder with room for the given numbers of vertices and
+	 * triangles, which it grows past if needed.
+	 *
+	 * @param vertices The number of vertices expected.
+	 * @param triangles The number of triangles expected.
+	 */
+	public MeshBuilder(int vertices, int triangles) {
+		positions = new float[3*Math.max(vertices, 1)];
+		indices = new int[3*Math.max(triangles, 1)];
+		materialIndices = new int[Math.max(triangles, 1)];
+	}
+
+	/**
+	 * @return The number of vertices added.
+	 */
+	public int vertexCount() {
+		return vertices;
+	}
+
+	/**
+	 * @return The number of triangles added.
+	 */
+	public int triangleCount() {
+		return triangles;
+	}
+
+	/**
+	 * Adds a vertex.
+	 *
+	 * @return The index of the vertex.
+	 */
+	public int addVertex(double x, double y, double z) {
+		if (3*vertices+3 > positions.length)
+			positions = Arrays.copyOf(positions, 2*positions.length);
+		positions[3*vertices] = (float) x;
+		positions[3*vertices+1] = (float) y;
+		positions[3*vertices+2] = (float) z;
+		return vertices++;
+	}
+
+	/** @return The x coordinate of the given vertex. */
+	public double x(int vertex) {return positions[3*vertex];}
+
+	/** @return The y coordinate of the given vertex. */
+	public double y(int vertex) {return positions[3*vertex+1];}
+
+	/** @return The z coordinate of the given vertex. */
+	public double z(int vertex) {return positions[3*vertex+2];}
+
+	/**
+	 * Sets the material of the triangles added from now on.
+	 *
+	 * @param material The material.
+	 */
+	public void setMaterial(Material material) {
+		Integer index = materials.get(material);
+		if (index == null) {
+			index = materialTable.size();
+			materials.put(material, index);
+			materialTable.add(material);
+		}
+		this.material = index;
+	}
+
+	/**
+	 * Adds a triangle of the given vertices, ordered like those of a Triangle.
+	 *
+	 * @param a The index of the first vertex.
+	 * @param b The index of the second vertex.
+	 * @param c The index of the third vertex.
+	 */
+	public void addTriangle(int a, int b, int c) {
+		if (material < 0)
+			throw new IllegalStateException("No material set");
+		if (3*triangles+3 > indices.length) {
+			indices = Arrays.copyOf(indices, 2*indices.length);
+			materialIndices = Arrays.copyOf(materialIndices, 2*materialIndices.length);
+		}
+		indices[3*triangles] = a;
+		indices[3*triangles+1] = b;
+		indices[3*triangles+2] = c;
+		materialIndices[triangles++] = material;
+	}
+
+	/**
+	 * Builds the mesh of the triangles added. The builder's arrays are
+	 * released, so it cannot be used again.
+	 *
+	 * @return The mesh.
+	 */
+	public TriangleMesh build() {
+		final int[] meshMaterials = materialIndices.length == triangles ? materialIndices : Arrays.copyOf(materialIndices, triangles);
+		materialIndices = null;
+		final TriangleMesh mesh = new TriangleMesh(positions, indices, meshMaterials, materialTable.toArray(new Material[0]));
+		positions = null;
+		indices = null;
+		return mesh;
+	}
+}
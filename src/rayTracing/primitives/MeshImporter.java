@@ -0,0 +1,543 @@
+package rayTracing.primitives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import math.Vector3D;
+import rayTracing.Material;
+
+/**
+ * Imports triangle meshes from Wavefront OBJ and binary PLY files. Files are
+ * streamed through a fixed buffer and parsed byte by byte straight into a
+ * MeshBuilder's flat vertex and index arrays, so importing holds no object
+ * per vertex or triangle and, beyond the buffer, only the arrays the mesh is
+ * built from.
+ * Polygons are split into fans of triangles.
+ *
+ * Only vertex positions and faces are read. Normals, texture coordinates,
+ * groups and materials in the file are skipped, and the whole mesh takes the
+ * material given.
+ */
+public class MeshImporter {
+
+	/** The size of the buffer files are streamed through. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The vertices and triangles read. */
+	private final MeshBuilder builder;
+
+	private MeshImporter(int vertices, int triangles, Material material) {
+		builder = new MeshBuilder(vertices, triangles);
+		builder.setMaterial(material);
+	}
+
+	/**
+	 * Imports the mesh in the given file, keeping its coordinates.
+	 *
+	 * @param file The OBJ or PLY file, told apart by its extension.
+	 * @param material The material of the whole mesh.
+	 *
+	 * @return The mesh.
+	 *
+	 * @throws IOException If the file cannot be read or is not a mesh this can import.
+	 */
+	public static TriangleMesh load(File file, Material material) throws IOException {
+		return read(file, material).mesh();
+	}
+
+	/**
+	 * Imports the mesh in the given file, scaling it to the given height and
+	 * standing it on the given point, such as a landmark placed in the city.
+	 *
+	 * @param file The OBJ or PLY file, told apart by its extension.
+	 * @param material The material of the whole mesh.
+	 * @param base The point the middle of the mesh's base is moved to.
+	 * @param height The height the mesh is scaled to, keeping its proportions.
+	 *
+	 * @return The placed mesh.
+	 *
+	 * @throws IOException If the file cannot be read or is not a mesh this can import.
+	 */
+	public static TriangleMesh load(File file, Material material, Vector3D base, double height) throws IOException {
+		final MeshImporter importer = read(file, material);
+		importer.place(base, height);
+		return importer.mesh();
+	}
+
+	/**
+	 * Reads the vertices and faces of the given file.
+	 */
+	private static MeshImporter read(File file, Material material) throws IOException {
+		final String name = file.getName().toLowerCase();
+		if (name.endsWith(".obj")) {
+
+			// Counts the vertices and triangles first, so the arrays are allocated once
+			final int[] counts;
+			try (Source in = new Source(file)) {
+				counts = countObj(in);
+			}
+			final MeshImporter importer = new MeshImporter(counts[0], counts[1], material);
+			try (Source in = new Source(file)) {
+				importer.readObj(in);
+			}
+			return importer;
+		}
+		if (name.endsWith(".ply")) {
+			try (Source in = new Source(file)) {
+				return readPly(in, material);
+			}
+		}
+		throw new IOException("Unknown mesh format: " + file);
+	}
+
+	/**
+	 * Builds the mesh from the vertices and triangles read.
+	 */
+	private TriangleMesh mesh() throws IOException {
+		if (builder.triangles == 0)
+			throw new IOException("The mesh has no faces");
+		for (int i = 0; i < 3*builder.triangles; i++)
+			if (builder.indices[i] < 0 || builder.indices[i] >= builder.vertices)
+				throw new IOException("A face refers to a missing vertex");
+		return builder.build();
+	}
+
+	/**
+	 * Scales and moves the vertices so the mesh stands on the base with the given height.
+	 */
+	private void place(Vector3D base, double height) {
+		final float[] positions = builder.positions;
+		final int vertices = builder.vertices;
+
+		// Finds the bounds of the vertices
+		final double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+		final double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for (int i = 0; i < 3*vertices; i++) {
+			min[i%3] = Math.min(min[i%3], positions[i]);
+			max[i%3] = Math.max(max[i%3], positions[i]);
+		}
+
+		// Moves the middle of the base to the origin, then scales and moves it to the base
+		final double scale = max[1] > min[1] ? height/(max[1]-min[1]) : 1;
+		final double[] from = {(min[0]+max[0])/2, min[1], (min[2]+max[2])/2};
+		final double[] to = {base.x, base.y, base.z};
+		for (int i = 0; i < 3*vertices; i++)
+			positions[i] = (float) ((positions[i]-from[i%3])*scale + to[i%3]);
+	}
+
+	/**
+	 * Counts the vertices and the triangles the faces split into.
+	 *
+	 * @return The number of vertices, then of triangles.
+	 */
+	private static int[] countObj(Source in) throws IOException {
+		int vertices = 0, triangles = 0;
+		while (in.peek() >= 0) {
+			final int first = in.read();
+			if (first == '\n') continue;
+			final int second = in.peek();
+			if (first == 'v' && (second == ' ' || second == '\t')) {
+				vertices++;
+			} else if (first == 'f' && (second == ' ' || second == '\t')) {
+				final int corners = in.countWords();
+				triangles += Math.max(0, corners-2);
+			}
+			in.skipLine();
+		}
+		return new int[] {vertices, triangles};
+	}
+
+	/**
+	 * Reads the vertex positions and faces of an OBJ file.
+	 */
+	private void readObj(Source in) throws IOException {
+		while (in.peek() >= 0) {
+			final int first = in.read();
+			if (first == '\n') continue;
+			final int second = in.peek();
+			if (first == 'v' && (second == ' ' || second == '\t')) {
+				builder.addVertex(in.readDouble(), in.readDouble(), in.readDouble());
+			} else if (first == 'f' && (second == ' ' || second == '\t')) {
+
+				// Splits the polygon into a fan around its first corner
+				final int a = objIndex(in.readInt());
+				in.skipWord();
+				int b = objIndex(in.readInt());
+				in.skipWord();
+				while (in.skipBlanks()) {
+					final int c = objIndex(in.readInt());
+					in.skipWord();
+					builder.addTriangle(a, b, c);
+					b = c;
+				}
+			}
+			in.skipLine();
+		}
+	}
+
+	/**
+	 * Turns an OBJ vertex number, counted from 1 or back from the last vertex, into an index.
+	 */
+	private int objIndex(int number) {
+		return number < 0 ? builder.vertices+number : number-1;
+	}
+
+	/**
+	 * Reads the vertex positions and faces of a binary PLY file.
+	 */
+	private static MeshImporter readPly(Source in, Material material) throws IOException {
+
+		// Reads the header
+		if (!"ply".equals(in.readLine()))
+			throw new IOException("Not a PLY file");
+		final List<PlyElement> elements = new ArrayList<PlyElement>();
+		String line;
+		while (!"end_header".equals(line = in.readLine())) {
+			if (line == null)
+				throw new IOException("PLY header never ends");
+			final String[] words = line.trim().split("\\s+");
+			if (words[0].equals("format")) {
+				if (words[1].equals("binary_little_endian"))
+					in.order(ByteOrder.LITTLE_ENDIAN);
+				else if (words[1].equals("binary_big_endian"))
+					in.order(ByteOrder.BIG_ENDIAN);
+				else
+					throw new IOException("Unsupported PLY format: " + words[1]);
+			} else if (words[0].equals("element")) {
+				elements.add(new PlyElement(words[1], Integer.parseInt(words[2])));
+			} else if (words[0].equals("property")) {
+				final PlyElement element = elements.get(elements.size()-1);
+				if (words[1].equals("list"))
+					element.add(words[4], plyType(words[3]), plyType(words[2]));
+				else
+					element.add(words[2], plyType(words[1]), null);
+			}
+		}
+
+		// Sizes the arrays for the vertices and for triangular faces
+		int vertexCount = 0, faceCount = 0;
+		for (PlyElement element : elements) {
+			if (element.name.equals("vertex")) vertexCount = element.count;
+			if (element.name.equals("face")) faceCount = element.count;
+		}
+		final MeshImporter importer = new MeshImporter(vertexCount, faceCount, material);
+
+		// Reads the elements in order, keeping the positions and vertex indices
+		final int[] corners = new int[3];
+		for (PlyElement element : elements) {
+			final int x = element.names.indexOf("x");
+			final int y = element.names.indexOf("y");
+			final int z = element.names.indexOf("z");
+			int list = element.names.indexOf("vertex_indices");
+			if (list < 0) list = element.names.indexOf("vertex_index");
+			final boolean vertex = element.name.equals("vertex");
+			final boolean face = element.name.equals("face");
+			if (vertex && (x < 0 || y < 0 || z < 0))
+				throw new IOException("PLY vertices have no position");
+			final double[] position = new double[3];
+
+			for (int i = 0; i < element.count; i++) {
+				for (int p = 0; p < element.types.size(); p++) {
+					final PlyType type = element.types.get(p);
+					final PlyType countType = element.countTypes.get(p);
+					if (countType == null) {
+						final double value = in.readBinary(type);
+						if (vertex && p == x) position[0] = value;
+						else if (vertex && p == y) position[1] = value;
+						else if (vertex && p == z) position[2] = value;
+					} else if (face && p == list) {
+
+						// Splits the polygon into a fan around its first corner
+						final int count = (int) in.readBinary(countType);
+						for (int c = 0; c < count; c++) {
+							final int index = (int) in.readBinary(type);
+							if (c < 2) {
+								corners[c] = index;
+							} else {
+								importer.builder.addTriangle(corners[0], corners[1], index);
+								corners[1] = index;
+							}
+						}
+					} else {
+						in.skip((int) in.readBinary(countType) * type.bytes);
+					}
+				}
+				if (vertex)
+					importer.builder.addVertex(position[0], position[1], position[2]);
+			}
+		}
+		return importer;
+	}
+
+	private static PlyType plyType(String name) throws IOException {
+		for (PlyType type : PlyType.values())
+			if (type.names.contains(name))
+				return type;
+		throw new IOException("Unknown PLY property type: " + name);
+	}
+
+	/**
+	 * The types of PLY properties.
+	 */
+	private static enum PlyType {
+		CHAR(1, "char", "int8"),
+		UCHAR(1, "uchar", "uint8"),
+		SHORT(2, "short", "int16"),
+		USHORT(2, "ushort", "uint16"),
+		INT(4, "int", "int32"),
+		UINT(4, "uint", "uint32"),
+		FLOAT(4, "float", "float32"),
+		DOUBLE(8, "double", "float64");
+
+		/** The bytes a value of the type takes. */
+		private final int bytes;
+
+		/** The names the type goes by in headers. */
+		private final List<String> names;
+
+		private PlyType(int bytes, String... names) {
+			this.bytes = bytes;
+			this.names = Arrays.asList(names);
+		}
+	}
+
+	/**
+	 * An element declared in a PLY header, with its properties in order.
+	 */
+	private static class PlyElement {
+
+		/** The name of the element. */
+		private final String name;
+
+		/** The number of the element's entries in the file. */
+		private final int count;
+
+		/** The name of each property. */
+		private final List<String> names = new ArrayList<String>();
+
+		/** The type of each property, or of each value of a list property. */
+		private final List<PlyType> types = new ArrayList<PlyType>();
+
+		/** The type of each list property's count, or null for single values. */
+		private final List<PlyType> countTypes = new ArrayList<PlyType>();
+
+		private PlyElement(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+
+		private void add(String name, PlyType type, PlyType countType) {
+			names.add(name);
+			types.add(type);
+			countTypes.add(countType);
+		}
+	}
+
+	/**
+	 * Streams a file through a fixed buffer, reading both text and binary values.
+	 */
+	private static class Source implements AutoCloseable {
+
+		/** The file's channel. */
+		private final FileChannel channel;
+
+		/** The bytes read from the file but not yet consumed. */
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		/** Whether the file has no more bytes to read. */
+		private boolean ended;
+
+		private Source(File file) throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			buffer.limit(0);
+		}
+
+		/**
+		 * Sets the byte order of binary values.
+		 */
+		private void order(ByteOrder order) {
+			buffer.order(order);
+		}
+
+		/**
+		 * Makes the given number of bytes available in the buffer if the file has them.
+		 *
+		 * @return Whether the bytes are available.
+		 */
+		private boolean fill(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return true;
+			buffer.compact();
+			while (!ended && buffer.position() < bytes)
+				ended = channel.read(buffer) < 0;
+			buffer.flip();
+			return buffer.remaining() >= bytes;
+		}
+
+		/**
+		 * @return The next byte without consuming it, or -1 at the end of the file.
+		 */
+		private int peek() throws IOException {
+			return fill(1) ? buffer.get(buffer.position()) & 0xff : -1;
+		}
+
+		/**
+		 * @return The next byte, or -1 at the end of the file.
+		 */
+		private int read() throws IOException {
+			return fill(1) ? buffer.get() & 0xff : -1;
+		}
+
+		/**
+		 * Consumes the rest of the line, including its end.
+		 */
+		private void skipLine() throws IOException {
+			int c;
+			while ((c = read()) >= 0 && c != '\n');
+		}
+
+		/**
+		 * Consumes spaces and tabs.
+		 *
+		 * @return Whether a word follows on the same line.
+		 */
+		private boolean skipBlanks() throws IOException {
+			int c;
+			while ((c = peek()) == ' ' || c == '\t')
+				read();
+			return c >= 0 && c != '\n' && c != '\r' && c != '#';
+		}
+
+		/**
+		 * Consumes the rest of the current word.
+		 */
+		private void skipWord() throws IOException {
+			int c;
+			while ((c = peek()) >= 0 && c != ' ' && c != '\t' && c != '\n' && c != '\r')
+				read();
+		}
+
+		/**
+		 * Counts the words left on the line, consuming them.
+		 */
+		private int countWords() throws IOException {
+			int words = 0;
+			while (skipBlanks()) {
+				skipWord();
+				words++;
+			}
+			return words;
+		}
+
+		/**
+		 * @return The line up to its end, or null at the end of the file.
+		 */
+		private String readLine() throws IOException {
+			if (peek() < 0)
+				return null;
+			final StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = read()) >= 0 && c != '\n')
+				if (c != '\r')
+					line.append((char) c);
+			return line.toString();
+		}
+
+		/**
+		 * Parses the next word on the line as an integer, stopping at any non-digit.
+		 */
+		private int readInt() throws IOException {
+			if (!skipBlanks())
+				throw new IOException("Expected a number");
+			final boolean negative = peek() == '-';
+			if (negative || peek() == '+')
+				read();
+			int value = 0;
+			int c;
+			while ((c = peek()) >= '0' && c <= '9') {
+				value = 10*value + (c-'0');
+				read();
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Parses the next word on the line as a decimal number.
+		 */
+		private double readDouble() throws IOException {
+			if (!skipBlanks())
+				throw new IOException("Expected a number");
+			final boolean negative = peek() == '-';
+			if (negative || peek() == '+')
+				read();
+
+			// Reads the digits as a whole number, counting those after the point
+			long mantissa = 0;
+			int exponent = 0;
+			boolean point = false;
+			int c;
+			while (((c = peek()) >= '0' && c <= '9') || (c == '.' && !point)) {
+				read();
+				if (c == '.') {
+					point = true;
+				} else if (mantissa < Long.MAX_VALUE/10 - 9) {
+					mantissa = 10*mantissa + (c-'0');
+					if (point) exponent--;
+				} else if (!point) {
+					exponent++;
+				}
+			}
+
+			// Reads the exponent
+			if (c == 'e' || c == 'E') {
+				read();
+				exponent += readInt();
+			}
+
+			final double value = exponent < 0 ? mantissa / Math.pow(10, -exponent) : mantissa * Math.pow(10, exponent);
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Reads a binary value of the given type.
+		 */
+		private double readBinary(PlyType type) throws IOException {
+			if (!fill(type.bytes))
+				throw new IOException("PLY file ends early");
+			switch (type) {
+				case CHAR:   return buffer.get();
+				case UCHAR:  return buffer.get() & 0xff;
+				case SHORT:  return buffer.getShort();
+				case USHORT: return buffer.getShort() & 0xffff;
+				case INT:    return buffer.getInt();
+				case UINT:   return buffer.getInt() & 0xffffffffL;
+				case FLOAT:  return buffer.getFloat();
+				default:     return buffer.getDouble();
+			}
+		}
+
+		/**
+		 * Skips the given number of bytes.
+		 */
+		private void skip(int bytes) throws IOException {
+			while (bytes > 0) {
+				if (!fill(1))
+					throw new IOException("PLY file ends early");
+				final int skipped = Math.min(bytes, buffer.remaining());
+				buffer.position(buffer.position() + skipped);
+				bytes -= skipped;
+			}
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -3,8 +3,6 @@ package rayTracing.primitives;
 import math.Ray;
 import math.Vector3D;
 
-import static math.MiscFuncs.determinant;
-
 import rayTracing.Material;
 import rayTracing.Record;
 
@@ -22,6 +20,9 @@ public class Parallelogram implements Primitive {
 	
 	/** The parallelogram's material. */
 	public final Material material;
+	
+	/** The parallelogram's precomputed plane and edge basis. */
+	private final PlanarQuad quad;
 
 	/**
 	 * Creates a parallelogram with the given vertices.
@@ -36,31 +37,40 @@ public class Parallelogram implements Primitive {
 		this.v2 = v2;
 		this.v3 = v3;
 		this.material = material;
+		quad = new PlanarQuad(v1, v2.subtract(v1), v3.subtract(v1));
 	}
 
 	public boolean intersects(Ray ray, double tMin, Record record) {
 		
-		// Stores the linear system to be solved
-		final Vector3D ACol1 = v1.subtract(v2);
-		final Vector3D ACol2 = v1.subtract(v3);
-		final Vector3D ACol3 = ray.direction;
-		final Vector3D b = v1.subtract(ray.origin);
+		// Intersects the plane
+		final double t = quad.t(ray);
+		if (t < tMin || t >= record.getT()) return false;
+		
+		// Checks whether the hit is within the parallelogram
+		final double beta = quad.u(ray, t);
+		if (beta < 0 || beta > 1) return false;
+		final double gamma = quad.v(ray, t);
+		if (gamma < 0 || gamma > 1) return false;
+		return record.update(t, this);
+	}
+
+	public void resolve(Ray ray, Record record) {
+		record.setSurface(quad.normal, material);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
 		
-		// Computes the relevant determinants
-		final double detA = determinant(ACol1, ACol2, ACol3);
-		if (Math.abs(detA) <= 1e-4) return false;
-		final double beta = determinant(b, ACol2, ACol3)/detA;
-		final double gamma = determinant(ACol1, b, ACol3)/detA;
-		final double t = determinant(ACol1, ACol2, b)/detA;
+		// Intersects the plane
+		final double t = quad.t(ray);
+		if (t < tMin || t >= tMax) return false;
 		
-		// Checks whether an intersection happened
-		if (t < tMin) return false;
-		if (beta >= 0 && beta <= 1 && gamma >= 0 && gamma <= 1) {
-			return record.update(t, ACol1.cross(ACol2), material);
-		} else
-			return false;
+		// Checks whether the hit is within the parallelogram
+		final double beta = quad.u(ray, t);
+		if (beta < 0 || beta > 1) return false;
+		final double gamma = quad.v(ray, t);
+		return gamma >= 0 && gamma <= 1;
 	}
 
-	public Vector3D minBounds() {return Vector3D.min(Vector3D.min(v1, v2), v3);}
-	public Vector3D maxBounds() {return Vector3D.max(Vector3D.max(v1, v2), v3);}
+	public Vector3D minBounds() {return quad.min;}
+	public Vector3D maxBounds() {return quad.max;}
 }
@@ -0,0 +1,104 @@
+package rayTracing.primitives;
+
+import math.Ray;
+import math.Vector3D;
+
+/**
+ * The precomputed plane equation, inverse edge basis and bounds of a
+ * parallelogram spanned by two edges from a corner. Points on the quad are
+ * corner + u*edgeU + v*edgeV, with u and v in [0,1].
+ */
+final class PlanarQuad {
+
+	/** The |normal . direction| at or below which a ray is considered parallel to the quad. */
+	private static final double PARALLEL_EPSILON = 1e-4;
+
+	/** The (unnormalized) normal, edgeU x edgeV. */
+	final Vector3D normal;
+
+	/** The plane's offset, normal . corner. */
+	private final double planeOffset;
+
+	/** The dual vector of edgeU, which maps a point to its u coordinate. */
+	private final double ux, uy, uz;
+
+	/** The u coordinate of the origin. */
+	private final double uOffset;
+
+	/** The dual vector of edgeV, which maps a point to its v coordinate. */
+	private final double vx, vy, vz;
+
+	/** The v coordinate of the origin. */
+	private final double vOffset;
+
+	/** The minimum bounds of the quad. */
+	final Vector3D min;
+
+	/** The maximum bounds of the quad. */
+	final Vector3D max;
+
+	/**
+	 * Precomputes the quad spanned by the given edges.
+	 *
+	 * @param corner The corner from which the edges start.
+	 * @param edgeU The edge along which u increases.
+	 * @param edgeV The edge along which v increases.
+	 */
+	PlanarQuad(Vector3D corner, Vector3D edgeU, Vector3D edgeV) {
+
+		// Stores the plane equation
+		normal = edgeU.cross(edgeV);
+		planeOffset = normal.dot(corner);
+
+		// Stores the dual basis, so (p-corner) . dual gives each coordinate
+		final double n2 = normal.magnitude2();
+		final Vector3D uDual = edgeV.cross(normal).scale(1/n2);
+		final Vector3D vDual = normal.cross(edgeU).scale(1/n2);
+		ux = uDual.x; uy = uDual.y; uz = uDual.z;
+		vx = vDual.x; vy = vDual.y; vz = vDual.z;
+		uOffset = -uDual.dot(corner);
+		vOffset = -vDual.dot(corner);
+
+		// Stores the bounds of all four corners
+		final Vector3D opposite = corner.add(edgeU).add(edgeV);
+		min = Vector3D.min(Vector3D.min(corner, corner.add(edgeU)), Vector3D.min(corner.add(edgeV), opposite));
+		max = Vector3D.max(Vector3D.max(corner, corner.add(edgeU)), Vector3D.max(corner.add(edgeV), opposite));
+	}
+
+	/**
+	 * Intersects the ray with the quad's plane.
+	 *
+	 * @param ray The ray to intersect.
+	 *
+	 * @return The t at which the ray hits the plane, or Double.NEGATIVE_INFINITY if the ray is parallel.
+	 */
+	double t(Ray ray) {
+		final double nDotD = ray.direction.dot(normal);
+		if (Math.abs(nDotD) <= PARALLEL_EPSILON) return Double.NEGATIVE_INFINITY;
+		return (planeOffset - ray.origin.dot(normal))/nDotD;
+	}
+
+	/**
+	 * @param ray The ray hitting the plane.
+	 * @param t The t at which the ray hits the plane.
+	 * @return The u coordinate of the hit point.
+	 */
+	double u(Ray ray, double t) {
+		return ux*(ray.origin.x + t*ray.direction.x)
+			+ uy*(ray.origin.y + t*ray.direction.y)
+			+ uz*(ray.origin.z + t*ray.direction.z)
+			+ uOffset;
+	}
+
+	/**
+	 * @param ray The ray hitting the plane.
+	 * @param t The t at which the ray hits the plane.
+	 * @return The v coordinate of the hit point.
+	 */
+	double v(Ray ray, double t) {
+		return vx*(ray.origin.x + t*ray.direction.x)
+			+ vy*(ray.origin.y + t*ray.direction.y)
+			+ vz*(ray.origin.z + t*ray.direction.z)
+			+ vOffset;
+	}
+}
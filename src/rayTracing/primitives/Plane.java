@@ -32,8 +32,8 @@ public class Plane implements Primitive {
 	public boolean intersects(Ray ray, double tMin, Record record) {
 		
 		// Computes the values for intersection checking
-		final double nDotRo = normal.dot(ray.origin);
-		final double nDotRd = normal.dot(ray.direction);
+		final double nDotRo = ray.origin.dot(normal);
+		final double nDotRd = ray.direction.dot(normal);
 		
 		// Checks for a lack of intersection
 		if (nDotRd == 0) // Check here and in sphere for > t_min
@@ -42,7 +42,23 @@ public class Plane implements Primitive {
 		// Stores closest intersection
 		final double t = -(offset + nDotRo)/nDotRd;
 		if (t < tMin) return false;
-		return record.update(t, normal, material);
+		return record.update(t, this);
+	}
+
+	public void resolve(Ray ray, Record record) {
+		record.setSurface(normal, material);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
+		
+		// Checks for a lack of intersection
+		final double nDotRd = ray.direction.dot(normal);
+		if (nDotRd == 0)
+			return false;
+		
+		// Checks the intersection
+		final double t = -(offset + ray.origin.dot(normal))/nDotRd;
+		return t >= tMin && t < tMax;
 	}
 
 	// Improve later to account for planes parallel to any of the three Cartesian planes???
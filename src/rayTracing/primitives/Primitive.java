@@ -17,6 +17,27 @@ public abstract interface Primitive {
 	 */
 	public abstract boolean intersects(Ray ray, double tMin, Record record);
 	
+	/**
+	 * Computes the normal and material of the record's closest intersection,
+	 * which must be on this primitive, and stores them with Record.setSurface.
+	 * 
+	 * @param ray The ray that hit this primitive.
+	 * @param record The record of the closest intersection.
+	 */
+	public abstract void resolve(Ray ray, Record record);
+	
+	/**
+	 * Checks whether this primitive blocks the ray anywhere in the given range,
+	 * without computing any shading data.
+	 * 
+	 * @param ray The ray to check for an intersection with.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The t before which an intersection must happen.
+	 * 
+	 * @return Whether an intersection happens in the range.
+	 */
+	public abstract boolean occludes(Ray ray, double tMin, double tMax);
+	
 	/**
 	 * @return The point with the minimum bounds for the primitive's volume.
 	 */
@@ -0,0 +1,62 @@
+package rayTracing.primitives;
+
+import java.util.List;
+
+import math.Vector3D;
+import rayTracing.Material;
+
+/**
+ * Geometry shared by many instances, such as every building with the same
+ * window pattern. The prototype is modelled once in its own object space,
+ * with its own hierarchy, and each Instance places it in the scene with an
+ * affine transform, so a scene holds one copy of the prototype's primitives
+ * however many times it appears.
+ */
+public class Prototype {
+
+	/** The hierarchy over the prototype's primitives, in object space. */
+	final LinearBVH bvh;
+
+	/** The material each instance replaces with its own. */
+	public final Material material;
+
+	/** The minimum bounds of the prototype, in object space. */
+	final Vector3D min;
+
+	/** The maximum bounds of the prototype, in object space. */
+	final Vector3D max;
+
+	/**
+	 * Creates a prototype of the given primitives.
+	 *
+	 * @param primitives The primitives, in object space.
+	 * @param material The material each instance replaces with its own.
+	 *
+	 * @throws IllegalArgumentException If a primitive is itself an instance or assumes a normalized direction.
+	 */
+	public Prototype(List<Primitive> primitives, Material material) {
+		this(new LinearBVH(primitives), material);
+	}
+
+	/**
+	 * Creates a prototype of the primitives of a hierarchy already built, such
+	 * as one read from a scene file.
+	 *
+	 * @param bvh The hierarchy over the primitives, in object space.
+	 * @param material The material each instance replaces with its own.
+	 *
+	 * @throws IllegalArgumentException If a primitive is itself an instance or assumes a normalized direction.
+	 */
+	Prototype(LinearBVH bvh, Material material) {
+		for (Primitive primitive : bvh.primitives) {
+			if (primitive instanceof Instance)
+				throw new IllegalArgumentException("Prototypes cannot hold instances");
+			if (primitive instanceof Sphere)
+				throw new IllegalArgumentException("Prototypes cannot hold spheres, which assume a normalized direction");
+		}
+		this.bvh = bvh;
+		this.material = material;
+		min = new Vector3D(bvh.bounds[0], bvh.bounds[1], bvh.bounds[2]);
+		max = new Vector3D(bvh.bounds[3], bvh.bounds[4], bvh.bounds[5]);
+	}
+}
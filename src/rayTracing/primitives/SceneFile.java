@@ -0,0 +1,568 @@
+package rayTracing.primitives;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import math.Vector3D;
+import rayTracing.Material;
+
+/**
+ * A generated scene stored as a compact binary file: the seed, the
+ * materials, the primitives and the built hierarchy over them. Loading maps
+ * the file into memory rather than reading it, and meshes keep viewing the
+ * mapped pages, so a scene loads without generating or building anything and
+ * every process rendering the same file shares a single copy of it.
+ *
+ * The file is little-endian, with every section of doubles starting on a
+ * multiple of 8 bytes:
+ *
+ *   header      magic, version, seed, material count, prototype count, primitive count, node count
+ *   materials   ambient, diffuse and specular colors and shininess, 10 doubles each
+ *   prototypes  the material, primitive count and node count, primitives and hierarchy of each prototype
+ *   primitives  a type tag then the primitive's fields, in the hierarchy's order
+ *   hierarchy   the bounds then the ranges of each node of the scene's hierarchy
+ *
+ * Only triangle meshes, window walls, parallelograms and instances of
+ * prototypes holding those can be stored. Instances refer to their
+ * prototypes by index, so each prototype is stored once.
+ */
+public class SceneFile {
+
+	/** The first bytes of every scene file, "CITY". */
+	private static final int MAGIC = 0x43495459;
+
+	/** The version of the layout written. */
+	private static final int VERSION = 4;
+
+	/** The type tag of a triangle mesh. */
+	private static final int MESH = 1;
+
+	/** The type tag of a window wall. */
+	private static final int WINDOW_WALL = 2;
+
+	/** The type tag of a parallelogram. */
+	private static final int PARALLELOGRAM = 3;
+
+	/** The type tag of an instance. */
+	private static final int INSTANCE = 4;
+
+	/** The fewest bytes a material takes. */
+	private static final int MATERIAL_BYTES = 80;
+
+	/** The fewest bytes a prototype takes. */
+	private static final int PROTOTYPE_BYTES = 12;
+
+	/** The fewest bytes a primitive takes. */
+	private static final int PRIMITIVE_BYTES = 4;
+
+	/** The fewest bytes a node of the scene's hierarchy takes. */
+	private static final int NODE_BYTES = 64;
+
+	/** The bytes a mesh's triangle takes, its 9 coordinates and its material index. */
+	private static final int TRIANGLE_BYTES = 40;
+
+	/** The seed the scene was generated from. */
+	public final long seed;
+
+	/** The scene's primitives, in the hierarchy's order. */
+	public final List<Primitive> primitives;
+
+	/** The hierarchy over the scene's primitives. */
+	public final LinearBVH bvh;
+
+	private SceneFile(long seed, List<Primitive> primitives, LinearBVH bvh) {
+		this.seed = seed;
+		this.primitives = primitives;
+		this.bvh = bvh;
+	}
+
+	/**
+	 * Writes a scene to the given file, replacing it. A hierarchy with nodes
+	 * left unreachable by refits is compacted first.
+	 *
+	 * @param file The file to write.
+	 * @param seed The seed the scene was generated from.
+	 * @param bvh The hierarchy over the scene's primitives.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 * @throws IllegalArgumentException If the scene holds a primitive that cannot be stored.
+	 */
+	public static void save(File file, long seed, LinearBVH bvh) throws IOException {
+		bvh.compact();
+
+		// Numbers the distinct prototypes
+		final Map<Prototype, Integer> prototypes = new IdentityHashMap<Prototype, Integer>();
+		final List<Prototype> prototypeTable = new ArrayList<Prototype>();
+		for (Primitive primitive : bvh.primitives) {
+			if (primitive instanceof Instance) {
+				final Prototype prototype = ((Instance) primitive).prototype;
+				if (!prototypes.containsKey(prototype)) {
+					prototypes.put(prototype, prototypeTable.size());
+					prototypeTable.add(prototype);
+				}
+			}
+		}
+
+		// Numbers the distinct materials
+		final Map<Material, Integer> materials = new IdentityHashMap<Material, Integer>();
+		final List<Material> table = new ArrayList<Material>();
+		final List<Material> used = new ArrayList<Material>();
+		for (Prototype prototype : prototypeTable) {
+			used.add(prototype.material);
+			for (Primitive primitive : prototype.bvh.primitives)
+				used.addAll(materialsOf(primitive));
+		}
+		for (Primitive primitive : bvh.primitives)
+			used.addAll(materialsOf(primitive));
+		for (Material material : used) {
+			if (!materials.containsKey(material)) {
+				materials.put(material, table.size());
+				table.add(material);
+			}
+		}
+
+		try (Writer out = new Writer(FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+
+			// Writes the header
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(seed);
+			out.putInt(table.size());
+			out.putInt(prototypeTable.size());
+			out.putInt(bvh.primitives.length);
+			out.putInt(bvh.nodeCount());
+			out.align();
+
+			// Writes the materials
+			for (Material material : table) {
+				out.putVector(material.ambientColor);
+				out.putVector(material.diffuseColor);
+				out.putVector(material.specularColor);
+				out.putDouble(material.shininess);
+			}
+
+			// Writes the prototypes
+			for (Prototype prototype : prototypeTable) {
+				out.putInt(materials.get(prototype.material));
+				out.putInt(prototype.bvh.primitives.length);
+				out.putInt(prototype.bvh.nodeCount());
+				for (Primitive primitive : prototype.bvh.primitives)
+					writePrimitive(out, primitive, materials, prototypes);
+				writeHierarchy(out, prototype.bvh);
+			}
+
+			// Writes the primitives and their hierarchy
+			for (Primitive primitive : bvh.primitives)
+				writePrimitive(out, primitive, materials, prototypes);
+			writeHierarchy(out, bvh);
+		}
+	}
+
+	/**
+	 * Writes a primitive's type tag and fields.
+	 *
+	 * @param out The output to write to.
+	 * @param primitive The primitive to write.
+	 * @param materials The index of each material in the file.
+	 * @param prototypes The index of each prototype in the file.
+	 */
+	private static void writePrimitive(Writer out, Primitive primitive, Map<Material, Integer> materials, Map<Prototype, Integer> prototypes) throws IOException {
+		if (primitive instanceof TriangleMesh) {
+			final TriangleMesh mesh = (TriangleMesh) primitive;
+			out.putInt(MESH);
+			out.putInt(mesh.size);
+			out.putInt(mesh.nodes.capacity()/WideBVH.NODE_INTS);
+			out.putInt(mesh.depth);
+			out.putDouble(mesh.parallelEpsilon);
+			for (double value : mesh.rootBounds)
+				out.putDouble(value);
+			out.putInt(mesh.materialTable.length);
+			for (Material material : mesh.materialTable)
+				out.putInt(materials.get(material));
+			for (FloatBuffer values : Arrays.asList(mesh.v0x, mesh.v0y, mesh.v0z, mesh.e1x, mesh.e1y, mesh.e1z, mesh.e2x, mesh.e2y, mesh.e2z))
+				for (int i = 0; i < mesh.size; i++)
+					out.putFloat(values.get(i));
+			for (int i = 0; i < mesh.size; i++)
+				out.putInt(mesh.materialIndices.get(i));
+			for (int i = 0; i < mesh.nodes.capacity(); i++)
+				out.putInt(mesh.nodes.get(i));
+		} else if (primitive instanceof WindowWall) {
+			final WindowWall wall = (WindowWall) primitive;
+			out.putInt(WINDOW_WALL);
+			out.putInt(materials.get(wall.wallMaterial));
+			out.putInt(wall.windowsH);
+			out.putInt(wall.windowsV);
+			out.putVector(wall.cornerBL);
+			out.putVector(wall.cornerBR);
+			out.putVector(wall.cornerTL);
+		} else if (primitive instanceof Parallelogram) {
+			final Parallelogram parallelogram = (Parallelogram) primitive;
+			out.putInt(PARALLELOGRAM);
+			out.putInt(materials.get(parallelogram.material));
+			out.putVector(parallelogram.v1);
+			out.putVector(parallelogram.v2);
+			out.putVector(parallelogram.v3);
+		} else {
+			final Instance instance = (Instance) primitive;
+			out.putInt(INSTANCE);
+			out.putInt(prototypes.get(instance.prototype));
+			out.putInt(materials.get(instance.material));
+			out.putVector(instance.getOrigin());
+			out.putVector(instance.getXAxis());
+			out.putVector(instance.getYAxis());
+			out.putVector(instance.getZAxis());
+		}
+	}
+
+	/**
+	 * Writes the bounds then the ranges of each node of a hierarchy.
+	 */
+	private static void writeHierarchy(Writer out, LinearBVH bvh) throws IOException {
+		for (double value : bvh.bounds)
+			out.putDouble(value);
+		for (int value : bvh.nodes)
+			out.putInt(value);
+		out.align();
+	}
+
+	/**
+	 * Maps a scene file into memory. The meshes read their triangles and
+	 * hierarchies straight from the mapped pages, which stay mapped for as
+	 * long as the meshes are reachable.
+	 *
+	 * @param file The file to load.
+	 *
+	 * @return The scene.
+	 *
+	 * @throws IOException If the file cannot be read, is not a scene file or is corrupt.
+	 */
+	public static SceneFile load(File file) throws IOException {
+		final MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Scene file too large to map: " + file);
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		final ByteBuffer in = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			return read(in, file);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated scene file: " + file, e);
+		}
+	}
+
+	/**
+	 * Reads a mapped scene file. Counts and indices are checked against the
+	 * bytes left and the tables read, so only a fixed size field can run
+	 * past the end.
+	 *
+	 * @param in The mapped file.
+	 * @param file The file read, for errors.
+	 *
+	 * @return The scene.
+	 *
+	 * @throws IOException If the file is not a scene file or is corrupt.
+	 * @throws BufferUnderflowException If the file ends within a field.
+	 */
+	private static SceneFile read(ByteBuffer in, File file) throws IOException {
+
+		// Reads the header
+		if (in.getInt() != MAGIC)
+			throw new IOException("Not a scene file: " + file);
+		final int version = in.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported scene file version " + version + ": " + file);
+		final long seed = in.getLong();
+		final int materialCount = in.getInt();
+		final int prototypeCount = in.getInt();
+		final int primitiveCount = in.getInt();
+		final int nodeCount = in.getInt();
+		align(in);
+		final Material[] materials = new Material[count(in, materialCount, MATERIAL_BYTES, "materials", file)];
+		final Prototype[] prototypes = new Prototype[count(in, prototypeCount, PROTOTYPE_BYTES, "prototypes", file)];
+		final Primitive[] primitives = new Primitive[count(in, primitiveCount, PRIMITIVE_BYTES, "primitives", file)];
+		count(in, nodeCount, NODE_BYTES, "nodes", file);
+
+		// Reads the materials
+		for (int i = 0; i < materials.length; i++)
+			materials[i] = new Material(getVector(in), getVector(in), getVector(in), in.getDouble());
+
+		// Reads the prototypes
+		for (int i = 0; i < prototypes.length; i++) {
+			final Material material = entry(materials, in.getInt(), "material", file);
+			final Primitive[] prototypePrimitives = new Primitive[count(in, in.getInt(), PRIMITIVE_BYTES, "primitives", file)];
+			final int prototypeNodes = count(in, in.getInt(), NODE_BYTES, "nodes", file);
+			for (int p = 0; p < prototypePrimitives.length; p++)
+				prototypePrimitives[p] = readPrimitive(in, materials, prototypes, file);
+			prototypes[i] = new Prototype(readHierarchy(in, prototypeNodes, prototypePrimitives, file), material);
+		}
+
+		// Reads the primitives and their hierarchy
+		for (int p = 0; p < primitives.length; p++)
+			primitives[p] = readPrimitive(in, materials, prototypes, file);
+		final LinearBVH bvh = readHierarchy(in, nodeCount, primitives, file);
+
+		return new SceneFile(seed, Collections.unmodifiableList(Arrays.asList(primitives)), bvh);
+	}
+
+	/**
+	 * Reads a primitive's type tag and fields.
+	 *
+	 * @param in The buffer to read from, moved past the primitive.
+	 * @param materials The materials, by index.
+	 * @param prototypes The prototypes read so far, by index.
+	 * @param file The file read, for errors.
+	 *
+	 * @return The primitive.
+	 *
+	 * @throws IOException If the primitive is of an unknown type or corrupt.
+	 */
+	private static Primitive readPrimitive(ByteBuffer in, Material[] materials, Prototype[] prototypes, File file) throws IOException {
+		final int type = in.getInt();
+		if (type == MESH) {
+			final int size = in.getInt();
+			final int meshNodes = in.getInt();
+			final int depth = in.getInt();
+			align(in);
+			final double parallelEpsilon = in.getDouble();
+			final double[] rootBounds = new double[6];
+			for (int i = 0; i < 6; i++)
+				rootBounds[i] = in.getDouble();
+			final Material[] table = new Material[count(in, in.getInt(), 4, "mesh materials", file)];
+			for (int i = 0; i < table.length; i++)
+				table[i] = entry(materials, in.getInt(), "material", file);
+			count(in, size, TRIANGLE_BYTES, "triangles", file);
+			count(in, meshNodes, 4*WideBVH.NODE_INTS, "mesh nodes", file);
+			if (in.remaining() < (long) TRIANGLE_BYTES*size + 4L*WideBVH.NODE_INTS*meshNodes)
+				throw new IOException("Truncated scene file, " + size + " triangles and " + meshNodes + " mesh nodes do not fit: " + file);
+			if (depth < 0 || depth > meshNodes)
+				throw new IOException("Corrupt scene file, mesh depth " + depth + " for " + meshNodes + " nodes: " + file);
+
+			// Views the mesh's arrays where they lie in the mapping
+			final FloatBuffer[] soa = new FloatBuffer[9];
+			for (int k = 0; k < 9; k++)
+				soa[k] = view(in, 4*size).asFloatBuffer();
+			final IntBuffer materialIndices = view(in, 4*size).asIntBuffer();
+			final IntBuffer nodes = view(in, 4*WideBVH.NODE_INTS*meshNodes).asIntBuffer();
+			return new TriangleMesh(size, soa, materialIndices, table, rootBounds, nodes, depth, parallelEpsilon);
+		} else if (type == WINDOW_WALL) {
+			final Material material = entry(materials, in.getInt(), "material", file);
+			final int windowsH = in.getInt();
+			final int windowsV = in.getInt();
+			align(in);
+			return new WindowWall(getVector(in), getVector(in), getVector(in), material, windowsH, windowsV);
+		} else if (type == PARALLELOGRAM) {
+			final Material material = entry(materials, in.getInt(), "material", file);
+			align(in);
+			return new Parallelogram(getVector(in), getVector(in), getVector(in), material);
+		} else if (type == INSTANCE) {
+			final Prototype prototype = entry(prototypes, in.getInt(), "prototype", file);
+			final Material material = entry(materials, in.getInt(), "material", file);
+			align(in);
+			return new Instance(prototype, getVector(in), getVector(in), getVector(in), getVector(in), material);
+		}
+		throw new IOException("Unknown primitive type " + type + ": " + file);
+	}
+
+	/**
+	 * Reads the bounds then the ranges of each node of a hierarchy, which is
+	 * small enough to copy.
+	 *
+	 * @param in The buffer to read from, moved past the hierarchy.
+	 * @param nodeCount The number of nodes.
+	 * @param primitives The primitives, in the hierarchy's order.
+	 * @param file The file read, for errors.
+	 *
+	 * @return The hierarchy.
+	 *
+	 * @throws IOException If the hierarchy is truncated or its ranges lie outside it.
+	 */
+	private static LinearBVH readHierarchy(ByteBuffer in, int nodeCount, Primitive[] primitives, File file) throws IOException {
+		align(in);
+		if (nodeCount < 1 || in.remaining() < (long) NODE_BYTES*nodeCount)
+			throw new IOException("Truncated scene file, " + nodeCount + " nodes do not fit: " + file);
+		final double[] bounds = new double[6*nodeCount];
+		in.asDoubleBuffer().get(bounds);
+		in.position(in.position() + 8*bounds.length);
+		final int[] nodes = new int[4*nodeCount];
+		in.asIntBuffer().get(nodes);
+		in.position(in.position() + 4*nodes.length);
+		align(in);
+		final int invalid = LinearBVH.invalidNode(nodes, primitives.length);
+		if (invalid >= 0)
+			throw new IOException("Corrupt scene file, node " + invalid + " refers outside its hierarchy: " + file);
+		return new LinearBVH(bounds, nodes, primitives);
+	}
+
+	/**
+	 * Checks a count read from the file against the bytes left to hold it.
+	 *
+	 * @param in The buffer being read.
+	 * @param count The count read.
+	 * @param bytesEach The fewest bytes each counted item takes.
+	 * @param what The items counted, for errors.
+	 * @param file The file read, for errors.
+	 *
+	 * @return The count.
+	 *
+	 * @throws IOException If the count is negative or its items cannot fit.
+	 */
+	private static int count(ByteBuffer in, int count, int bytesEach, String what, File file) throws IOException {
+		if (count < 0)
+			throw new IOException("Corrupt scene file, " + count + " " + what + ": " + file);
+		if ((long) count*bytesEach > in.remaining())
+			throw new IOException("Truncated scene file, " + count + " " + what + " do not fit: " + file);
+		return count;
+	}
+
+	/**
+	 * Looks up a table entry by an index read from the file.
+	 *
+	 * @param table The entries read so far.
+	 * @param index The index read.
+	 * @param what The kind of entry, for errors.
+	 * @param file The file read, for errors.
+	 *
+	 * @return The entry.
+	 *
+	 * @throws IOException If the index lies outside the entries read so far.
+	 */
+	private static <T> T entry(T[] table, int index, String what, File file) throws IOException {
+		if (index < 0 || index >= table.length || table[index] == null)
+			throw new IOException("Corrupt scene file, no " + what + " " + index + ": " + file);
+		return table[index];
+	}
+	/**
+	 * @return The materials a primitive uses.
+	 *
+	 * @throws IllegalArgumentException If the primitive cannot be stored.
+	 */
+	private static List<Material> materialsOf(Primitive primitive) {
+		if (primitive instanceof TriangleMesh)
+			return Arrays.asList(((TriangleMesh) primitive).materialTable);
+		if (primitive instanceof WindowWall)
+			return Collections.singletonList(((WindowWall) primitive).wallMaterial);
+		if (primitive instanceof Parallelogram)
+			return Collections.singletonList(((Parallelogram) primitive).material);
+		if (primitive instanceof Instance)
+			return Collections.singletonList(((Instance) primitive).material);
+		throw new IllegalArgumentException("Cannot store a " + primitive.getClass().getSimpleName() + " in a scene file");
+	}
+
+	/**
+	 * Takes the next bytes of the buffer as a little-endian view of their own.
+	 *
+	 * @param in The buffer to take the bytes from, moved past them.
+	 * @param bytes The number of bytes to take.
+	 *
+	 * @return The view of the bytes.
+	 */
+	private static ByteBuffer view(ByteBuffer in, int bytes) {
+		final ByteBuffer view = in.slice();
+		view.limit(bytes);
+		in.position(in.position() + bytes);
+		return view.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Moves the buffer to the next multiple of 8 bytes.
+	 */
+	private static void align(ByteBuffer in) {
+		in.position(Math.min((in.position() + 7) & ~7, in.limit()));
+	}
+
+	private static Vector3D getVector(ByteBuffer in) {
+		return new Vector3D(in.getDouble(), in.getDouble(), in.getDouble());
+	}
+
+	/**
+	 * Writes little-endian values to a channel through a buffer, aligning
+	 * every double to 8 bytes.
+	 */
+	private static class Writer implements AutoCloseable {
+
+		/** The channel written to. */
+		private final FileChannel channel;
+
+		/** The values not yet written. */
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+		/** The bytes written to the channel so far. */
+		private long written;
+
+		private Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void putInt(int value) throws IOException {
+			ensure(4).putInt(value);
+		}
+
+		private void putFloat(float value) throws IOException {
+			ensure(4).putFloat(value);
+		}
+
+		private void putLong(long value) throws IOException {
+			align();
+			ensure(8).putLong(value);
+		}
+
+		private void putDouble(double value) throws IOException {
+			align();
+			ensure(8).putDouble(value);
+		}
+
+		private void putVector(Vector3D vector) throws IOException {
+			putDouble(vector.x);
+			putDouble(vector.y);
+			putDouble(vector.z);
+		}
+
+		/**
+		 * Pads the output to the next multiple of 8 bytes.
+		 */
+		private void align() throws IOException {
+			while (((written + buffer.position()) & 7) != 0)
+				ensure(1).put((byte) 0);
+		}
+
+		/**
+		 * Makes room in the buffer for the given number of bytes.
+		 */
+		private ByteBuffer ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+			return buffer;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				written += channel.write(buffer);
+			buffer.clear();
+		}
+
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
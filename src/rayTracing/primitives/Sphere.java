@@ -31,23 +31,53 @@ public class Sphere implements Primitive {
 
 	public boolean intersects(Ray ray, double tMin, Record record) {
 		
+		// Computes the closest intersection
+		final double t = closestT(ray);
+		if (t < tMin || t >= record.getT()) return false;
+		
+		return record.update(t, this);
+	}
+
+	public void resolve(Ray ray, Record record) {
+		
+		// Points the normal away from the center
+		final double t = record.getT();
+		record.setSurface(
+			ray.origin.x + t*ray.direction.x - center.x,
+			ray.origin.y + t*ray.direction.y - center.y,
+			ray.origin.z + t*ray.direction.z - center.z,
+			material
+		);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
+		final double t = closestT(ray);
+		return t >= tMin && t < tMax;
+	}
+	
+	/**
+	 * Computes the closer of the ray's two intersections with the sphere.
+	 * 
+	 * @param ray The ray to intersect, whose direction must be normalized.
+	 * 
+	 * @return The closer intersection's t, or Double.NEGATIVE_INFINITY if there is none.
+	 */
+	private double closestT(Ray ray) {
+		
 		// Transforms according to the sphere's position
-		final Vector3D transOrigin = ray.origin.subtract(center);
+		final double ox = ray.origin.x - center.x;
+		final double oy = ray.origin.y - center.y;
+		final double oz = ray.origin.z - center.z;
 		
 		// Computes the values for the quadratic equation
-		final double a = 1;
-		final double b = 2 * ray.direction.dot(transOrigin);
-		final double c = transOrigin.magnitude2() - radius*radius;
-		final double d2 = b*b - 4*a*c; 
+		final double b = 2 * (ray.direction.x*ox + ray.direction.y*oy + ray.direction.z*oz);
+		final double c = ox*ox + oy*oy + oz*oz - radius*radius;
+		final double d2 = b*b - 4*c; 
 		
 		// Checks for a lack of intersection
 		if (d2 < 0)
-			return false;
-		
-		// Stores closest intersection
-		final double t = (-b-Math.sqrt(d2))/2;
-		if (t < tMin) return false;
-		return record.update(t, ray.at(t).subtract(center), material);
+			return Double.NEGATIVE_INFINITY;
+		return (-b-Math.sqrt(d2))/2;
 	}
 
 	public Vector3D minBounds() {return center.subtract(new Vector3D(radius));}
@@ -2,15 +2,15 @@ package rayTracing.primitives;
 
 import math.Ray;
 import math.Vector3D;
-
-import static math.MiscFuncs.determinant;
-
 import rayTracing.Material;
 import rayTracing.Record;
 
 
 public class Triangle implements Primitive {
 	
+	/** The determinant at or below which a ray is considered parallel to the triangle. */
+	private static final double PARALLEL_EPSILON = 1e-4;
+	
 	/** The triangle's first vertex. */
 	public final Vector3D v1;
 	
@@ -22,6 +22,15 @@ public class Triangle implements Primitive {
 	
 	/** The triangle's material. */
 	public final Material material;
+	
+	/** The edge from the first to the second vertex. */
+	private final Vector3D edge1;
+	
+	/** The edge from the first to the third vertex. */
+	private final Vector3D edge2;
+	
+	/** The triangle's (unnormalized) normal. */
+	private final Vector3D normal;
 
 	/**
 	 * Creates a triangle with the given vertices.
@@ -36,29 +45,62 @@ public class Triangle implements Primitive {
 		this.v2 = v2;
 		this.v3 = v3;
 		this.material = material;
+		edge1 = v2.subtract(v1);
+		edge2 = v3.subtract(v1);
+		normal = edge1.cross(edge2);
 	}
 
 	public boolean intersects(Ray ray, double tMin, Record record) {
+		final double t = intersect(ray, tMin, record.getT());
+		if (t == Double.POSITIVE_INFINITY) return false;
+		return record.update(t, this);
+	}
+
+	public void resolve(Ray ray, Record record) {
+		record.setSurface(normal, material);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
+		return intersect(ray, tMin, tMax) != Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Intersects the ray with the triangle using the Moller-Trumbore algorithm.
+	 * 
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The t before which an intersection must happen.
+	 * 
+	 * @return The t of the intersection, or Double.POSITIVE_INFINITY if there is none in range.
+	 */
+	private double intersect(Ray ray, double tMin, double tMax) {
+		final double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+		
+		// Computes the determinant
+		final double px = dy*edge2.z - dz*edge2.y;
+		final double py = dz*edge2.x - dx*edge2.z;
+		final double pz = dx*edge2.y - dy*edge2.x;
+		final double det = edge1.x*px + edge1.y*py + edge1.z*pz;
+		if (Math.abs(det) <= PARALLEL_EPSILON) return Double.POSITIVE_INFINITY;
+		final double invDet = 1/det;
 		
-		// Stores the linear system to be solved
-		final Vector3D ACol1 = v1.subtract(v2);
-		final Vector3D ACol2 = v1.subtract(v3);
-		final Vector3D ACol3 = ray.direction;
-		final Vector3D b = v1.subtract(ray.origin);
+		// Computes the first barycentric coordinate
+		final double sx = ray.origin.x - v1.x;
+		final double sy = ray.origin.y - v1.y;
+		final double sz = ray.origin.z - v1.z;
+		final double beta = (sx*px + sy*py + sz*pz)*invDet;
+		if (beta < 0 || beta > 1) return Double.POSITIVE_INFINITY;
 		
-		// Computes the relevant determinants
-		final double detA = determinant(ACol1, ACol2, ACol3);
-		if (Math.abs(detA) <= 1e-4) return false;
-		final double beta = determinant(b, ACol2, ACol3)/detA;
-		final double gamma = determinant(ACol1, b, ACol3)/detA;
-		final double t = determinant(ACol1, ACol2, b)/detA;
+		// Computes the second barycentric coordinate
+		final double qx = sy*edge1.z - sz*edge1.y;
+		final double qy = sz*edge1.x - sx*edge1.z;
+		final double qz = sx*edge1.y - sy*edge1.x;
+		final double gamma = (dx*qx + dy*qy + dz*qz)*invDet;
+		if (gamma < 0 || beta+gamma > 1) return Double.POSITIVE_INFINITY;
 		
-		// Checks whether an intersection happened
-		if (t < tMin) return false;
-		if (beta+gamma <= 1 && beta >= 0 && gamma >= 0) {
-			return record.update(t, ACol1.cross(ACol2), material);
-		}
-		return false;
+		// Computes the distance
+		final double t = (edge2.x*qx + edge2.y*qy + edge2.z*qz)*invDet;
+		return t >= tMin && t < tMax ? t : Double.POSITIVE_INFINITY;
 	}
 
 	public Vector3D minBounds() {return Vector3D.min(Vector3D.min(v1, v2), v3);}
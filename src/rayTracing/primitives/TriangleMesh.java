@@ -0,0 +1,457 @@
+package rayTracing.primitives;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Material;
+import rayTracing.Metrics;
+import rayTracing.Record;
+import rayTracing.primitives.LinearBVH.TraversalStack;
+
+/**
+ * A mesh of triangles with its own hierarchy, stored as flat buffers rather
+ * than an object per triangle. The buffers either wrap arrays built in memory
+ * or view a memory-mapped scene file. The hierarchy is 4-wide, a WideBVH
+ * whose nodes' children and leaves' triangles are tested together by
+ * WideTests.
+ */
+public class TriangleMesh implements Primitive {
+
+	/** The determinant at or below which a ray is considered parallel to a triangle. */
+	private static final double PARALLEL_EPSILON = 1e-4;
+
+	/**
+	 * The length of the cross product of the edges of the triangles the
+	 * parallel epsilon suits, those of a terrain cell a sixteenth of a block across.
+	 */
+	private static final double EPSILON_CROSS = 1.0/256;
+
+	/** The number of triangles in the mesh. */
+	public final int size;
+
+	/** The first vertex of each triangle. */
+	final FloatBuffer v0x, v0y, v0z;
+
+	/** The edge from the first to the second vertex of each triangle. */
+	final FloatBuffer e1x, e1y, e1z;
+
+	/** The edge from the first to the third vertex of each triangle. */
+	final FloatBuffer e2x, e2y, e2z;
+
+	/** The index of each triangle's material in the material table. */
+	final IntBuffer materialIndices;
+
+	/** The distinct materials of the triangles. */
+	final Material[] materialTable;
+
+	/** The bounds of the root of the mesh's hierarchy, stored as (minX, minY, minZ, maxX, maxY, maxZ). */
+	final double[] rootBounds;
+
+	/** The records of each node of the mesh's 4-wide hierarchy. */
+	final IntBuffer nodes;
+
+	/** The deepest level of the binary hierarchy the mesh's hierarchy was collapsed from. */
+	final int depth;
+
+	/** The determinant at or below which a ray is considered parallel to one of the mesh's triangles. */
+	final double parallelEpsilon;
+
+	/** The minimum bounds of the mesh. */
+	private final Vector3D min;
+
+	/** The maximum bounds of the mesh. */
+	private final Vector3D max;
+
+	/**
+	 * Creates a triangle mesh from the given triangle vertices. Each triangle's
+	 * vertices are ordered like those of a Triangle.
+	 *
+	 * @param vertices The (x, y, z) coordinates of each triangle's three vertices, 9 values per triangle.
+	 * @param materials The material of each triangle.
+	 */
+	public TriangleMesh(double[] vertices, Material[] materials) {
+		this(soa(vertices, materials.length), materialIndices(materials), materialTable(materials), false);
+	}
+
+	/**
+	 * Creates a triangle mesh from shared vertices and the indices of each
+	 * triangle's three vertices, as collected by a MeshBuilder. Rays are only
+	 * considered parallel to triangles smaller than a terrain cell at a
+	 * determinant scaled down to their size, so finely detailed meshes are
+	 * not lost.
+	 *
+	 * @param positions The (x, y, z) coordinates of each vertex.
+	 * @param indices The indices of each triangle's three vertices, 3 values per triangle.
+	 * @param materialIndices The index of each triangle's material in the material table.
+	 * @param materialTable The distinct materials of the triangles.
+	 */
+	TriangleMesh(float[] positions, int[] indices, int[] materialIndices, Material[] materialTable) {
+		this(soa(positions, indices, materialIndices.length), materialIndices, materialTable, true);
+	}
+
+	/**
+	 * Creates a triangle mesh from the first vertex and edges of each
+	 * triangle, building its hierarchy and storing the triangles in leaf order.
+	 *
+	 * @param soa The v0x, v0y, v0z, e1x, e1y, e1z, e2x, e2y and e2z of every triangle, reused for the reordering.
+	 * @param materialIndices The index of each triangle's material in the material table.
+	 * @param materialTable The distinct materials of the triangles.
+	 * @param scaleEpsilon Whether to scale the parallel epsilon to the triangles' size.
+	 */
+	private TriangleMesh(float[][] soa, int[] materialIndices, Material[] materialTable, boolean scaleEpsilon) {
+		size = materialIndices.length;
+		parallelEpsilon = scaleEpsilon ? PARALLEL_EPSILON*Math.min(1, meanCross(soa, size)/EPSILON_CROSS) : PARALLEL_EPSILON;
+
+		// Computes the bounds each triangle spans
+		final double[] bounds = new double[6*size];
+		for (int i = 0; i < size; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				final double v0 = soa[axis][i];
+				final double e1 = soa[3+axis][i];
+				final double e2 = soa[6+axis][i];
+				bounds[6*i+axis] = Math.min(v0, Math.min(v0+e1, v0+e2));
+				bounds[6*i+3+axis] = Math.max(v0, Math.max(v0+e1, v0+e2));
+			}
+		}
+
+		// Builds the hierarchy, then stores the triangles in leaf order
+		final BVHBuilder.FlatTree tree = BVHBuilder.buildFlat(bounds);
+		final FloatBuffer[] buffers = new FloatBuffer[9];
+		for (int k = 0; k < 9; k++) {
+			buffers[k] = FloatBuffer.wrap(reorder(soa[k], tree.order));
+			soa[k] = null;
+		}
+		v0x = buffers[0]; v0y = buffers[1]; v0z = buffers[2];
+		e1x = buffers[3]; e1y = buffers[4]; e1z = buffers[5];
+		e2x = buffers[6]; e2y = buffers[7]; e2z = buffers[8];
+		final int[] reorderedIndices = new int[size];
+		for (int i = 0; i < size; i++)
+			reorderedIndices[i] = materialIndices[tree.order[i]];
+		this.materialIndices = IntBuffer.wrap(reorderedIndices);
+		this.materialTable = materialTable;
+
+		rootBounds = Arrays.copyOf(tree.bounds, 6);
+		nodes = IntBuffer.wrap(WideBVH.collapse(tree.bounds, tree.nodes));
+		depth = tree.depth;
+
+		// Stores the mesh's bounds
+		min = new Vector3D(rootBounds[0], rootBounds[1], rootBounds[2]);
+		max = new Vector3D(rootBounds[3], rootBounds[4], rootBounds[5]);
+	}
+
+	/**
+	 * Creates a triangle mesh over buffers already laid out in leaf order,
+	 * such as views of a scene file.
+	 *
+	 * @param size The number of triangles in the mesh.
+	 * @param soa The v0x, v0y, v0z, e1x, e1y, e1z, e2x, e2y and e2z of every triangle.
+	 * @param materialIndices The index of each triangle's material in the material table.
+	 * @param materialTable The distinct materials of the triangles.
+	 * @param rootBounds The bounds of the root of the mesh's hierarchy.
+	 * @param nodes The records of each node of the mesh's 4-wide hierarchy.
+	 * @param depth The deepest level of the binary hierarchy the mesh's hierarchy was collapsed from.
+	 * @param parallelEpsilon The determinant at or below which a ray is considered parallel to a triangle.
+	 */
+	TriangleMesh(int size, FloatBuffer[] soa, IntBuffer materialIndices, Material[] materialTable, double[] rootBounds, IntBuffer nodes, int depth, double parallelEpsilon) {
+		this.size = size;
+		this.parallelEpsilon = parallelEpsilon;
+		v0x = soa[0]; v0y = soa[1]; v0z = soa[2];
+		e1x = soa[3]; e1y = soa[4]; e1z = soa[5];
+		e2x = soa[6]; e2y = soa[7]; e2z = soa[8];
+		this.materialIndices = materialIndices;
+		this.materialTable = materialTable;
+		this.rootBounds = rootBounds;
+		this.nodes = nodes;
+		this.depth = depth;
+		min = new Vector3D(rootBounds[0], rootBounds[1], rootBounds[2]);
+		max = new Vector3D(rootBounds[3], rootBounds[4], rootBounds[5]);
+	}
+
+	public boolean intersects(Ray ray, double tMin, Record record) {
+
+		// Checks the root
+		final double rootEntry = LinearBVH.entry(rootBounds, 0, ray, tMin, record.getT());
+		if (rootEntry == Double.POSITIVE_INFINITY) return false;
+
+		// Prepares the stack, which holds nodes by index and leaves by the complement of their slot
+		final TraversalStack stack = TraversalStack.acquire(stackSize(depth));
+		final int[] nodeStack = stack.nodes;
+		final double[] entryStack = stack.entries;
+		final double[] childEntries = stack.wideEntries;
+		nodeStack[0] = 0;
+		entryStack[0] = rootEntry;
+		int top = 1;
+
+		int closest = -1;
+		int visited = 0, tests = 0;
+		try {
+			while (top > 0) {
+
+				// Skips nodes entered beyond the closest hit
+				top--;
+				if (entryStack[top] > record.getT()) continue;
+				final int node = nodeStack[top];
+				visited++;
+
+				// Tests the leaf's triangles
+				if (node < 0) {
+					final int slot = ~node;
+					final int r = WideBVH.NODE_INTS*(slot/WideBVH.WIDTH) + slot%WideBVH.WIDTH;
+					final int count = nodes.get(r + WideBVH.COUNTS);
+					tests += count;
+					final int i = WideTests.INSTANCE.closestTriangle(this, nodes.get(r + WideBVH.CHILDREN), count, ray, tMin, record.getT(), stack);
+					if (i >= 0 && record.update(stack.hitT, this, 0, 0, i))
+						closest = i;
+					continue;
+				}
+
+				// Pushes the entered children, nearest on top and the first of equals above the rest
+				final int r = WideBVH.NODE_INTS*node;
+				final int entered = WideTests.INSTANCE.childEntries(nodes, r, ray, tMin, record.getT(), childEntries);
+				final int first = top;
+				for (int c = 0; c < WideBVH.WIDTH; c++) {
+					if ((entered & 1 << c) == 0) continue;
+					final int child = nodes.get(r + WideBVH.COUNTS + c) > 0 ? ~(WideBVH.WIDTH*node + c) : nodes.get(r + WideBVH.CHILDREN + c);
+					final double entry = childEntries[c];
+					int i = top++;
+					for (; i > first && entryStack[i-1] <= entry; i--) {
+						nodeStack[i] = nodeStack[i-1];
+						entryStack[i] = entryStack[i-1];
+					}
+					nodeStack[i] = child;
+					entryStack[i] = entry;
+				}
+			}
+		} finally {
+			stack.release();
+		}
+		stack.counts[Metrics.NODES_VISITED] += visited;
+		stack.counts[Metrics.PRIMITIVE_TESTS] += tests;
+		return closest >= 0;
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
+
+		// Checks the root
+		if (LinearBVH.entry(rootBounds, 0, ray, tMin, tMax) == Double.POSITIVE_INFINITY) return false;
+
+		// Prepares the stack, which holds nodes by index and leaves by the complement of their slot
+		final TraversalStack stack = TraversalStack.acquire(stackSize(depth));
+		final int[] nodeStack = stack.nodes;
+		final double[] childEntries = stack.wideEntries;
+		nodeStack[0] = 0;
+		int top = 1;
+
+		int visited = 0, tests = 0;
+		boolean blocked = false;
+		try {
+			while (top > 0) {
+				final int node = nodeStack[--top];
+				visited++;
+
+				// Tests the leaf's triangles
+				if (node < 0) {
+					final int slot = ~node;
+					final int r = WideBVH.NODE_INTS*(slot/WideBVH.WIDTH) + slot%WideBVH.WIDTH;
+					final int count = nodes.get(r + WideBVH.COUNTS);
+					tests += count;
+					if (WideTests.INSTANCE.anyTriangle(this, nodes.get(r + WideBVH.CHILDREN), count, ray, tMin, tMax, stack)) {
+						blocked = true;
+						break;
+					}
+					continue;
+				}
+
+				// Pushes the entered children
+				final int r = WideBVH.NODE_INTS*node;
+				final int entered = WideTests.INSTANCE.childEntries(nodes, r, ray, tMin, tMax, childEntries);
+				for (int c = WideBVH.WIDTH-1; c >= 0; c--)
+					if ((entered & 1 << c) != 0)
+						nodeStack[top++] = nodes.get(r + WideBVH.COUNTS + c) > 0 ? ~(WideBVH.WIDTH*node + c) : nodes.get(r + WideBVH.CHILDREN + c);
+			}
+		} finally {
+			stack.release();
+		}
+		stack.counts[Metrics.NODES_VISITED] += visited;
+		stack.counts[Metrics.PRIMITIVE_TESTS] += tests;
+		return blocked;
+	}
+
+	/**
+	 * Computes the most stack entries a traversal can hold at once: each
+	 * level of 4-wide nodes, of which there are at most as many as binary
+	 * levels, can leave three children waiting.
+	 *
+	 * @param depth The deepest level of the binary hierarchy.
+	 *
+	 * @return The stack entries needed.
+	 */
+	private static int stackSize(int depth) {
+		return 1 + (WideBVH.WIDTH-1)*depth;
+	}
+
+	/**
+	 * Intersects the ray with a single triangle using the Moller-Trumbore algorithm.
+	 *
+	 * @param i The index of the triangle.
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The t before which an intersection must happen.
+	 *
+	 * @return The t of the intersection, or Double.POSITIVE_INFINITY if there is none in range.
+	 */
+	double intersect(int i, Ray ray, double tMin, double tMax) {
+		final double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+		final double ax = e1x.get(i), ay = e1y.get(i), az = e1z.get(i);
+		final double bx = e2x.get(i), by = e2y.get(i), bz = e2z.get(i);
+
+		// Computes the determinant
+		final double px = dy*bz - dz*by;
+		final double py = dz*bx - dx*bz;
+		final double pz = dx*by - dy*bx;
+		final double det = ax*px + ay*py + az*pz;
+		if (Math.abs(det) <= parallelEpsilon) return Double.POSITIVE_INFINITY;
+		final double invDet = 1/det;
+
+		// Computes the first barycentric coordinate
+		final double sx = ray.origin.x - v0x.get(i);
+		final double sy = ray.origin.y - v0y.get(i);
+		final double sz = ray.origin.z - v0z.get(i);
+		final double u = (sx*px + sy*py + sz*pz)*invDet;
+		if (u < 0 || u > 1) return Double.POSITIVE_INFINITY;
+
+		// Computes the second barycentric coordinate
+		final double qx = sy*az - sz*ay;
+		final double qy = sz*ax - sx*az;
+		final double qz = sx*ay - sy*ax;
+		final double v = (dx*qx + dy*qy + dz*qz)*invDet;
+		if (v < 0 || u+v > 1) return Double.POSITIVE_INFINITY;
+
+		// Computes the distance
+		final double t = (bx*qx + by*qy + bz*qz)*invDet;
+		return t >= tMin && t < tMax ? t : Double.POSITIVE_INFINITY;
+	}
+
+	public void resolve(Ray ray, Record record) {
+		final int i = record.getIndex();
+		record.setSurface(
+			e1y.get(i)*(double)e2z.get(i) - e1z.get(i)*(double)e2y.get(i),
+			e1z.get(i)*(double)e2x.get(i) - e1x.get(i)*(double)e2z.get(i),
+			e1x.get(i)*(double)e2y.get(i) - e1y.get(i)*(double)e2x.get(i),
+			materialTable[materialIndices.get(i)]
+		);
+	}
+
+	/**
+	 * Splits triangle vertices into the first vertex and edges of each triangle.
+	 *
+	 * @param vertices The (x, y, z) coordinates of each triangle's three vertices, 9 values per triangle.
+	 * @param size The number of triangles.
+	 *
+	 * @return The v0x, v0y, v0z, e1x, e1y, e1z, e2x, e2y and e2z of every triangle.
+	 */
+	private static float[][] soa(double[] vertices, int size) {
+		final float[][] soa = new float[9][size];
+		for (int i = 0; i < size; i++) {
+			final int v = 9*i;
+			for (int axis = 0; axis < 3; axis++) {
+				soa[axis][i] = (float) vertices[v+axis];
+				soa[3+axis][i] = (float) (vertices[v+3+axis]-vertices[v+axis]);
+				soa[6+axis][i] = (float) (vertices[v+6+axis]-vertices[v+axis]);
+			}
+		}
+		return soa;
+	}
+
+	/**
+	 * Splits indexed triangles into the first vertex and edges of each triangle.
+	 *
+	 * @param positions The (x, y, z) coordinates of each vertex.
+	 * @param indices The indices of each triangle's three vertices, 3 values per triangle.
+	 * @param size The number of triangles.
+	 *
+	 * @return The v0x, v0y, v0z, e1x, e1y, e1z, e2x, e2y and e2z of every triangle.
+	 */
+	private static float[][] soa(float[] positions, int[] indices, int size) {
+		final float[][] soa = new float[9][size];
+		for (int i = 0; i < size; i++) {
+			final int a = 3*indices[3*i], b = 3*indices[3*i+1], c = 3*indices[3*i+2];
+			for (int axis = 0; axis < 3; axis++) {
+				soa[axis][i] = positions[a+axis];
+				soa[3+axis][i] = positions[b+axis]-positions[a+axis];
+				soa[6+axis][i] = positions[c+axis]-positions[a+axis];
+			}
+		}
+		return soa;
+	}
+
+	/**
+	 * @return The mean length of the cross product of each triangle's edges.
+	 */
+	private static double meanCross(float[][] soa, int size) {
+		double sum = 0;
+		for (int i = 0; i < size; i++) {
+			final double cx = soa[4][i]*(double)soa[8][i] - soa[5][i]*(double)soa[7][i];
+			final double cy = soa[5][i]*(double)soa[6][i] - soa[3][i]*(double)soa[8][i];
+			final double cz = soa[3][i]*(double)soa[7][i] - soa[4][i]*(double)soa[6][i];
+			sum += Math.sqrt(cx*cx + cy*cy + cz*cz);
+		}
+		return size == 0 ? 0 : sum/size;
+	}
+
+	/**
+	 * @return The distinct materials, in the order they first appear.
+	 */
+	private static Material[] materialTable(Material[] materials) {
+		final Map<Material, Integer> indices = distinctMaterials(materials);
+		final Material[] table = new Material[indices.size()];
+		for (Map.Entry<Material, Integer> entry : indices.entrySet())
+			table[entry.getValue()] = entry.getKey();
+		return table;
+	}
+
+	/**
+	 * @return The index of each material in the material table.
+	 */
+	private static int[] materialIndices(Material[] materials) {
+		final Map<Material, Integer> indices = distinctMaterials(materials);
+		final int[] materialIndices = new int[materials.length];
+		for (int i = 0; i < materials.length; i++)
+			materialIndices[i] = indices.get(materials[i]);
+		return materialIndices;
+	}
+
+	/**
+	 * Numbers the distinct materials in the order they first appear.
+	 */
+	private static Map<Material, Integer> distinctMaterials(Material[] materials) {
+		final Map<Material, Integer> indices = new IdentityHashMap<Material, Integer>();
+		for (Material material : materials)
+			if (!indices.containsKey(material))
+				indices.put(material, indices.size());
+		return indices;
+	}
+
+	/**
+	 * Reorders the values so the value at index order[i] moves to index i.
+	 *
+	 * @param values The values to reorder.
+	 * @param order The new order of the indices.
+	 *
+	 * @return The reordered values.
+	 */
+	private static float[] reorder(float[] values, int[] order) {
+		final float[] reordered = new float[values.length];
+		for (int i = 0; i < order.length; i++)
+			reordered[i] = values[order[i]];
+		return reordered;
+	}
+
+	public Vector3D minBounds() {return min;}
+	public Vector3D maxBounds() {return max;}
+}
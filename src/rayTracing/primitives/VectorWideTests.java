@@ -0,0 +1,182 @@
+package rayTracing.primitives;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import math.Ray;
+import rayTracing.primitives.LinearBVH.TraversalStack;
+
+/**
+ * The tests of WideTests done with the Vector API, a lane of doubles per
+ * child or triangle. Only loaded by name when the jdk.incubator.vector module
+ * is present.
+ */
+final class VectorWideTests extends WideTests {
+
+	/** The doubles each test is done in, a lane per child or triangle. */
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_256;
+
+	/** The floats the triangles are loaded from, a lane per triangle. */
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_128;
+
+	/** The ints a plane's bytes are unpacked into, a lane per child. */
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_128;
+
+	/** The shift of each child's byte within a plane. */
+	private static final IntVector BYTE_SHIFTS = IntVector.fromArray(INTS, new int[] {0, 8, 16, 24}, 0);
+
+	/** A lane of infinity per child or triangle, for misses. */
+	private static final DoubleVector MISSES = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+
+	/** A lane of 1 per triangle. */
+	private static final DoubleVector ONES = DoubleVector.broadcast(DOUBLES, 1);
+
+	boolean supported() {
+		return DoubleVector.SPECIES_PREFERRED.length() >= WideBVH.WIDTH;
+	}
+
+	int childEntries(IntBuffer nodes, int r, Ray ray, double tMin, double tMax, double[] entries) {
+
+		// Decodes the node's grid
+		final double originX = Float.intBitsToFloat(nodes.get(r+WideBVH.ORIGIN));
+		final double originY = Float.intBitsToFloat(nodes.get(r+WideBVH.ORIGIN+1));
+		final double originZ = Float.intBitsToFloat(nodes.get(r+WideBVH.ORIGIN+2));
+		final int exponents = nodes.get(r+WideBVH.EXPONENTS);
+		final double stepX = WideBVH.step((exponents & 0xFF) - WideBVH.EXPONENT_BIAS);
+		final double stepY = WideBVH.step((exponents >>> 8 & 0xFF) - WideBVH.EXPONENT_BIAS);
+		final double stepZ = WideBVH.step((exponents >>> 16 & 0xFF) - WideBVH.EXPONENT_BIAS);
+
+		// Picks the plane the ray meets first along each axis, which it enters the slab by
+		final int nearX = ray.oneOverDirectionX() >= 0 ? 0 : 3;
+		final int nearY = ray.oneOverDirectionY() >= 0 ? 0 : 3;
+		final int nearZ = ray.oneOverDirectionZ() >= 0 ? 0 : 3;
+
+		// Intersects the slabs of every child
+		final DoubleVector tStart = plane(nodes.get(r+WideBVH.PLANES + nearX), originX, stepX).sub(ray.origin.x).mul(ray.oneOverDirectionX())
+			.max(plane(nodes.get(r+WideBVH.PLANES+1 + nearY), originY, stepY).sub(ray.origin.y).mul(ray.oneOverDirectionY()))
+			.max(plane(nodes.get(r+WideBVH.PLANES+2 + nearZ), originZ, stepZ).sub(ray.origin.z).mul(ray.oneOverDirectionZ()));
+		final DoubleVector tEnd = plane(nodes.get(r+WideBVH.PLANES + 3-nearX), originX, stepX).sub(ray.origin.x).mul(ray.oneOverDirectionX())
+			.min(plane(nodes.get(r+WideBVH.PLANES+1 + 3-nearY), originY, stepY).sub(ray.origin.y).mul(ray.oneOverDirectionY()))
+			.min(plane(nodes.get(r+WideBVH.PLANES+2 + 3-nearZ), originZ, stepZ).sub(ray.origin.z).mul(ray.oneOverDirectionZ()));
+
+		// Keeps the children that exist and are not missed
+		final VectorMask<Double> missed = tStart.compare(VectorOperators.GT, tEnd)
+			.or(tEnd.compare(VectorOperators.LT, tMin))
+			.or(tStart.compare(VectorOperators.GT, tMax));
+		final VectorMask<Double> entered = DOUBLES.indexInRange(0, exponents >>> 24).andNot(missed);
+		MISSES.blend(tStart, entered).intoArray(entries, 0);
+		return (int) entered.toLong();
+	}
+
+	int closestTriangle(TriangleMesh mesh, int offset, int count, Ray ray, double tMin, double tMax, TraversalStack stack) {
+		int closest = -1;
+		for (int i = offset; i < offset+count; i += WideBVH.WIDTH) {
+			final DoubleVector t = intersect(mesh, i, offset+count, ray, tMin, tMax, stack.wideLanes);
+			final double nearest = t.reduceLanes(VectorOperators.MIN);
+			if (nearest < tMax) {
+				tMax = nearest;
+				closest = i + t.compare(VectorOperators.EQ, nearest).firstTrue();
+			}
+		}
+		stack.hitT = tMax;
+		return closest;
+	}
+
+	boolean anyTriangle(TriangleMesh mesh, int offset, int count, Ray ray, double tMin, double tMax, TraversalStack stack) {
+		for (int i = offset; i < offset+count; i += WideBVH.WIDTH)
+			if (intersect(mesh, i, offset+count, ray, tMin, tMax, stack.wideLanes).compare(VectorOperators.LT, tMax).anyTrue())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Decodes a plane of every child of a node.
+	 *
+	 * @param plane The plane's int, a byte per child.
+	 * @param origin The node's origin along the plane's axis.
+	 * @param step The node's step along the plane's axis.
+	 *
+	 * @return The plane's coordinate for each child.
+	 */
+	private static DoubleVector plane(int plane, double origin, double step) {
+		final IntVector bytes = IntVector.broadcast(INTS, plane).lanewise(VectorOperators.LSHR, BYTE_SHIFTS).and(0xFF);
+		return ((DoubleVector) bytes.convertShape(VectorOperators.I2D, DOUBLES, 0)).mul(step).add(origin);
+	}
+
+	/**
+	 * Intersects the ray with up to WIDTH triangles at once using the
+	 * Moller-Trumbore algorithm, as TriangleMesh.intersect does with one.
+	 *
+	 * @param mesh The mesh of the triangles.
+	 * @param i The index of the first triangle.
+	 * @param end The index after the last triangle that may be tested.
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The t before which an intersection must happen.
+	 * @param lanes Room to gather a lane of floats from buffers without arrays.
+	 *
+	 * @return The t of each triangle's intersection, or Double.POSITIVE_INFINITY where there is none in range.
+	 */
+	private static DoubleVector intersect(TriangleMesh mesh, int i, int end, Ray ray, double tMin, double tMax, float[] lanes) {
+		final VectorMask<Float> inRange = FLOATS.indexInRange(i, end);
+		final double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+		final DoubleVector ax = load(mesh.e1x, i, inRange, lanes), ay = load(mesh.e1y, i, inRange, lanes), az = load(mesh.e1z, i, inRange, lanes);
+		final DoubleVector bx = load(mesh.e2x, i, inRange, lanes), by = load(mesh.e2y, i, inRange, lanes), bz = load(mesh.e2z, i, inRange, lanes);
+
+		// Computes the determinant
+		final DoubleVector px = bz.mul(dy).sub(by.mul(dz));
+		final DoubleVector py = bx.mul(dz).sub(bz.mul(dx));
+		final DoubleVector pz = by.mul(dx).sub(bx.mul(dy));
+		final DoubleVector det = ax.mul(px).add(ay.mul(py)).add(az.mul(pz));
+		VectorMask<Double> missed = det.abs().compare(VectorOperators.LE, mesh.parallelEpsilon);
+		final DoubleVector invDet = ONES.div(det);
+
+		// Computes the first barycentric coordinate
+		final DoubleVector sx = DoubleVector.broadcast(DOUBLES, ray.origin.x).sub(load(mesh.v0x, i, inRange, lanes));
+		final DoubleVector sy = DoubleVector.broadcast(DOUBLES, ray.origin.y).sub(load(mesh.v0y, i, inRange, lanes));
+		final DoubleVector sz = DoubleVector.broadcast(DOUBLES, ray.origin.z).sub(load(mesh.v0z, i, inRange, lanes));
+		final DoubleVector u = sx.mul(px).add(sy.mul(py)).add(sz.mul(pz)).mul(invDet);
+		missed = missed.or(u.compare(VectorOperators.LT, 0)).or(u.compare(VectorOperators.GT, 1));
+
+		// Computes the second barycentric coordinate
+		final DoubleVector qx = sy.mul(az).sub(sz.mul(ay));
+		final DoubleVector qy = sz.mul(ax).sub(sx.mul(az));
+		final DoubleVector qz = sx.mul(ay).sub(sy.mul(ax));
+		final DoubleVector v = qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)).mul(invDet);
+		missed = missed.or(v.compare(VectorOperators.LT, 0)).or(u.add(v).compare(VectorOperators.GT, 1));
+
+		// Computes the distance
+		final DoubleVector t = bx.mul(qx).add(by.mul(qy)).add(bz.mul(qz)).mul(invDet);
+		final VectorMask<Double> hit = t.compare(VectorOperators.GE, tMin).and(t.compare(VectorOperators.LT, tMax))
+			.and(inRange.cast(DOUBLES)).andNot(missed);
+		return MISSES.blend(t, hit);
+	}
+
+	/**
+	 * Loads a lane of floats per triangle, widened to doubles.
+	 *
+	 * @param values The values of every triangle.
+	 * @param i The index of the first triangle.
+	 * @param inRange The lanes of triangles that may be tested, the others loaded as 0.
+	 * @param lanes Room to gather the floats from buffers without arrays.
+	 *
+	 * @return The values of the triangles.
+	 */
+	private static DoubleVector load(FloatBuffer values, int i, VectorMask<Float> inRange, float[] lanes) {
+		final FloatVector floats;
+		if (values.hasArray()) {
+			floats = FloatVector.fromArray(FLOATS, values.array(), values.arrayOffset()+i, inRange);
+		} else {
+			for (int lane = 0; lane < WideBVH.WIDTH; lane++)
+				lanes[lane] = inRange.laneIsSet(lane) ? values.get(i+lane) : 0;
+			floats = FloatVector.fromArray(FLOATS, lanes, 0);
+		}
+		return (DoubleVector) floats.convertShape(VectorOperators.F2D, DOUBLES, 0);
+	}
+}
@@ -0,0 +1,177 @@
+package rayTracing.primitives;
+
+import java.util.Arrays;
+
+/**
+ * The 4-wide hierarchy of a triangle mesh, collapsed from the binary one
+ * BVHBuilder makes and stored as records of NODE_INTS ints. Each node holds
+ * up to WIDTH children, so a ray visits about half as many nodes and tests
+ * all of a node's children together in WideTests.
+ *
+ * A node stores the float origin of its box and a power of two step along
+ * each axis. Each plane of its children is stored as a byte counting steps
+ * from the origin, rounded outwards, so a decoded box always holds the box it
+ * was made from. The children's values of each plane are stored together in
+ * one int, a byte per child, so they can be loaded into lanes at once. Each
+ * child is either another node, by index, or a leaf, by the offset and count
+ * of its triangles.
+ *
+ * The root is node 0. Its own bounds are not stored.
+ */
+final class WideBVH {
+
+	/** The most children of a node. */
+	static final int WIDTH = 4;
+
+	/** The number of ints stored per node. */
+	static final int NODE_INTS = 18;
+
+	/** The offset of a node's origin, as the bits of 3 floats. */
+	static final int ORIGIN = 0;
+
+	/** The offset of a node's biased step exponents, a byte per axis, then its child count in the fourth byte. */
+	static final int EXPONENTS = 3;
+
+	/** The offset of a node's planes, (minX, minY, minZ, maxX, maxY, maxZ), each an int of a byte per child. */
+	static final int PLANES = 4;
+
+	/** The offset of a node's children, each the index of a node or the triangle offset of a leaf. */
+	static final int CHILDREN = 10;
+
+	/** The offset of a node's child triangle counts, 0 for children that are nodes. */
+	static final int COUNTS = 14;
+
+	/** The bias of the stored step exponents. */
+	static final int EXPONENT_BIAS = 128;
+
+	/** The smallest step exponent stored, kept well clear of subnormal steps. */
+	private static final int MIN_EXPONENT = -100;
+
+	/** The largest plane value. */
+	private static final int MAX_PLANE = 255;
+
+	private WideBVH() {}
+
+	/**
+	 * Collapses a flattened binary hierarchy into 4-wide nodes, taking the
+	 * place of each node's child with the largest surface area by that child's
+	 * own children until the node has WIDTH children or only leaves.
+	 *
+	 * @param bounds The bounds of each binary node, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 * @param nodes The (offset, item count) pair of each binary node, inner nodes having no items.
+	 *
+	 * @return The records of each node, in breadth-first order.
+	 */
+	static int[] collapse(double[] bounds, int[] nodes) {
+		int[] records = new int[NODE_INTS*Math.max(1, nodes.length/6)];
+		int[] binaryNodes = new int[records.length/NODE_INTS];
+		int nodeCount = 1;
+		final int[] children = new int[WIDTH];
+		for (int node = 0; node < nodeCount; node++) {
+			final int binary = binaryNodes[node];
+
+			// Gathers the children, opening the largest inner child while there is room
+			int childCount = 0;
+			if (nodes[2*binary+1] > 0) {
+				children[childCount++] = binary;
+			} else if (nodes.length > 2) {
+				children[childCount++] = nodes[2*binary];
+				children[childCount++] = nodes[2*binary]+1;
+			}
+			while (childCount < WIDTH) {
+				int largest = -1;
+				for (int c = 0; c < childCount; c++)
+					if (nodes[2*children[c]+1] == 0 && (largest < 0 || area(bounds, children[c]) > area(bounds, children[largest])))
+						largest = c;
+				if (largest < 0) break;
+				final int opened = children[largest];
+				children[largest] = nodes[2*opened];
+				children[childCount++] = nodes[2*opened]+1;
+			}
+
+			// Stores the children's bounds and references, queueing inner children
+			final int r = NODE_INTS*node;
+			quantize(bounds, children, childCount, records, r);
+			for (int c = 0; c < childCount; c++) {
+				final int child = children[c];
+				if (nodes[2*child+1] > 0) {
+					records[r+CHILDREN+c] = nodes[2*child];
+					records[r+COUNTS+c] = nodes[2*child+1];
+				} else {
+					if (nodeCount == binaryNodes.length) {
+						binaryNodes = Arrays.copyOf(binaryNodes, 2*nodeCount);
+						records = Arrays.copyOf(records, NODE_INTS*2*nodeCount);
+					}
+					binaryNodes[nodeCount] = child;
+					records[r+CHILDREN+c] = nodeCount++;
+				}
+			}
+		}
+		return Arrays.copyOf(records, NODE_INTS*nodeCount);
+	}
+
+	/**
+	 * Stores the origin, steps and planes of a node's children.
+	 *
+	 * @param bounds The bounds of each binary node.
+	 * @param children The binary nodes that are the node's children.
+	 * @param childCount The number of children.
+	 * @param records The records of each node.
+	 * @param r The offset of the node's record.
+	 */
+	private static void quantize(double[] bounds, int[] children, int childCount, int[] records, int r) {
+		int exponents = childCount << 24;
+		for (int axis = 0; axis < 3 && childCount > 0; axis++) {
+
+			// Chooses an origin and step covering every child
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for (int c = 0; c < childCount; c++) {
+				min = Math.min(min, bounds[6*children[c]+axis]);
+				max = Math.max(max, bounds[6*children[c]+3+axis]);
+			}
+			float originFloat = (float) min;
+			if (originFloat > min)
+				originFloat = Math.nextDown(originFloat);
+			final double origin = originFloat;
+			int exponent = Math.max(MIN_EXPONENT, Math.getExponent((max-origin)/MAX_PLANE));
+			while (origin + MAX_PLANE*step(exponent) < max)
+				exponent++;
+			final double step = step(exponent);
+			records[r+ORIGIN+axis] = Float.floatToRawIntBits(originFloat);
+			exponents |= (exponent+EXPONENT_BIAS) << 8*axis;
+
+			// Rounds each child's planes outwards
+			for (int c = 0; c < childCount; c++) {
+				final double childMin = bounds[6*children[c]+axis];
+				final double childMax = bounds[6*children[c]+3+axis];
+				int low = (int) Math.floor((childMin-origin)/step);
+				while (low > 0 && origin + low*step > childMin)
+					low--;
+				int high = (int) Math.ceil((childMax-origin)/step);
+				while (high < MAX_PLANE && origin + high*step < childMax)
+					high++;
+				records[r+PLANES+axis] |= Math.max(0, low) << 8*c;
+				records[r+PLANES+3+axis] |= Math.min(MAX_PLANE, high) << 8*c;
+			}
+		}
+		records[r+EXPONENTS] = exponents;
+	}
+
+	/**
+	 * @return The step of the given unbiased exponent, 2 to its power.
+	 */
+	static double step(int exponent) {
+		return Double.longBitsToDouble((long) (exponent + Double.MAX_EXPONENT) << 52);
+	}
+
+	/**
+	 * @return The surface area of the given binary node.
+	 */
+	private static double area(double[] bounds, int node) {
+		final int b = 6*node;
+		final double dx = bounds[b+3]-bounds[b];
+		final double dy = bounds[b+4]-bounds[b+1];
+		final double dz = bounds[b+5]-bounds[b+2];
+		return 2*(dx*dy + dy*dz + dz*dx);
+	}
+}
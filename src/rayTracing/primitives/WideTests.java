@@ -0,0 +1,163 @@
+package rayTracing.primitives;
+
+import java.nio.IntBuffer;
+
+import math.Ray;
+import rayTracing.primitives.LinearBVH.TraversalStack;
+
+/**
+ * The tests of a ray against the children of a WideBVH node and against a
+ * leaf's triangles, done a lane per child or triangle by VectorWideTests
+ * where the jdk.incubator.vector module is present, as with
+ * --add-modules jdk.incubator.vector, and the hardware has 4 lanes of
+ * doubles, or one at a time by Scalar otherwise. Both do the same double
+ * arithmetic in the same order, so they find the same hits. -Dsimd=false
+ * keeps to Scalar.
+ */
+abstract class WideTests {
+
+	/** The tests used by every mesh. */
+	static final WideTests INSTANCE = choose();
+
+	/**
+	 * Computes where the ray enters each child of a node within the range of t.
+	 *
+	 * @param nodes The records of each node.
+	 * @param r The offset of the node's record.
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The maximum t for an intersection.
+	 * @param entries Where to store the t at which the ray enters each child, WIDTH values.
+	 *
+	 * @return A mask of the children entered, bit c set for child c.
+	 */
+	abstract int childEntries(IntBuffer nodes, int r, Ray ray, double tMin, double tMax, double[] entries);
+
+	/**
+	 * Finds a leaf's closest triangle hit within the range of t, the first of
+	 * those hit at the same t.
+	 *
+	 * @param mesh The mesh of the triangles.
+	 * @param offset The index of the leaf's first triangle.
+	 * @param count The number of triangles in the leaf.
+	 * @param ray The ray to intersect.
+	 * @param tMin The minimum t for an intersection.
+	 * @param tMax The t before which an intersection must happen.
+	 * @param stack The calling thread's stack, whose hitT is set to the t of the hit.
+	 *
+	 * @return The index of the triangle hit, or -1 if none is.
+	 */
+	abstract int closestTriangle(TriangleMesh mesh, int offset, int count, Ray ray, double tMin, double tMax, TraversalStack stack);
+
+	/**
+	 * Checks whether any of a leaf's triangles blocks the ray within the range of t.
+	 *
+	 * @param mesh The mesh of the triangles.
+	 * @param offset The index of the leaf's first triangle.
+	 * @param count The number of triangles in the leaf.
+	 * @param ray The ray to check.
+	 * @param tMin The minimum t for a blocking intersection.
+	 * @param tMax The t before which a blocking intersection must happen.
+	 * @param stack The calling thread's stack.
+	 *
+	 * @return Whether the ray is blocked.
+	 */
+	abstract boolean anyTriangle(TriangleMesh mesh, int offset, int count, Ray ray, double tMin, double tMax, TraversalStack stack);
+
+	/**
+	 * Loads VectorWideTests by name, so its use of the incubator module is
+	 * only linked when the module is present, falling back to Scalar.
+	 */
+	private static WideTests choose() {
+		if (Boolean.parseBoolean(System.getProperty("simd", "true")) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				final WideTests tests = (WideTests) Class.forName("rayTracing.primitives.VectorWideTests").getDeclaredConstructor().newInstance();
+				if (tests.supported())
+					return tests;
+			} catch (ReflectiveOperationException | LinkageError e) {
+				System.err.println("Falling back to scalar mesh tests: " + e);
+			}
+		}
+		return new Scalar();
+	}
+
+	/**
+	 * @return Whether the tests run well on this hardware.
+	 */
+	boolean supported() {
+		return true;
+	}
+
+	/**
+	 * The tests done one child or triangle at a time.
+	 */
+	static class Scalar extends WideTests {
+
+		int childEntries(IntBuffer nodes, int r, Ray ray, double tMin, double tMax, double[] entries) {
+
+			// Decodes the node's grid
+			final double originX = Float.intBitsToFloat(nodes.get(r+WideBVH.ORIGIN));
+			final double originY = Float.intBitsToFloat(nodes.get(r+WideBVH.ORIGIN+1));
+			final double originZ = Float.intBitsToFloat(nodes.get(r+WideBVH.ORIGIN+2));
+			final int exponents = nodes.get(r+WideBVH.EXPONENTS);
+			final double stepX = WideBVH.step((exponents & 0xFF) - WideBVH.EXPONENT_BIAS);
+			final double stepY = WideBVH.step((exponents >>> 8 & 0xFF) - WideBVH.EXPONENT_BIAS);
+			final double stepZ = WideBVH.step((exponents >>> 16 & 0xFF) - WideBVH.EXPONENT_BIAS);
+			final int childCount = exponents >>> 24;
+
+			// Picks the plane the ray meets first along each axis, which it enters the slab by
+			final boolean forwardX = ray.oneOverDirectionX() >= 0;
+			final boolean forwardY = ray.oneOverDirectionY() >= 0;
+			final boolean forwardZ = ray.oneOverDirectionZ() >= 0;
+			final int nearX = nodes.get(r+WideBVH.PLANES + (forwardX ? 0 : 3));
+			final int nearY = nodes.get(r+WideBVH.PLANES+1 + (forwardY ? 0 : 3));
+			final int nearZ = nodes.get(r+WideBVH.PLANES+2 + (forwardZ ? 0 : 3));
+			final int farX = nodes.get(r+WideBVH.PLANES + (forwardX ? 3 : 0));
+			final int farY = nodes.get(r+WideBVH.PLANES+1 + (forwardY ? 3 : 0));
+			final int farZ = nodes.get(r+WideBVH.PLANES+2 + (forwardZ ? 3 : 0));
+
+			int entered = 0;
+			for (int c = 0, shift = 0; c < childCount; c++, shift += 8) {
+
+				// Intersects the slabs
+				final double tStart = Math.max(Math.max(
+					ray.tAtX(originX + (nearX >>> shift & 0xFF)*stepX),
+					ray.tAtY(originY + (nearY >>> shift & 0xFF)*stepY)),
+					ray.tAtZ(originZ + (nearZ >>> shift & 0xFF)*stepZ));
+				final double tEnd = Math.min(Math.min(
+					ray.tAtX(originX + (farX >>> shift & 0xFF)*stepX),
+					ray.tAtY(originY + (farY >>> shift & 0xFF)*stepY)),
+					ray.tAtZ(originZ + (farZ >>> shift & 0xFF)*stepZ));
+
+				// Checks for misses
+				if (tStart > tEnd || tEnd < tMin || tStart > tMax) {
+					entries[c] = Double.POSITIVE_INFINITY;
+				} else {
+					entries[c] = tStart;
+					entered |= 1 << c;
+				}
+			}
+			return entered;
+		}
+
+		int closestTriangle(TriangleMesh mesh, int offset, int count, Ray ray, double tMin, double tMax, TraversalStack stack) {
+			int closest = -1;
+			for (int i = offset; i < offset+count; i++) {
+				final double t = mesh.intersect(i, ray, tMin, tMax);
+				if (t < tMax) {
+					tMax = t;
+					closest = i;
+				}
+			}
+			stack.hitT = tMax;
+			return closest;
+		}
+
+		boolean anyTriangle(TriangleMesh mesh, int offset, int count, Ray ray, double tMin, double tMax, TraversalStack stack) {
+			for (int i = offset; i < offset+count; i++)
+				if (mesh.intersect(i, ray, tMin, tMax) < tMax)
+					return true;
+			return false;
+		}
+	}
+}
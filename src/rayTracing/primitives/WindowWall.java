@@ -1,7 +1,5 @@
 package rayTracing.primitives;
 
-import static math.MiscFuncs.determinant;
-
 import math.Ray;
 import math.Vector3D;
 import rayTracing.Material;
@@ -34,6 +32,12 @@ public class WindowWall implements Primitive {
 	/** The number of windows to have in the vertical direction. */
 	public final int windowsV; 
 	
+	/** The wall's precomputed plane and edge basis. */
+	private final PlanarQuad quad;
+	
+	/** The (unnormalized) normal pointing out of the building. */
+	private final Vector3D outwardNormal;
+	
 	/**
 	 * Creates a wall with windows with the given corners.
 	 * 
@@ -51,37 +55,76 @@ public class WindowWall implements Primitive {
 		this.wallMaterial = wallMaterial;
 		this.windowsH = windowsH;
 		this.windowsV = windowsV;
+		quad = new PlanarQuad(cornerBL, cornerBR.subtract(cornerBL), cornerTL.subtract(cornerBL));
+		outwardNormal = quad.normal.flip();
+	}
+
+	/**
+	 * Blends a wall's material with its windows' in proportion to the area
+	 * each covers, which is how the wall looks once its windows are too small
+	 * to tell apart. Every term of the shading is linear in the colors, so a
+	 * plain wall of this material shades like the average over the pattern.
+	 *
+	 * @param wallMaterial The material of the wall.
+	 * @param windowsH The number of windows in the horizontal direction.
+	 * @param windowsV The number of windows in the vertical direction.
+	 *
+	 * @return The blended material.
+	 */
+	public static Material distantMaterial(Material wallMaterial, int windowsH, int windowsV) {
+
+		// Computes the share of the wall covered by windows, following resolve's pattern
+		final double coverage = (0.95 - 0.05*windowsH) * (0.7 - 0.05*windowsV);
+
+		return new Material(
+			wallMaterial.ambientColor.scale(1-coverage).add(WINDOW.ambientColor.scale(coverage)),
+			wallMaterial.diffuseColor.scale(1-coverage).add(WINDOW.diffuseColor.scale(coverage)),
+			wallMaterial.specularColor.scale(1-coverage).add(WINDOW.specularColor.scale(coverage)),
+			WINDOW.shininess
+		);
 	}
 
 	public boolean intersects(Ray ray, double tMin, Record record) {
 		
-		// Stores the linear system to be solved
-		final Vector3D ACol1 = cornerBL.subtract(cornerBR);
-		final Vector3D ACol2 = cornerBL.subtract(cornerTL);
-		final Vector3D ACol3 = ray.direction;
-		final Vector3D b = cornerBL.subtract(ray.origin);
+		// Intersects the plane
+		final double t = quad.t(ray);
+		if (t < tMin || t >= record.getT()) return false;
+		
+		// Checks whether the hit is within the wall
+		final double beta = quad.u(ray, t);
+		if (beta < 0 || beta > 1) return false;
+		final double gamma = quad.v(ray, t);
+		if (gamma < 0 || gamma > 1) return false;
+		
+		return record.update(t, this, beta, gamma, 0);
+	}
+
+	public void resolve(Ray ray, Record record) {
+		
+		// Looks up the window pattern at the hit
+		final double beta = record.getU();
+		final double gamma = record.getV();
+		Material material = wallMaterial;
+		if (beta >= 0.05 && (beta-0.05) % (0.95/windowsH) <= 0.95/windowsH-0.05
+			&& gamma >= 0.3 && (gamma-0.3) % (0.7/windowsV) <= 0.7/windowsV-0.05)
+			material = WINDOW;
+		
+		record.setSurface(outwardNormal, material);
+	}
+
+	public boolean occludes(Ray ray, double tMin, double tMax) {
 		
-		// Computes the relevant determinants
-		final double detA = determinant(ACol1, ACol2, ACol3);
-		if (Math.abs(detA) <= 1e-4) return false;
-		final double beta = determinant(b, ACol2, ACol3)/detA;
-		final double gamma = determinant(ACol1, b, ACol3)/detA;
-		final double t = determinant(ACol1, ACol2, b)/detA;
+		// Intersects the plane
+		final double t = quad.t(ray);
+		if (t < tMin || t >= tMax) return false;
 		
-		// Checks whether an intersection happened
-		if (t < tMin) return false;
-		if (beta >= 0 && beta <= 1 && gamma >= 0 && gamma <= 1) {
-			
-			Material material = wallMaterial;
-			if (beta >= 0.05 && (beta-0.05) % (0.95/windowsH) <= 0.95/windowsH-0.05
-				&& gamma >= 0.3 && (gamma-0.3) % (0.7/windowsV) <= 0.7/windowsV-0.05)
-				material = WINDOW;
-			
-			return record.update(t, ACol2.cross(ACol1), material);
-		}
-		return false;
+		// Checks whether the hit is within the wall
+		final double beta = quad.u(ray, t);
+		if (beta < 0 || beta > 1) return false;
+		final double gamma = quad.v(ray, t);
+		return gamma >= 0 && gamma <= 1;
 	}
 
-	public Vector3D minBounds() {return Vector3D.min(Vector3D.min(cornerBL, cornerBR), Vector3D.min(cornerTL, cornerTL.add(cornerBR).subtract(cornerBL)));}
-	public Vector3D maxBounds() {return Vector3D.max(Vector3D.max(cornerBL, cornerBR), Vector3D.max(cornerTL, cornerTL.add(cornerBR).subtract(cornerBL)));}
+	public Vector3D minBounds() {return quad.min;}
+	public Vector3D maxBounds() {return quad.max;}
 }
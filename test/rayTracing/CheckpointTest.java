@@ -0,0 +1,93 @@
+package rayTracing;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Resumes checkpoints of a two tile render.
+ */
+public class CheckpointTest {
+
+	private static final int WIDTH = 8;
+	private static final int HEIGHT = 4;
+	private static final int TILE_SIZE = 4;
+	private static final int PIXELS = TILE_SIZE*TILE_SIZE;
+	private static final String SETTINGS = "aa.samples=3";
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void dropsCutOffLastRecord() throws IOException {
+		final File file = new File(dir, "render.ckpt");
+		final int[] first = tile(0x102030);
+		final int[] second = tile(0x405060);
+
+		// Saves both tiles, then cuts off the end of the last record
+		try (Checkpoint checkpoint = open(file)) {
+			checkpoint.save(0, first, PIXELS);
+			checkpoint.save(1, second, PIXELS);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length()-3);
+		}
+
+		// Restores the first tile only
+		final int[] pixels = new int[PIXELS];
+		try (Checkpoint checkpoint = open(file)) {
+			assertEquals(1, checkpoint.restoredTiles());
+			assertTrue(checkpoint.restore(0, pixels, PIXELS));
+			assertArrayEquals(first, pixels);
+			assertFalse(checkpoint.restore(1, pixels, PIXELS));
+			checkpoint.save(1, second, PIXELS);
+		}
+
+		// Restores the second tile from the record appended after the cut
+		try (Checkpoint checkpoint = open(file)) {
+			assertEquals(2, checkpoint.restoredTiles());
+			assertTrue(checkpoint.restore(1, pixels, PIXELS));
+			assertArrayEquals(second, pixels);
+		}
+	}
+
+	@Test
+	public void startsOverForOtherSettings() throws IOException {
+		final File file = new File(dir, "render.ckpt");
+		try (Checkpoint checkpoint = open(file)) {
+			checkpoint.save(0, tile(0x102030), PIXELS);
+		}
+
+		// Opens the checkpoint for a render with other settings, then for the first ones again
+		try (Checkpoint checkpoint = new Checkpoint(file, 42, WIDTH, HEIGHT, TILE_SIZE, "aa.samples=4")) {
+			assertEquals(0, checkpoint.restoredTiles());
+			assertFalse(checkpoint.restore(0, new int[PIXELS], PIXELS));
+		}
+		try (Checkpoint checkpoint = open(file)) {
+			assertEquals(0, checkpoint.restoredTiles());
+		}
+		assertEquals(42L, Checkpoint.readSeed(file));
+	}
+
+	private static Checkpoint open(File file) throws IOException {
+		return new Checkpoint(file, 42, WIDTH, HEIGHT, TILE_SIZE, SETTINGS);
+	}
+
+	/**
+	 * @return The pixels of a tile shading from the given color.
+	 */
+	private static int[] tile(int color) {
+		final int[] pixels = new int[PIXELS];
+		for (int i = 0; i < PIXELS; i++)
+			pixels[i] = color + i;
+		return pixels;
+	}
+}
@@ -0,0 +1,84 @@
+package rayTracing.primitives;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import math.Vector3D;
+import rayTracing.Material;
+
+/**
+ * Imports small meshes written in the less common forms the importer accepts.
+ * Each file starts with a vertex its faces do not use, so the bounds of the
+ * mesh show which vertices the faces were read as referring to.
+ */
+public class MeshImporterTest {
+
+	private static final Material MATERIAL = new Material(new Vector3D(0.2), new Vector3D(0.8), new Vector3D(0), 1);
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void readsObjWithNegativeIndicesAndCrlf() throws IOException {
+		final File file = new File(dir, "quad.obj");
+		final String obj = String.join("\r\n",
+			"# A unit quad in the xz plane",
+			"v 10 10 10",
+			"v 0 0 0",
+			"v 1 0 0",
+			"v 1 0 1",
+			"v 0 0 1",
+			"f -4 -3 -2 -1",
+			""
+		);
+		Files.write(file.toPath(), obj.getBytes(StandardCharsets.US_ASCII));
+
+		final TriangleMesh mesh = MeshImporter.load(file, MATERIAL);
+		assertEquals(2, mesh.size);
+		assertEquals(new Vector3D(0, 0, 0), mesh.minBounds());
+		assertEquals(new Vector3D(1, 0, 1), mesh.maxBounds());
+	}
+
+	@Test
+	public void readsBigEndianPlyWithVertexIndex() throws IOException {
+		final File file = new File(dir, "quad.ply");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+
+			// Writes the header
+			out.writeBytes(String.join("\n",
+				"ply",
+				"format binary_big_endian 1.0",
+				"element vertex 5",
+				"property float x",
+				"property float y",
+				"property float z",
+				"element face 1",
+				"property list uchar int vertex_index",
+				"end_header",
+				""
+			));
+
+			// Writes a unit quad in the xy plane after a vertex it does not use
+			final float[] positions = {10, 10, 10, 0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0};
+			for (float value : positions)
+				out.writeFloat(value);
+			out.writeByte(4);
+			for (int index = 1; index <= 4; index++)
+				out.writeInt(index);
+		}
+
+		final TriangleMesh mesh = MeshImporter.load(file, MATERIAL);
+		assertEquals(2, mesh.size);
+		assertEquals(new Vector3D(0, 0, 0), mesh.minBounds());
+		assertEquals(new Vector3D(1, 1, 0), mesh.maxBounds());
+	}
+}
@@ -0,0 +1,114 @@
+package rayTracing.primitives;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Material;
+import rayTracing.Record;
+
+/**
+ * Saves a scene holding every kind of primitive a scene file stores and
+ * checks it loads back the same, and that damaged copies fail to load.
+ */
+public class SceneFileTest {
+
+	private static final Material GROUND = new Material(new Vector3D(0.1), new Vector3D(0.5), new Vector3D(0), 1);
+	private static final Material WALL = new Material(new Vector3D(0.2), new Vector3D(0.6), new Vector3D(0.1), 8);
+
+	@TempDir
+	File dir;
+
+	@Test
+	public void roundTrips() throws IOException {
+		final LinearBVH bvh = scene();
+		final File file = new File(dir, "scene.city");
+		SceneFile.save(file, 1234, bvh);
+		final SceneFile scene = SceneFile.load(file);
+
+		// Compares the primitives and hierarchies
+		assertEquals(1234, scene.seed);
+		assertEquals(bvh.primitives.length, scene.primitives.size());
+		for (int i = 0; i < bvh.primitives.length; i++) {
+			final Primitive saved = bvh.primitives[i];
+			final Primitive loaded = scene.primitives.get(i);
+			assertSame(saved.getClass(), loaded.getClass());
+			assertEquals(saved.minBounds(), loaded.minBounds());
+			assertEquals(saved.maxBounds(), loaded.maxBounds());
+		}
+		assertArrayEquals(bvh.bounds, scene.bvh.bounds);
+		assertArrayEquals(bvh.nodes, scene.bvh.nodes);
+
+		// Traces a grid of rays down through both scenes
+		for (double x = 0.25; x < 4; x += 0.5) {
+			for (double z = 0.25; z < 7; z += 0.5) {
+				final Ray ray = new Ray(new Vector3D(x, 10, z), new Vector3D(0, -1, 0));
+				final Record saved = new Record();
+				final Record loaded = new Record();
+				assertEquals(bvh.closestHit(ray, saved), scene.bvh.closestHit(ray, loaded));
+				assertEquals(saved.getT(), loaded.getT());
+			}
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedFiles() throws IOException {
+		final File file = new File(dir, "scene.city");
+		SceneFile.save(file, 1234, scene());
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+
+		// Cuts the file short anywhere before its final padding
+		for (int length = 0; length < bytes.length-8; length++) {
+			final File cut = new File(dir, "cut" + length + ".city");
+			Files.write(cut.toPath(), Arrays.copyOf(bytes, length));
+			assertThrows(IOException.class, () -> SceneFile.load(cut), "cut to " + length + " bytes");
+		}
+	}
+
+	@Test
+	public void rejectsCorruptCounts() throws IOException {
+		final File file = new File(dir, "scene.city");
+		SceneFile.save(file, 1234, scene());
+
+		// Claims more materials than the file holds, then a negative number
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(16);
+			raf.write(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f});
+		}
+		assertThrows(IOException.class, () -> SceneFile.load(file));
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(16);
+			raf.write(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff});
+		}
+		assertThrows(IOException.class, () -> SceneFile.load(file));
+	}
+
+	/**
+	 * @return A hierarchy over a mesh, a parallelogram, a window wall and an instance.
+	 */
+	private static LinearBVH scene() {
+		final List<Primitive> primitives = new ArrayList<Primitive>();
+		primitives.add(new TriangleMesh(new double[] {0, 0, 0, 4, 0, 0, 0, 0, 4, 4, 0, 0, 4, 0, 4, 0, 0, 4}, new Material[] {GROUND, GROUND}));
+		primitives.add(new Parallelogram(new Vector3D(0, 0, 5), new Vector3D(1, 0, 5), new Vector3D(0, 1, 5), WALL));
+		primitives.add(new WindowWall(new Vector3D(2, 0, 6), new Vector3D(3, 0, 6), new Vector3D(2, 2, 6), WALL, 2, 3));
+		final Prototype prototype = new Prototype(Arrays.<Primitive>asList(
+			new Parallelogram(new Vector3D(0), new Vector3D(1, 0, 0), new Vector3D(0, 1, 0), WALL)
+		), WALL);
+		primitives.add(new Instance(prototype, new Vector3D(1, 0, 1), new Vector3D(2, 0, 0), new Vector3D(0, 2, 0), new Vector3D(0, 0, 2), WALL));
+		return new LinearBVH(primitives);
+	}
+}
@@ -0,0 +1,102 @@
+package rayTracing.primitives;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Collapses binary hierarchies over random boxes and checks the box each
+ * child decodes to holds the binary node it was made from.
+ */
+public class WideBVHTest {
+
+	@Test
+	public void childBoxesHoldBinaryBoxes() {
+		final Random random = new Random(42);
+		for (int n : new int[] {1, 2, 3, 5, 17, 100, 1000}) {
+			checkCollapse(randomBoxes(random, n, 0, 10, 1));
+			checkCollapse(randomBoxes(random, n, 1e5, 1, 1e-3));
+			checkCollapse(randomBoxes(random, n, -3, 1e4, 0));
+		}
+	}
+
+	/**
+	 * @param offset The corner of the region the boxes lie in, along each axis.
+	 * @param extent The size of the region.
+	 * @param size The largest size of a box, 0 for flat and point boxes.
+	 *
+	 * @return The bounds of n random boxes, stored as (minX, minY, minZ, maxX, maxY, maxZ).
+	 */
+	private static double[] randomBoxes(Random random, int n, double offset, double extent, double size) {
+		final double[] bounds = new double[6*n];
+		for (int i = 0; i < n; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				final double min = offset + extent*random.nextDouble();
+				bounds[6*i+axis] = min;
+				bounds[6*i+3+axis] = min + size*random.nextDouble();
+			}
+		}
+		return bounds;
+	}
+
+	private static void checkCollapse(double[] boxes) {
+		final BVHBuilder.FlatTree tree = BVHBuilder.buildFlat(boxes);
+		final int[] records = WideBVH.collapse(tree.bounds, tree.nodes);
+
+		// Names each binary node by the range of leaf items under it, which is unique in a binary tree
+		final Map<Long, Integer> binaryNodes = new HashMap<Long, Integer>();
+		binaryRange(tree.nodes, 0, binaryNodes);
+
+		wideRange(records, 0, tree.bounds, binaryNodes);
+	}
+
+	/**
+	 * @return The range of leaf items under a binary node, as first << 32 | end.
+	 */
+	private static long binaryRange(int[] nodes, int node, Map<Long, Integer> binaryNodes) {
+		final long range;
+		if (nodes[2*node+1] > 0)
+			range = (long) nodes[2*node] << 32 | nodes[2*node] + nodes[2*node+1];
+		else
+			range = binaryRange(nodes, nodes[2*node], binaryNodes) & ~0xFFFFFFFFL
+				| binaryRange(nodes, nodes[2*node]+1, binaryNodes) & 0xFFFFFFFFL;
+		binaryNodes.put(range, node);
+		return range;
+	}
+
+	/**
+	 * Checks each child of a node decodes to a box holding its binary node.
+	 *
+	 * @return The range of leaf items under the node, as first << 32 | end.
+	 */
+	private static long wideRange(int[] records, int node, double[] bounds, Map<Long, Integer> binaryNodes) {
+		final int r = WideBVH.NODE_INTS*node;
+		final int exponents = records[r+WideBVH.EXPONENTS];
+		long first = Long.MAX_VALUE, end = 0;
+		for (int c = 0; c < exponents >>> 24; c++) {
+			final long range = records[r+WideBVH.COUNTS+c] > 0
+				? (long) records[r+WideBVH.CHILDREN+c] << 32 | records[r+WideBVH.CHILDREN+c] + records[r+WideBVH.COUNTS+c]
+				: wideRange(records, records[r+WideBVH.CHILDREN+c], bounds, binaryNodes);
+			first = Math.min(first, range >>> 32);
+			end = Math.max(end, range & 0xFFFFFFFFL);
+
+			final Integer binary = binaryNodes.get(range);
+			assertNotNull(binary, "child " + c + " of node " + node + " matches no binary node");
+			for (int axis = 0; axis < 3; axis++) {
+				final double origin = Float.intBitsToFloat(records[r+WideBVH.ORIGIN+axis]);
+				final double step = WideBVH.step((exponents >>> 8*axis & 0xFF) - WideBVH.EXPONENT_BIAS);
+				final double min = origin + (records[r+WideBVH.PLANES+axis] >>> 8*c & 0xFF)*step;
+				final double max = origin + (records[r+WideBVH.PLANES+3+axis] >>> 8*c & 0xFF)*step;
+				assertTrue(min <= bounds[6*binary+axis] && max >= bounds[6*binary+3+axis],
+					"child " + c + " of node " + node + " decodes to [" + min + ", " + max + "] on axis " + axis
+					+ " around [" + bounds[6*binary+axis] + ", " + bounds[6*binary+3+axis] + "]");
+			}
+		}
+		return first << 32 | end;
+	}
+}
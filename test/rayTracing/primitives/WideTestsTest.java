@@ -0,0 +1,145 @@
+package rayTracing.primitives;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import math.Ray;
+import math.Vector3D;
+import rayTracing.Material;
+import rayTracing.primitives.LinearBVH.TraversalStack;
+
+/**
+ * Checks VectorWideTests finds exactly what Scalar does on a random mesh,
+ * for seeded random rays and for rays parallel to an axis. Skipped unless
+ * the jdk.incubator.vector module is added, as the build's tests do.
+ */
+public class WideTestsTest {
+
+	private static final Material MATERIAL = new Material(new Vector3D(0.2), new Vector3D(0.8), new Vector3D(0), 1);
+
+	/** The number of rays of each kind. */
+	private static final int RAYS = 2000;
+
+	private static final WideTests SCALAR = new WideTests.Scalar();
+
+	private static WideTests vector;
+
+	private static TriangleMesh mesh;
+
+	@BeforeAll
+	public static void setUp() throws ReflectiveOperationException {
+		assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(), "jdk.incubator.vector is not added");
+		vector = (WideTests) Class.forName("rayTracing.primitives.VectorWideTests").getDeclaredConstructor().newInstance();
+
+		// Makes triangles of every orientation, a third lying flat on whole numbered planes of x
+		final Random random = new Random(42);
+		final int size = 301;
+		final double[] vertices = new double[9*size];
+		final Material[] materials = new Material[size];
+		for (int i = 0; i < size; i++) {
+			final double x = i % 3 == 0 ? random.nextInt(11) : 10*random.nextDouble(), y = 10*random.nextDouble(), z = 10*random.nextDouble();
+			for (int v = 0; v < 3; v++) {
+				vertices[9*i+3*v] = x + (i % 3 == 0 ? 0 : random.nextDouble());
+				vertices[9*i+3*v+1] = y + random.nextDouble();
+				vertices[9*i+3*v+2] = z + random.nextDouble();
+			}
+			materials[i] = MATERIAL;
+		}
+		mesh = new TriangleMesh(vertices, materials);
+	}
+
+	@Test
+	public void childEntriesMatch() {
+		final Random random = new Random(1);
+		final double[] scalarEntries = new double[WideBVH.WIDTH];
+		final double[] vectorEntries = new double[WideBVH.WIDTH];
+		final IntBuffer nodes = mesh.nodes;
+		for (int i = 0; i < 2*RAYS; i++) {
+			final Ray ray = randomRay(random, i % 2 == 0);
+			final double tMin = random.nextInt(3) == 0 ? 0 : 5*random.nextDouble();
+			final double tMax = random.nextInt(3) == 0 ? Double.POSITIVE_INFINITY : tMin + 10*random.nextDouble();
+			for (int r = 0; r < nodes.limit(); r += WideBVH.NODE_INTS) {
+				Arrays.fill(scalarEntries, Double.POSITIVE_INFINITY);
+				Arrays.fill(vectorEntries, Double.POSITIVE_INFINITY);
+				final int scalarMask = SCALAR.childEntries(nodes, r, ray, tMin, tMax, scalarEntries);
+				final int vectorMask = vector.childEntries(nodes, r, ray, tMin, tMax, vectorEntries);
+				assertEquals(scalarMask, vectorMask, "children entered of record " + r + " by ray " + i);
+				assertArrayEquals(scalarEntries, vectorEntries, "entries of record " + r + " by ray " + i);
+			}
+		}
+	}
+
+	@Test
+	public void triangleTestsMatch() {
+		final Random random = new Random(2);
+		final TraversalStack stack = TraversalStack.acquire(0);
+		try {
+			for (int i = 0; i < 2*RAYS; i++) {
+				final Ray ray = randomRay(random, i % 2 == 0);
+				final double tMin = random.nextInt(3) == 0 ? 0 : 5*random.nextDouble();
+				final double tMax = random.nextInt(3) == 0 ? Double.POSITIVE_INFINITY : tMin + 10*random.nextDouble();
+
+				// Tests the mesh's leaves, then a run of up to 3 lanes past a multiple of the width
+				checkRange(randomLeaf(random), ray, tMin, tMax, stack, i);
+				final int count = 1 + random.nextInt(2*WideBVH.WIDTH + 3);
+				checkRange(new int[] {random.nextInt(mesh.size - count + 1), count}, ray, tMin, tMax, stack, i);
+			}
+		} finally {
+			stack.release();
+		}
+	}
+
+	/**
+	 * Compares the tests of a run of triangles.
+	 *
+	 * @param range The offset and count of the triangles.
+	 */
+	private static void checkRange(int[] range, Ray ray, double tMin, double tMax, TraversalStack stack, int i) {
+		final int scalarHit = SCALAR.closestTriangle(mesh, range[0], range[1], ray, tMin, tMax, stack);
+		final double scalarT = stack.hitT;
+		final int vectorHit = vector.closestTriangle(mesh, range[0], range[1], ray, tMin, tMax, stack);
+		assertEquals(scalarHit, vectorHit, "closest of " + Arrays.toString(range) + " for ray " + i);
+		assertEquals(scalarT, stack.hitT, "t of closest of " + Arrays.toString(range) + " for ray " + i);
+		assertEquals(SCALAR.anyTriangle(mesh, range[0], range[1], ray, tMin, tMax, stack),
+			vector.anyTriangle(mesh, range[0], range[1], ray, tMin, tMax, stack),
+			"any of " + Arrays.toString(range) + " for ray " + i);
+	}
+
+	/**
+	 * @return The offset and count of a random leaf of the mesh.
+	 */
+	private static int[] randomLeaf(Random random) {
+		final IntBuffer nodes = mesh.nodes;
+		while (true) {
+			final int r = WideBVH.NODE_INTS*random.nextInt(nodes.limit()/WideBVH.NODE_INTS);
+			final int c = random.nextInt(nodes.get(r+WideBVH.EXPONENTS) >>> 24);
+			if (nodes.get(r+WideBVH.COUNTS+c) > 0)
+				return new int[] {nodes.get(r+WideBVH.CHILDREN+c), nodes.get(r+WideBVH.COUNTS+c)};
+		}
+	}
+
+	/**
+	 * @param axial Whether to point the ray along an axis from a whole numbered
+	 *        origin, so it runs along the planes of flat triangles and boxes.
+	 *
+	 * @return A ray through the mesh.
+	 */
+	private static Ray randomRay(Random random, boolean axial) {
+		if (axial) {
+			final double[] direction = new double[3];
+			direction[random.nextInt(3)] = random.nextBoolean() ? 1 : -1;
+			return new Ray().setNormalized(random.nextInt(11), random.nextInt(11), random.nextInt(11),
+				direction[0], direction[1], direction[2]);
+		}
+		return new Ray().set(-2 + 14*random.nextDouble(), -2 + 14*random.nextDouble(), -2 + 14*random.nextDouble(),
+			random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+	}
+}